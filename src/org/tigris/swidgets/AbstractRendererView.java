@@ -0,0 +1,666 @@
+// $Id$
+
+package org.tigris.swidgets;
+
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+import javax.swing.CellRendererPane;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.DefaultListSelectionModel;
+import javax.swing.JComponent;
+import javax.swing.JList;
+import javax.swing.ListCellRenderer;
+import javax.swing.ListModel;
+import javax.swing.ListSelectionModel;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+import javax.swing.plaf.UIResource;
+
+/**
+ * The common part of the components that show the items of a
+ * <code>ListModel</code> in cells of the same size without a component
+ * for each, such as {@link NewspaperList} and {@link RendererGrid}. <p>
+ *
+ * Each item is painted by a single cell renderer, as with a
+ * <code>JList</code>, and selected by its index. The subclasses only
+ * decide where the cells go, which they work out arithmetically from
+ * the number of items and the size of a cell, so the memory used and
+ * the work done to paint, hit test or select are the same however many
+ * items the model holds.
+ */
+abstract class AbstractRendererView extends JComponent
+    implements Scrollable {
+
+    private static final long serialVersionUID = 2523006400506366903L;
+
+    private ListModel model;
+    private ListCellRenderer cellRenderer;
+    private ListSelectionModel selectionModel;
+    private final CellRendererPane rendererPane = new CellRendererPane();
+
+    /**
+     * The list passed to the cell renderer, which is never shown but
+     * carries the colours and font of this component. It holds no
+     * items.
+     */
+    private final JList rendererList = new JList();
+
+    private final Handler handler = new Handler();
+
+    private Object prototypeCellValue;
+    private int fixedCellWidth = -1;
+    private int fixedCellHeight = -1;
+
+    /**
+     * The preferred size of every item, or -1 if it must be found
+     * again.
+     */
+    private int itemWidth = -1;
+    private int itemHeight = -1;
+
+    /**
+     * The constructor.
+     *
+     * @param m the model holding the items to show
+     */
+    AbstractRendererView(ListModel m) {
+        add(rendererPane);
+        setModel(m);
+        setCellRenderer(new DefaultListCellRenderer());
+        setSelectionModel(new DefaultListSelectionModel());
+        setFont(rendererList.getFont());
+        setForeground(rendererList.getForeground());
+        setBackground(rendererList.getBackground());
+        setOpaque(true);
+        setFocusable(true);
+        addMouseListener(handler);
+        addKeyListener(handler);
+    }
+
+    /**
+     * Take the colours and font of a list from a new look and feel,
+     * unless they have been set.
+     *
+     * @see javax.swing.JComponent#updateUI()
+     */
+    public void updateUI() {
+        super.updateUI();
+        if (rendererList == null) {
+            return;
+        }
+        rendererList.updateUI();
+        if (getFont() instanceof UIResource) {
+            setFont(rendererList.getFont());
+        }
+        if (getForeground() instanceof UIResource) {
+            setForeground(rendererList.getForeground());
+        }
+        if (getBackground() instanceof UIResource) {
+            setBackground(rendererList.getBackground());
+        }
+        if (cellRenderer instanceof Component) {
+            SwingUtilities.updateComponentTreeUI((Component) cellRenderer);
+        }
+        itemsChanged();
+    }
+
+    /**
+     * @return the model holding the items shown
+     */
+    public ListModel getModel() {
+        return model;
+    }
+
+    /**
+     * @param m the model holding the items to show
+     */
+    public void setModel(ListModel m) {
+        if (m == null) {
+            throw new IllegalArgumentException("model must be non null");
+        }
+        if (model != null) {
+            model.removeListDataListener(handler);
+        }
+        model = m;
+        model.addListDataListener(handler);
+        if (selectionModel != null) {
+            selectionModel.clearSelection();
+        }
+        itemsChanged();
+    }
+
+    /**
+     * @return the renderer that paints each item
+     */
+    public ListCellRenderer getCellRenderer() {
+        return cellRenderer;
+    }
+
+    /**
+     * @param r the renderer that paints each item
+     */
+    public void setCellRenderer(ListCellRenderer r) {
+        cellRenderer = r;
+        itemsChanged();
+    }
+
+    /**
+     * @return the model holding the selected items
+     */
+    public ListSelectionModel getSelectionModel() {
+        return selectionModel;
+    }
+
+    /**
+     * @param sm the model holding the selected items
+     */
+    public void setSelectionModel(ListSelectionModel sm) {
+        if (sm == null) {
+            throw new IllegalArgumentException(
+                "selection model must be non null");
+        }
+        if (selectionModel != null) {
+            selectionModel.removeListSelectionListener(handler);
+        }
+        selectionModel = sm;
+        selectionModel.addListSelectionListener(handler);
+        repaint();
+    }
+
+    /**
+     * @return the value used to find the size of every item, or null
+     */
+    public Object getPrototypeCellValue() {
+        return prototypeCellValue;
+    }
+
+    /**
+     * Set a value the renderer is given to find the size of every item
+     * that has no fixed size. Without one the first item is used.
+     *
+     * @param value the value used to find the size of every item
+     */
+    public void setPrototypeCellValue(Object value) {
+        prototypeCellValue = value;
+        itemsChanged();
+    }
+
+    /**
+     * @return the width of every item, or -1 if it is found from the
+     * renderer
+     */
+    public int getFixedCellWidth() {
+        return fixedCellWidth;
+    }
+
+    /**
+     * @param width the width of every item, or -1 to find it from the
+     * renderer
+     */
+    public void setFixedCellWidth(int width) {
+        fixedCellWidth = width;
+        itemsChanged();
+    }
+
+    /**
+     * @return the height of every item, or -1 if it is found from the
+     * renderer
+     */
+    public int getFixedCellHeight() {
+        return fixedCellHeight;
+    }
+
+    /**
+     * @param height the height of every item, or -1 to find it from
+     * the renderer
+     */
+    public void setFixedCellHeight(int height) {
+        fixedCellHeight = height;
+        itemsChanged();
+    }
+
+    /**
+     * @param l the listener to hear of changes to the selection
+     */
+    public void addListSelectionListener(ListSelectionListener l) {
+        listenerList.add(ListSelectionListener.class, l);
+    }
+
+    /**
+     * @param l the listener to stop hearing of changes to the selection
+     */
+    public void removeListSelectionListener(ListSelectionListener l) {
+        listenerList.remove(ListSelectionListener.class, l);
+    }
+
+    /**
+     * @return the lowest selected index, or -1 if nothing is selected
+     */
+    public int getSelectedIndex() {
+        return selectionModel.getMinSelectionIndex();
+    }
+
+    /**
+     * @param index the index of the only item to select
+     */
+    public void setSelectedIndex(int index) {
+        if (index >= model.getSize()) {
+            return;
+        }
+        selectionModel.setSelectionInterval(index, index);
+    }
+
+    /**
+     * @return the item at the lowest selected index, or null if
+     * nothing is selected
+     */
+    public Object getSelectedValue() {
+        int index = getSelectedIndex();
+        return index < 0 ? null : model.getElementAt(index);
+    }
+
+    /**
+     * @param index the index of an item
+     * @return true if the item is selected
+     */
+    public boolean isSelectedIndex(int index) {
+        return selectionModel.isSelectedIndex(index);
+    }
+
+    /**
+     * Select nothing.
+     */
+    public void clearSelection() {
+        selectionModel.clearSelection();
+    }
+
+    /**
+     * Find the item shown at a point.
+     *
+     * @param location the point in the coordinates of this component
+     * @return the index of the item, or -1 if there is none there
+     */
+    public abstract int locationToIndex(Point location);
+
+    /**
+     * Find where an item is shown.
+     *
+     * @param index the index of the item
+     * @return the bounds of the cell of the item in the coordinates of
+     * this component, or null if there is no such item
+     */
+    public abstract Rectangle getCellBounds(int index);
+
+    /**
+     * Scroll an enclosing viewport so that an item can be seen.
+     *
+     * @param index the index of the item
+     */
+    public void ensureIndexIsVisible(int index) {
+        Rectangle bounds = getCellBounds(index);
+        if (bounds != null) {
+            scrollRectToVisible(bounds);
+        }
+    }
+
+    /**
+     * Find the area covering a range of items, to be repainted when
+     * their selection changes.
+     *
+     * @param first the index of the first item
+     * @param last the index of the last item
+     * @return an area containing the cells of every item from first to
+     * last, or null if there are no such items
+     */
+    abstract Rectangle getRangeBounds(int first, int last);
+
+    /**
+     * Find the item the lead selection moves to when a key is pressed.
+     *
+     * @param lead the index of the lead selection
+     * @param keyCode the key pressed
+     * @return the index of the item, or -1 if the key does not move the
+     * lead selection
+     */
+    abstract int moveIndex(int lead, int keyCode);
+
+    /**
+     * Paint the items whose cells are within an area, each with
+     * {@link #paintItem(Graphics, int, int, int, int, int)}.
+     *
+     * @param g the graphics to paint with
+     * @param clip the area to paint
+     */
+    abstract void paintItems(Graphics g, Rectangle clip);
+
+    /**
+     * @return the preferred width of every item
+     */
+    int getItemWidth() {
+        updateItemSize();
+        return itemWidth;
+    }
+
+    /**
+     * @return the preferred height of every item
+     */
+    int getItemHeight() {
+        updateItemSize();
+        return itemHeight;
+    }
+
+    /**
+     * Find the size of every item from the fixed sizes or else from the
+     * renderer given the prototype value or the first item.
+     */
+    private void updateItemSize() {
+        if (itemWidth >= 0) {
+            return;
+        }
+        itemWidth = fixedCellWidth;
+        itemHeight = fixedCellHeight;
+        if (itemWidth < 0 || itemHeight < 0) {
+            Object value = prototypeCellValue;
+            if (value == null && model.getSize() > 0) {
+                value = model.getElementAt(0);
+            }
+            Dimension d = new Dimension(0, 0);
+            if (value != null && cellRenderer != null) {
+                Component c = cellRenderer.getListCellRendererComponent(
+                    rendererList(), value, 0, false, false);
+                rendererPane.add(c);
+                d = c.getPreferredSize();
+                rendererPane.removeAll();
+            }
+            if (itemWidth < 0) itemWidth = d.width;
+            if (itemHeight < 0) itemHeight = d.height;
+        }
+        // An item must take some room for its position to be found
+        itemWidth = Math.max(1, itemWidth);
+        itemHeight = Math.max(1, itemHeight);
+    }
+
+    /**
+     * The items, the renderer or the sizes have changed so the size of
+     * the items and the cells they are shown in must be found again.
+     * Subclasses forget where their cells go.
+     */
+    void itemsChanged() {
+        itemWidth = -1;
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Paint only the items within the clip.
+     *
+     * @see javax.swing.JComponent#paintComponent(java.awt.Graphics)
+     */
+    protected void paintComponent(Graphics g) {
+        if (isOpaque()) {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, getWidth(), getHeight());
+        }
+        if (model.getSize() == 0 || cellRenderer == null) {
+            return;
+        }
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        rendererList();
+        paintItems(g, clip);
+        rendererPane.removeAll();
+    }
+
+    /**
+     * Stamp out an item with the cell renderer.
+     *
+     * @param g the graphics to paint with
+     * @param index the index of the item
+     * @param x the x of the item
+     * @param y the y of the item
+     * @param width the width of the item
+     * @param height the height of the item
+     */
+    void paintItem(Graphics g, int index, int x, int y,
+                   int width, int height) {
+        Component stamp = getItemComponent(index);
+        rendererPane.paintComponent(g, stamp, this, x, y, width, height,
+                                    true);
+    }
+
+    /**
+     * Get the component the cell renderer gives for an item, already
+     * told whether the item is selected and has the focus.
+     *
+     * @param index the index of the item
+     * @return the component to paint the item with
+     */
+    Component getItemComponent(int index) {
+        return cellRenderer.getListCellRendererComponent(
+            rendererList, model.getElementAt(index), index,
+            selectionModel.isSelectedIndex(index),
+            index == selectionModel.getLeadSelectionIndex() && hasFocus());
+    }
+
+    /**
+     * Paint a component that the cell renderer gave for an item at the
+     * bounds it has been given.
+     *
+     * @param g the graphics to paint with
+     * @param stamp the component from the cell renderer
+     */
+    void paintItemComponent(Graphics g, Component stamp) {
+        rendererPane.paintComponent(g, stamp, this,
+                                    stamp.getX(), stamp.getY(),
+                                    stamp.getWidth(), stamp.getHeight(),
+                                    true);
+    }
+
+    /**
+     * @return the list to pass to the cell renderer, with the colours
+     * and font of this component
+     */
+    private JList rendererList() {
+        rendererList.setFont(getFont());
+        rendererList.setForeground(getForeground());
+        rendererList.setBackground(getBackground());
+        rendererList.setEnabled(isEnabled());
+        rendererList.setComponentOrientation(getComponentOrientation());
+        return rendererList;
+    }
+
+    /**
+     * @see javax.swing.Scrollable#getPreferredScrollableViewportSize()
+     */
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    /**
+     * @see javax.swing.Scrollable#getScrollableBlockIncrement(
+     *          java.awt.Rectangle, int, int)
+     */
+    public int getScrollableBlockIncrement(Rectangle visibleRect,
+                                           int orientation, int direction) {
+        if (orientation == SwingConstants.VERTICAL) {
+            return visibleRect.height;
+        }
+        return visibleRect.width;
+    }
+
+    /**
+     * Select an item in response to the user, extending the selection
+     * to it or toggling it as the modifiers ask.
+     */
+    private void select(int index, int modifiers) {
+        if ((modifiers & InputEvent.SHIFT_DOWN_MASK) != 0
+            && selectionModel.getAnchorSelectionIndex() >= 0) {
+            selectionModel.setSelectionInterval(
+                selectionModel.getAnchorSelectionIndex(), index);
+        } else if ((modifiers & InputEvent.CTRL_DOWN_MASK) != 0) {
+            if (selectionModel.isSelectedIndex(index)) {
+                selectionModel.removeSelectionInterval(index, index);
+            } else {
+                selectionModel.addSelectionInterval(index, index);
+            }
+        } else {
+            selectionModel.setSelectionInterval(index, index);
+        }
+        ensureIndexIsVisible(index);
+    }
+
+    /**
+     * Repaint the items whose selection has changed, as far as they
+     * are visible, and tell the listeners of this component.
+     */
+    private void selectionChanged(ListSelectionEvent e) {
+        Rectangle visible = getVisibleRect();
+        Rectangle changed =
+            getRangeBounds(e.getFirstIndex(), e.getLastIndex());
+        if (changed != null) {
+            repaint(changed.intersection(visible));
+        } else {
+            repaint(visible);
+        }
+        Object[] listeners = listenerList.getListenerList();
+        ListSelectionEvent event = null;
+        for (int i = listeners.length - 2; i >= 0; i -= 2) {
+            if (listeners[i] == ListSelectionListener.class) {
+                if (event == null) {
+                    event = new ListSelectionEvent(this, e.getFirstIndex(),
+                                                   e.getLastIndex(),
+                                                   e.getValueIsAdjusting());
+                }
+                ((ListSelectionListener) listeners[i + 1])
+                    .valueChanged(event);
+            }
+        }
+    }
+
+    /**
+     * Move the lead selection as a key asks.
+     */
+    private void moveLead(KeyEvent e) {
+        int size = model.getSize();
+        if (size == 0) {
+            return;
+        }
+        int lead = Math.max(0, selectionModel.getLeadSelectionIndex());
+        int index;
+        switch (e.getKeyCode()) {
+        case KeyEvent.VK_HOME:
+            index = 0;
+            break;
+        case KeyEvent.VK_END:
+            index = size - 1;
+            break;
+        default:
+            index = moveIndex(lead, e.getKeyCode());
+            break;
+        }
+        if (index >= 0 && index < size) {
+            select(index, e.getModifiersEx());
+            e.consume();
+        }
+    }
+
+    /**
+     * Listens to the models of the component and to the user. It is
+     * serialized along with the component, so that the listeners are
+     * still registered once the component has been deserialized.
+     */
+    private class Handler extends MouseAdapter
+        implements KeyListener, ListDataListener, ListSelectionListener,
+                   java.io.Serializable {
+
+        private static final long serialVersionUID = -8817565075529921772L;
+
+        /**
+         * @see java.awt.event.MouseListener#mousePressed(
+         *          java.awt.event.MouseEvent)
+         */
+        public void mousePressed(MouseEvent e) {
+            if (!isEnabled()) {
+                return;
+            }
+            requestFocusInWindow();
+            int index = locationToIndex(e.getPoint());
+            if (index >= 0) {
+                select(index, e.getModifiersEx());
+            }
+        }
+
+        /**
+         * @see java.awt.event.KeyListener#keyPressed(
+         *          java.awt.event.KeyEvent)
+         */
+        public void keyPressed(KeyEvent e) {
+            moveLead(e);
+        }
+
+        /**
+         * @see java.awt.event.KeyListener#keyReleased(
+         *          java.awt.event.KeyEvent)
+         */
+        public void keyReleased(KeyEvent e) {
+        }
+
+        /**
+         * @see java.awt.event.KeyListener#keyTyped(java.awt.event.KeyEvent)
+         */
+        public void keyTyped(KeyEvent e) {
+        }
+
+        /**
+         * @see javax.swing.event.ListDataListener#intervalAdded(
+         *          javax.swing.event.ListDataEvent)
+         */
+        public void intervalAdded(ListDataEvent e) {
+            int first = Math.min(e.getIndex0(), e.getIndex1());
+            int length = Math.abs(e.getIndex1() - e.getIndex0()) + 1;
+            selectionModel.insertIndexInterval(first, length, true);
+            itemsChanged();
+        }
+
+        /**
+         * @see javax.swing.event.ListDataListener#intervalRemoved(
+         *          javax.swing.event.ListDataEvent)
+         */
+        public void intervalRemoved(ListDataEvent e) {
+            selectionModel.removeIndexInterval(e.getIndex0(), e.getIndex1());
+            itemsChanged();
+        }
+
+        /**
+         * @see javax.swing.event.ListDataListener#contentsChanged(
+         *          javax.swing.event.ListDataEvent)
+         */
+        public void contentsChanged(ListDataEvent e) {
+            itemsChanged();
+        }
+
+        /**
+         * @see javax.swing.event.ListSelectionListener#valueChanged(
+         *          javax.swing.event.ListSelectionEvent)
+         */
+        public void valueChanged(ListSelectionEvent e) {
+            selectionChanged(e);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+// $Id$
+
+package org.tigris.swidgets;
+
+import java.awt.Component;
+import java.lang.ref.WeakReference;
+
+/**
+ * The children of a container as they were when a layout last measured
+ * them, by index, so that a child that has since been replaced or
+ * moved is noticed. <p>
+ *
+ * Children are compared by reference, as identity hashes are not
+ * unique. The references are weak because the layout state holding
+ * the snapshot is itself weakly keyed by the container, and every
+ * child refers to its container, so strong references would keep the
+ * container alive. A reference is only created when the child at an
+ * index changes, so taking the snapshot again does not allocate.
+ */
+class ChildSnapshot {
+
+    private WeakReference[] children = new WeakReference[0];
+
+    /**
+     * Make room for a number of children, keeping those recorded.
+     *
+     * @param length the number of children
+     */
+    void ensure(int length) {
+        if (children.length >= length) {
+            return;
+        }
+        WeakReference[] grown =
+            new WeakReference[Math.max(length, children.length * 2)];
+        System.arraycopy(children, 0, grown, 0, children.length);
+        children = grown;
+    }
+
+    /**
+     * @return true if a component is the child recorded at an index
+     */
+    boolean is(int i, Component comp) {
+        WeakReference ref = children[i];
+        return ref != null && ref.get() == comp;
+    }
+
+    /**
+     * Record the child at an index.
+     *
+     * @return true if it is not the child recorded there before
+     */
+    boolean set(int i, Component comp) {
+        if (is(i, comp)) {
+            return false;
+        }
+        children[i] = new WeakReference(comp);
+        return true;
+    }
+
+    /**
+     * @return true if the first children of two snapshots are the
+     * same components
+     */
+    boolean same(ChildSnapshot other, int count) {
+        for (int i = 0; i < count; ++i) {
+            WeakReference ref = children[i];
+            if (ref == null || !other.is(i, (Component) ref.get())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,190 +1,80 @@
 package org.tigris.swidgets;
 
-import java.awt.*;
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Dimension;
+import java.awt.Insets;
+import java.util.Arrays;
 
 /**
- * Same as the standard java class GridLayout but allows more
- * flexability for sizing of columns and rows.
+ * A grid layout whose columns and rows are sized as tracks. <p>
+ *
+ * Each column and row may be given a {@link Track}, being a fixed
+ * number of pixels, a percentage of the space available to all
+ * tracks, the preferred size of its cells or a fraction of the space
+ * the other tracks leave over. The tracks are solved by one pass over
+ * the columns and one over the rows, so once the children have been
+ * measured a layout pass costs no more than the number of rows plus
+ * columns. As with {@link GridLayout2} children are only measured
+ * again after they have been invalidated. <p>
+ *
+ * Until any tracks are given the cells are sized as by GridLayout2,
+ * using the cell sizing scheme. <p>
+ *
+ * Children added with a {@link GridCell} constraint are placed in
+ * its cell, which may span several rows and columns, and the others
+ * flow into the free cells in between, so a form that needed nested
+ * panels can be laid out in one container. Once any child has a
+ * constraint every column and row is sized as a track, those without
+ * a track by their preferred size. <p>
+ *
+ * Children placed by their index may be aligned on their baselines,
+ * so that the text of the labels and fields along a row lines up.
+ * The baseline of each row is found once and kept until one of the
+ * children in the row is measured again.
  *
  * @author Bob Tarling
  */
-public class FlexiGridLayout implements LayoutManager, java.io.Serializable {
-
-     /**
-       * Do not resize the child components.
-       */
-    public static final int NONE = 0;
-
-     /**
-       * Resize all child components to fit their cell both
-       * horizontally and vertically.
-       */
-    public static final int BOTH = 1;
-
-     /**
-       * Resize all child components to fit their cell horizontally
-       * but not vertically.
-       */
-    public static final int HORIZONTAL = 2;
-
-     /**
-       * Resize all child components to fit their cell vertically but
-       * not horizontally.
-       */
-    public static final int VERTICAL = 3;
-
-     /**
-      * Put the component in the center of its display area.
-      */
-    public static final int CENTER = 10;
-
-     /**
-       * Put the component at the top of its display area,
-       * centered horizontally.
-       */
-    public static final int NORTH = 11;
-
-      /**
-       * Put the component at the top-right corner of its display area.
-       */
-    public static final int NORTHEAST = 12;
-
-      /**
-       * Put the component on the right side of its display area,
-       * centered vertically.
-       */
-    public static final int EAST = 13;
-
-      /**
-       * Put the component at the bottom-right corner of its display area.
-       */
-    public static final int SOUTHEAST = 14;
-
-      /**
-       * Put the component at the bottom of its display area, centered
-       * horizontally.
-       */
-    public static final int SOUTH = 15;
-
-     /**
-       * Put the component at the bottom-left corner of its display area.
-       */
-    public static final int SOUTHWEST = 16;
-
-      /**
-       * Put the component on the left side of its display area,
-       * centered vertically.
-       */
-    public static final int WEST = 17;
-
-     /**
-       * Put each component in the top-left corner of its display area.
-       */
-    public static final int NORTHWEST = 18;
-
-    /**
-     * This is the horizontal gap (in pixels) which specifies the space
-     * between columns.  They can be changed at any time.
-     * This should be a non negative integer.
-     *
-     * @serial
-     * @see #getHgap()
-     * @see #setHgap(int)
-     */
-    private int hgap;
-    /**
-     * This is the vertical gap (in pixels) which specifies the space
-     * between rows.  They can be changed at any time.
-     * This should be a non negative integer.
-     *
-     * @serial
-     * @see #getVgap()
-     * @see #setVgap(int)
-     */
-    private int vgap;
-    /**
-     * This is the number of rows specified for the grid.  The number
-     * of rows can be changed at any time.
-     * This should be a non negative integer, where '0' means
-     * 'any number' meaning that the number of Rows in that
-     * dimension depends on the other dimension.
-     *
-     * @serial
-     * @see #getRows()
-     * @see #setRows(int)
-     */
-    private int rows;
-    /**
-     * This is the number of columns specified for the grid.  The number
-     * of columns can be changed at any time.
-     * This should be a non negative integer, where '0' means
-     * 'any number' meaning that the number of Columns in that
-     * dimension depends on the other dimension.
-     *
-     * @serial
-     * @see #getColumns()
-     * @see #setCols(int)
-     */
-    private int cols;
+public class FlexiGridLayout extends GridLayout2 {
 
     /**
-     * Size all cells as the largest prefered width and height
-     * component. <p>
-     *
-     * A possible value for the cellSizing parameter of the
-     * constructor in order to size cells so that each have the same
-     * width and height. The width is the largest prefered width and
-     * the height is the largest prefered height of all these child
-     * components.
+     * The tracks of the columns, or null if none have been given.
      */
-    public static final int MAXPREFERRED = 20;
+    private Track[] columnTracks;
 
     /**
-     * Size all cells so that all in the same row are the same height
-     * and all in the same column are the same width.<p>
-     *
-     * A possible value for the cellSizing parameter of the
-     * constructor. The width is the largest prefered width of all
-     * components in the same column and the height is the largest
-     * prefered height of all components in the same row.
+     * The tracks of the rows, or null if none have been given.
      */
-    public static final int ROWCOLPREFERRED = 21;
+    private Track[] rowTracks;
 
     /**
-     * Size all cells as the same width and height to fit the parent
-     * component. <p>
-     *
-     * A possible value for the cellSizing parameter of the
-     * constructor in order to size cells so that each has the same
-     * height and width and are sized to fit their parent.  This
-     * emulates the sizing done by a standard GridLayout.
+     * Incremented whenever the tracks change.
      */
-    public static final int FITPARENT = 22;
-
-    private int cellSizing = FITPARENT;
-
-    private int fill = BOTH;
-    private int anchor = WEST;
+    private transient int tracksVersion;
 
     /**
-     * The height of the child component with the largest height
+     * The least widths of the container at which the number of columns
+     * changes, in ascending order.
      */
-    private int largestHeight; 
+    private int[] breakpointWidths = new int[0];
+
     /**
-     * The width of the child component with the largest width
+     * The number of columns at each breakpoint.
      */
-    private int largestWidth;
+    private int[] breakpointColumns = new int[0];
+
     /**
-     * The required cell width of each column
+     * Incremented whenever the breakpoints change.
      */
-    private int[] colWidth;
+    private transient int breakpointsVersion;
+
     /**
-     * The required cell height of each row
+     * True if the children in each row are aligned on their baselines.
      */
-    private int[] rowHeight;
+    private boolean baselineAligned;
 
     /**
-     * Construct a new GridLayout2 with a default of one column per
+     * Construct a new FlexiGridLayout with a default of one column per
      * component, in a single row.
      */
     public FlexiGridLayout() {
@@ -192,18 +82,18 @@ public class FlexiGridLayout implements LayoutManager, java.io.Serializable {
     }
 
     /**
-     * Construct a new GridLayout2 with the specified number of rows
+     * Construct a new FlexiGridLayout with the specified number of rows
      * and columns.
      *
      * @param rows the number of rows in the layout
      * @param cols the number of columns in the layout
      */
-    public FlexiGridLayout(int r, int c) {
-	this(r, c, 0, 0);
+    public FlexiGridLayout(int rows, int cols) {
+	this(rows, cols, 0, 0);
     }
 
     /**
-     * Construct a new GridLayout2 with the specified number of rows
+     * Construct a new FlexiGridLayout with the specified number of rows
      * and columns and cell spacing.
      *
      * @param rows the number of rows in the layout
@@ -212,18 +102,11 @@ public class FlexiGridLayout implements LayoutManager, java.io.Serializable {
      * @param vgap the vertical gap between cells
      */
     public FlexiGridLayout(int rows, int cols, int hgap, int vgap) {
-	if ((rows == 0) && (cols == 0)) {
-	    throw new IllegalArgumentException("rows and cols cannot "
-					       + "both be zero");
-	}
-	this.rows = rows;
-	this.cols = cols;
-	this.hgap = hgap;
-	this.vgap = vgap;
+	super(rows, cols, hgap, vgap);
     }
 
     /**
-     * Construct a new GridLayout2 with the specified number of rows
+     * Construct a new FlexiGridLayout with the specified number of rows
      * and columns and cell sizing scheme.
      *
      * @param rows the number of rows in the layout
@@ -235,7 +118,7 @@ public class FlexiGridLayout implements LayoutManager, java.io.Serializable {
     }
 
     /**
-     * Construct a new GridLayout2 with the specified number of rows
+     * Construct a new FlexiGridLayout with the specified number of rows
      * and columns, cell spacing and cell sizing scheme.
      *
      * @param rows the number of rows in the layout
@@ -244,13 +127,13 @@ public class FlexiGridLayout implements LayoutManager, java.io.Serializable {
      * @param vgap the vertical gap between cells
      * @param cellSizing the required cell sizing scheme
      */
-    public FlexiGridLayout(int rows, int cols, int hgap, int vgap, int cellSizing) {
-        this(rows, cols, hgap, vgap);
-        this.cellSizing = cellSizing;
+    public FlexiGridLayout(int rows, int cols, int hgap, int vgap,
+			   int cellSizing) {
+        super(rows, cols, hgap, vgap, cellSizing);
     }
 
     /**
-     * Construct a new GridLayout2 with the specified number of rows
+     * Construct a new FlexiGridLayout with the specified number of rows
      * and columns, cell spacing, cell sizing scheme and filling
      * scheme.
      *
@@ -264,12 +147,11 @@ public class FlexiGridLayout implements LayoutManager, java.io.Serializable {
     public FlexiGridLayout(int rows, int cols, int hgap, int vgap,
 		       int cellSizing, int fill)
     {
-        this(rows, cols, hgap, vgap, cellSizing);
-        this.fill = fill;
+        super(rows, cols, hgap, vgap, cellSizing, fill);
     }
 
     /**
-     * Construct a new GridLayout2 with the specified number of rows
+     * Construct a new FlexiGridLayout with the specified number of rows
      * and columns, cell spacing, cell sizing scheme and component
      * sizing and anchoring scheme.
      *
@@ -283,449 +165,870 @@ public class FlexiGridLayout implements LayoutManager, java.io.Serializable {
      */
     public FlexiGridLayout(int rows, int cols, int hgap, int vgap,
 		       int cellSizing, int fill, int anchor) {
-        this(rows, cols, hgap, vgap, cellSizing, fill);
-        this.anchor = anchor;
+        super(rows, cols, hgap, vgap, cellSizing, fill, anchor);
     }
 
-
-    /** 
-     * Adds the specified component with the specified name to the
-     * layout. This is included to satisfy the LayoutManager interface
-     * but is not actually used in this layout implementation.
+    /**
+     * Set the tracks of the columns. Columns beyond the last track given
+     * are sized by their preferred size. Tracks are not used in sparse
+     * mode.
      *
-     * @param name the name of the component
-     * @param comp the component to be added
-     */    
-    public void addLayoutComponent(String name, Component comp) {
+     * @param tracks the track of each column, or null to size the
+     * columns by the cell sizing scheme
+     */
+    public void setColumnTracks(Track[] tracks) {
+        columnTracks = tracks == null ? null : tracks.clone();
+        ++tracksVersion;
     }
 
-    /** 
-     * Removes the specified component with the specified name from
-     * the layout. This is included to satisfy the LayoutManager
-     * interface but is not actually used in this layout
-     * implementation.
-     *
-     * @param name the name of the component
-     */    
-    public void removeLayoutComponent(Component comp) {
+    /**
+     * @return the tracks of the columns, or null if none have been given
+     */
+    public Track[] getColumnTracks() {
+        return columnTracks == null ? null : columnTracks.clone();
     }
 
     /**
-     * Determines the preferred size of the container argument using
-     * this grid layout.  The preferred size of a grid layout is
-     * dependant on the cellSizing scheme.<p>
-     *
-     * MAXPREFERRED and FITPARENT use the same formula to calculate
-     * prefered size.<p>
-     *
-     * The prefered width using MAXPREFERRED or FITPARENT is the
-     * largest preferred width of any of the widths in the container
-     * times the number of columns, plus the horizontal padding times
-     * the number of columns plus one, plus the left and right insets
-     * of the target container.<p>
-     *
-     * The preferred height using MAXPREFERRED or FITPARENT is the
-     * largest preferred height of any of the heights in the container
-     * times the number of rows, plus the vertical padding times the
-     * number of rows plus one, plus the top and bottom insets of the
-     * target container.<p>
-     *
-     * The prefered width using ROWCOLPREFERRED is the largest
-     * preferred is the sum of the widths of of all columns, plus the
-     * horizontal padding times the number of columns plus one, plus
-     * the left and right insets of the target container.<p>
+     * Set the tracks of the rows. Rows beyond the last track given are
+     * sized by their preferred size. Tracks are not used in sparse
+     * mode.
      *
-     * The prefered height using ROWCOLPREFERRED is the largest
-     * preferred is the sum of the heights of of all columns, plus the
-     * horizontal padding times the number of columns plus one, plus
-     * the left and right insets of the target container.
-     *
-     * @param parent the container to be laid out 
-     * @return the preferred dimensions to lay out the subcomponents
-     * of the specified container
+     * @param tracks the track of each row, or null to size the rows by
+     * the cell sizing scheme
      */
-    public Dimension preferredLayoutSize(Container parent) {
-        synchronized (parent.getTreeLock()) {
-            int componentCount = parent.getComponentCount();
-            int actualRows = rows;
-            int actualCols = cols;
-
-            if (actualRows > 0) {
-                actualCols = (componentCount + actualRows - 1) / actualRows;
-            } else {
-                actualRows = (componentCount + actualCols - 1) / actualCols;
-            }
-
-            colWidth = new int[actualCols];
-            rowHeight = new int[actualRows];
-            int largestPreferredWidth = 0;
-            int largestPreferredHeight = 0;
-
-            for (int c = 0; c < actualCols; ++c) {
-                for (int r = 0; r < actualRows; ++r) {
-                    int i = r * actualCols + c;
-                    if (i < componentCount) {
-                        if (parent.getComponent(i).getPreferredSize().getWidth()
-			    > colWidth[c])
-			{
-                            colWidth[c] =
-				(int)
-				parent.getComponent(i)
-				.getPreferredSize().getWidth();
-                            if (colWidth[c] > largestPreferredWidth)
-				largestPreferredWidth = colWidth[c];
-                        }
-                        if (parent.getComponent(i)
-			    .getPreferredSize().getHeight()
-			    > rowHeight[r])
-			{
-                            rowHeight[r] =
-				(int)
-				parent.getComponent(i)
-				.getPreferredSize().getHeight();
-                            if (rowHeight[r] > largestPreferredHeight)
-				largestPreferredHeight = rowHeight[r];
-                        }
-                    }
-                }
-            }
-
-            return calculateSizes(parent, colWidth, rowHeight,
-				  actualRows, actualCols,
-				  largestPreferredWidth,
-				  largestPreferredHeight);
-        }
+    public void setRowTracks(Track[] tracks) {
+        rowTracks = tracks == null ? null : tracks.clone();
+        ++tracksVersion;
     }
 
-    /** 
-     * Required by LayoutManager.
-     * 
-     * @see java.awt.LayoutManager#minimumLayoutSize(java.awt.Container)
+    /**
+     * @return the tracks of the rows, or null if none have been given
      */
-    public Dimension minimumLayoutSize(Container parent) {
-        synchronized (parent.getTreeLock()) {
-            int componentCount = parent.getComponentCount();
-            int actualRows = rows;
-            int actualCols = cols;
+    public Track[] getRowTracks() {
+        return rowTracks == null ? null : rowTracks.clone();
+    }
 
-            if (actualRows > 0) {
-                actualCols = (componentCount + actualRows - 1) / actualRows;
-            } else {
-                actualRows = (componentCount + actualCols - 1) / actualCols;
+    /**
+     * Set the widths at which the number of columns changes. A
+     * container at least as wide as one of the widths but narrower
+     * than the next has the number of columns given for it, and as
+     * many rows as its children need. A container narrower than the
+     * first width has the rows and columns given to the layout. <p>
+     *
+     * The measurements and solved tracks are kept for each
+     * breakpoint, so resizing within a breakpoint only sizes the
+     * percentage and fraction tracks again and returning to a
+     * breakpoint reuses what was found there before.
+     *
+     * @param widths the least width of each breakpoint, in ascending
+     * order, or null for no breakpoints
+     * @param columns the number of columns at each breakpoint
+     */
+    public void setBreakpoints(int[] widths, int[] columns) {
+        if (widths == null || columns == null) {
+            if (widths != columns) {
+                throw new IllegalArgumentException("widths and columns "
+                                                   + "must both be given");
             }
-
-            colWidth = new int[actualCols];
-            rowHeight = new int[actualRows];
-            int largestMinimumWidth = 0;
-            int largestMinimumHeight = 0;
-
-            for (int c = 0; c < actualCols; ++c) {
-                for (int r = 0; r < actualRows; ++r) {
-                    int i = r * actualCols + c;
-                    if (i < componentCount) {
-                        if (parent.getComponent(i).getMinimumSize().getWidth()
-			    > colWidth[c]) 
-			{
-                            colWidth[c] =
-				(int)
-				parent.getComponent(i)
-				.getMinimumSize().getWidth();
-                            if (colWidth[c] > largestMinimumWidth)
-				largestMinimumWidth = colWidth[c];
-                        }
-                        if (parent.getComponent(i).getMinimumSize().getHeight()
-			    > rowHeight[r]) {
-                            rowHeight[r] =
-				(int)
-				parent.getComponent(i)
-				.getMinimumSize().getHeight();
-                            if (rowHeight[r] > largestMinimumHeight)
-				largestMinimumHeight = rowHeight[r];
-                        }
-                    }
-                }
+            widths = new int[0];
+            columns = new int[0];
+        }
+        if (widths.length != columns.length) {
+            throw new IllegalArgumentException("there must be a number "
+                                               + "of columns for each "
+                                               + "width");
+        }
+        for (int k = 0; k < widths.length; ++k) {
+            if (k > 0 && widths[k] <= widths[k - 1]) {
+                throw new IllegalArgumentException("widths must be in "
+                                                   + "ascending order");
+            }
+            if (columns[k] < 1) {
+                throw new IllegalArgumentException("there must be at "
+                                                   + "least one column");
             }
-
-            return calculateSizes(parent, colWidth, rowHeight,
-				  actualRows, actualCols,
-				  largestMinimumWidth, largestMinimumHeight);
         }
+        breakpointWidths = widths.clone();
+        breakpointColumns = columns.clone();
+        ++breakpointsVersion;
     }
 
     /**
-     * @see java.awt.LayoutManager#layoutContainer(java.awt.Container)
+     * @return the least width of each breakpoint
      */
-    public void layoutContainer(Container parent) {
-        synchronized (parent.getTreeLock()) {
-            int ncomponents = parent.getComponentCount();
-            if (ncomponents == 0) {
-                return;
-            }
-            Insets insets = parent.getInsets();
-            int nrows = this.rows;
-            int ncols = this.cols;
+    public int[] getBreakpointWidths() {
+        return breakpointWidths.clone();
+    }
 
-            if (nrows > 0) {
-                ncols = (ncomponents + nrows - 1) / nrows;
-            } else {
-                nrows = (ncomponents + ncols - 1) / ncols;
-            }
+    /**
+     * @return the number of columns at each breakpoint
+     */
+    public int[] getBreakpointColumns() {
+        return breakpointColumns.clone();
+    }
 
-            colWidth = new int[ncols];
-            rowHeight = new int[nrows];
-            largestWidth = 0;
-            largestHeight = 0;
-
-            if (cellSizing == FITPARENT) {
-                int availableWidth =
-		    parent.getWidth() 
-		    - (insets.left + insets.right + (ncols - 1) * hgap);
-                int availableHeight =
-		    parent.getHeight()
-		    - (insets.top + insets.bottom + (nrows - 1) * vgap);
-                largestWidth = availableWidth / ncols;
-                largestHeight = availableHeight / nrows;
-            }
-            else {
-                for (int c = 0; c < ncols; ++c) {
-                    for (int r = 0; r < nrows; ++r) {
-                        int i = r * ncols + c;
-                        if (i < ncomponents) {
-                            if (parent.getComponent(i)
-				.getPreferredSize().getWidth()
-				> colWidth[c])
-			    {
-                                colWidth[c] =
-				    (int)
-				    parent.getComponent(i)
-				    .getPreferredSize().getWidth();
-                                if (colWidth[c] > largestWidth)
-				    largestWidth = colWidth[c];
-                            }
-                            if (parent.getComponent(i)
-				.getPreferredSize().getHeight()
-				> rowHeight[r])
-			    {
-                                rowHeight[r] =
-				    (int)
-				    parent.getComponent(i)
-				    .getPreferredSize().getHeight();
-                                if (rowHeight[r] > largestHeight)
-				    largestHeight = rowHeight[r];
-                            }
-                        }
-                    }
-                }
+    /**
+     * Get the layout state of a container for the breakpoint its
+     * width falls in. On moving to another breakpoint the state kept
+     * for that breakpoint catches up with any children measured again
+     * since it was last used.
+     *
+     * @see org.tigris.swidgets.GridLayout2#getLayoutState(java.awt.Container)
+     */
+    GridLayoutState getLayoutState(Container parent) {
+        FlexiState s = (FlexiState) super.getLayoutState(parent);
+        if (s.breakpointsVersion != breakpointsVersion) {
+            FlexiState last = s.current;
+            s.breakpointsVersion = breakpointsVersion;
+            s.byBreakpoint = new FlexiState[breakpointWidths.length];
+            s.current = s;
+            if (last != null && last != s) {
+                catchUp(s, last);
             }
+        }
 
-            int cellWidth;
-            int cellHeight;
-            for (int c = 0, x = insets.left;
-		 c < ncols;
-		 x += cellWidth + hgap, ++c)
-	    {
-                cellWidth = getComponentCellWidth(c);
-                for (int r = 0, y = insets.top;
-		     r < nrows;
-		     y += cellHeight + vgap, ++r)
-		{
-                    cellHeight = getComponentCellHeight(r);
-
-                    int i = r * ncols + c;
-
-                    if (i < ncomponents) {
-                        positionComponentInCell(parent.getComponent(i), x, y,
-						cellWidth, cellHeight);
-                    }
-                }
+        int width = parent.getWidth();
+        int k = breakpointWidths.length - 1;
+        while (k >= 0 && width < breakpointWidths[k]) {
+            --k;
+        }
+        FlexiState target = s;
+        if (k >= 0) {
+            if (s.byBreakpoint[k] == null) {
+                s.byBreakpoint[k] = new FlexiState();
             }
+            target = s.byBreakpoint[k];
         }
+        if (target != s.current) {
+            catchUp(target, s.current);
+            s.current = target;
+        }
+        target.breakpoint = k;
+        return target;
     }
 
-
-    protected Dimension calculateSizes(Container parent, 
-				       int colWidth[], int rowHeight[],
-				       int actualRows, int actualCols,
-				       int largestWidth, int largestHeight)
-    {
-        int w = 0;
-        int h = 0;
-        if (cellSizing == FlexiGridLayout.ROWCOLPREFERRED) {
-            for (int c = 0; c < actualCols; ++c) w += colWidth[c];
-            for (int r = 0; r < actualRows; ++r) h += rowHeight[r];
-        }
-        else {
-            w = largestWidth * actualCols;
-            h = largestHeight * actualRows;
+    /**
+     * Bring the state kept for one breakpoint up to date with the
+     * state last laid out.
+     */
+    private static void catchUp(FlexiState target, FlexiState last) {
+        target.adopt(last);
+        if (target.spanGrid != null) {
+            target.spanGrid.adopt(last.spanGrid);
         }
+    }
 
-        Insets insets = parent.getInsets();
-        return new Dimension(insets.left + insets.right + w 
-			     + (actualCols - 1) * hgap,
-                             insets.top + insets.bottom + h
-			     + (actualRows - 1) * vgap);
+    /**
+     * @see org.tigris.swidgets.GridLayout2#getActualRows(GridLayoutState,
+     * int)
+     */
+    int getActualRows(GridLayoutState s, int ncomponents) {
+        int breakpoint = ((FlexiState) s).breakpoint;
+        if (breakpoint < 0) {
+            return super.getActualRows(s, ncomponents);
+        }
+        int columns = breakpointColumns[breakpoint];
+        return (ncomponents + columns - 1) / columns;
     }
 
-    protected int getComponentCellHeight(int row) {
-        if (cellSizing == ROWCOLPREFERRED) return rowHeight[row];
-        return largestHeight;
+    /**
+     * @see org.tigris.swidgets.GridLayout2#getActualCols(GridLayoutState,
+     * int)
+     */
+    int getActualCols(GridLayoutState s, int ncomponents) {
+        int breakpoint = ((FlexiState) s).breakpoint;
+        if (breakpoint < 0) {
+            return super.getActualCols(s, ncomponents);
+        }
+        return breakpointColumns[breakpoint];
     }
 
-    protected int getComponentCellWidth(int col) {
-        if (cellSizing == ROWCOLPREFERRED) return colWidth[col];
-        return largestWidth;
+    /**
+     * @return true if children are placed in the cells of their
+     * constraints
+     */
+    private boolean isSpanning() {
+        return !isSparse() && hasConstraints();
     }
 
-    protected void positionComponentInCell(Component comp,
-					   int x, int y,
-					   int cellWidth, int cellHeight)
-    {
-        int componentWidth;
-        int componentHeight;
-        if (fill == VERTICAL || fill == NONE) {
-            componentWidth = (int) comp.getPreferredSize().getWidth();
+    /**
+     * @see java.awt.LayoutManager#preferredLayoutSize(java.awt.Container)
+     */
+    public Dimension preferredLayoutSize(Container parent) {
+        if (isSpanning()) {
+            synchronized (parent.getTreeLock()) {
+                return spanningLayoutSize(parent, false);
+            }
+        }
+        if (!baselineAligned || isSparse()) {
+            return super.preferredLayoutSize(parent);
         }
-        else {
-            componentWidth = cellWidth;
+        synchronized (parent.getTreeLock()) {
+            FlexiState s = (FlexiState) measure(parent);
+            updateBaselines(parent, s);
+            return calculateSizes(parent, s.colWidth, s.baselineHeights,
+                                  s.rows, s.cols,
+                                  s.largestPreferredWidth,
+                                  s.largestPreferredHeight);
         }
+    }
 
-        if (fill == HORIZONTAL || fill == NONE) {
-            componentHeight = (int) comp.getPreferredSize().getHeight();
+    /**
+     * @see java.awt.LayoutManager#minimumLayoutSize(java.awt.Container)
+     */
+    public Dimension minimumLayoutSize(Container parent) {
+        if (!isSpanning()) {
+            return super.minimumLayoutSize(parent);
         }
-        else {
-            componentHeight = cellHeight;
+        synchronized (parent.getTreeLock()) {
+            return spanningLayoutSize(parent, true);
         }
+    }
 
-        int xAnchor, yAnchor;
-        if (fill == BOTH || fill == HORIZONTAL
-	    || anchor == NORTHWEST || anchor == WEST || anchor == SOUTHWEST)
-	{
-            xAnchor = x;
+    /**
+     * @see java.awt.LayoutManager#layoutContainer(java.awt.Container)
+     */
+    public void layoutContainer(Container parent) {
+        if (!isSpanning()) {
+            super.layoutContainer(parent);
+            return;
+        }
+        synchronized (parent.getTreeLock()) {
+            if (parent.getComponentCount() > 0) {
+                layoutSpanning(parent);
+            }
         }
-        else if (anchor == NORTHEAST || anchor == EAST || anchor == SOUTHEAST)
-	{
-            xAnchor = x + cellWidth - componentWidth;
+    }
+
+    /**
+     * Measure the children of a container placed by their constraints.
+     *
+     * @param parent the container
+     * @param s the layout state of the container
+     * @return the span grid of the container
+     */
+    private SpanGrid measureSpanning(Container parent, FlexiState s) {
+        if (s.spanGrid == null) {
+            s.spanGrid = new SpanGrid();
         }
-        else {
-            xAnchor = x + (cellWidth - componentWidth) / 2;
+        int columns = getActualCols(s, parent.getComponentCount());
+        s.spanGrid.measure(parent, this, Math.max(1, columns),
+                           getHgap(), getVgap());
+        return s.spanGrid;
+    }
+
+    /**
+     * Calculate the preferred or minimum size of a container whose
+     * children are placed by their constraints.
+     */
+    private Dimension spanningLayoutSize(Container parent, boolean minimum) {
+        Insets insets = parent.getInsets();
+        Dimension size = new Dimension(insets.left + insets.right,
+                                       insets.top + insets.bottom);
+        if (parent.getComponentCount() == 0) {
+            return size;
         }
+        SpanGrid grid =
+            measureSpanning(parent, (FlexiState) getLayoutState(parent));
+        size.width += span(columnTracks, grid.ncols,
+                           minimum ? grid.colMinExtent : grid.colExtent, 0)
+            + (grid.ncols - 1) * getHgap();
+        size.height += span(rowTracks, grid.nrows,
+                            minimum ? grid.rowMinExtent : grid.rowExtent, 0)
+            + (grid.nrows - 1) * getVgap();
+        return size;
+    }
 
-        if (fill == BOTH || fill == VERTICAL
-	    || anchor == NORTH || anchor == NORTHWEST || anchor == NORTHEAST)
-	{
-            yAnchor = y;
+    /**
+     * Lay out a container whose children are placed by their
+     * constraints.
+     */
+    private void layoutSpanning(Container parent) {
+        FlexiState s = (FlexiState) getLayoutState(parent);
+        SpanGrid grid = measureSpanning(parent, s);
+        Insets insets = parent.getInsets();
+        int hgap = getHgap();
+        int vgap = getVgap();
+        solve(columnTracks, grid.ncols, grid.colExtent, 0,
+              grid.colMinExtent, 0,
+              parent.getWidth() - (insets.left + insets.right
+                                   + (grid.ncols - 1) * hgap),
+              s.colAxis);
+        solve(rowTracks, grid.nrows, grid.rowExtent, 0,
+              grid.rowMinExtent, 0,
+              parent.getHeight() - (insets.top + insets.bottom
+                                    + (grid.nrows - 1) * vgap),
+              s.rowAxis);
+        int[] colSize = s.colAxis.sizes;
+        int[] rowSize = s.rowAxis.sizes;
+        // The tracks solved here are not those of a grid by index
+        s.fixedVersion = -1;
+        for (int c = 0, x = insets.left; c < grid.ncols; ++c) {
+            grid.colPos[c] = x;
+            x += colSize[c] + hgap;
         }
-        else if (anchor == SOUTHEAST || anchor == SOUTH || anchor == SOUTHWEST)
-	{
-            yAnchor = y + cellHeight - componentHeight;
+        for (int r = 0, y = insets.top; r < grid.nrows; ++r) {
+            grid.rowPos[r] = y;
+            y += rowSize[r] + vgap;
         }
-        else {
-            yAnchor = y + (cellHeight - componentHeight) / 2;
+
+        int ncomponents = parent.getComponentCount();
+        for (int i = 0; i < ncomponents; ++i) {
+            int first = grid.col[i];
+            int last = first + grid.colSpan[i] - 1;
+            int top = grid.row[i];
+            int bottom = top + grid.rowSpan[i] - 1;
+            Component comp = parent.getComponent(i);
+            positionComponentInCell(comp, grid.colPos[first],
+                                    grid.rowPos[top],
+                                    grid.colPos[last] + colSize[last]
+                                    - grid.colPos[first],
+                                    grid.rowPos[bottom] + rowSize[bottom]
+                                    - grid.rowPos[top],
+                                    grid.prefWidth[i], grid.prefHeight[i]);
         }
+    }
 
-        comp.setBounds(xAnchor, yAnchor, componentWidth, componentHeight);
+    /**
+     * @return true if the children in each row are aligned on their
+     * baselines
+     */
+    public boolean isBaselineAligned() {
+        return baselineAligned;
+    }
+
+    /**
+     * Set whether the children in each row are aligned on their
+     * baselines. A child with a baseline is given its preferred height
+     * and placed so its baseline is level with the lowest baseline in
+     * its row, and each row is made tall enough to hold them all.
+     * Children without a baseline are placed by the fill and anchor.
+     * Once set the columns and rows are sized as tracks, those without
+     * a track by their preferred size. Baselines are not used for
+     * children placed by their constraints.
+     *
+     * @param b true to align children on their baselines
+     */
+    public void setBaselineAligned(boolean b) {
+        baselineAligned = b;
+        ++tracksVersion;
+    }
+
+    /**
+     * @return true if any tracks have been given
+     */
+    private boolean hasTracks() {
+        return columnTracks != null || rowTracks != null;
     }
 
-    public int getRows() {
-        return rows;
+    /**
+     * @return true if the columns and rows are sized as tracks
+     */
+    private boolean usesTracks() {
+        return baselineAligned || hasTracks();
     }
 
-    public void setRows(int rows) {
-	if ((rows == 0) && (this.cols == 0)) {
-	    throw new IllegalArgumentException("rows and cols cannot "
-					       + "both be zero");
-	}
-	this.rows = rows;
+    /**
+     * Find the baselines of the rows whose children have been measured
+     * again since the baselines were last found.
+     *
+     * @param parent the container
+     * @param s the layout state of the container
+     */
+    private static void updateBaselines(Container parent, FlexiState s) {
+        if (s.baselineVersion == s.version) {
+            return;
+        }
+        s.baselineVersion = s.version;
+        int nrows = s.rows;
+        int ncols = s.cols;
+        if (s.baselineSweeps != s.sweeps || s.baselineCount != s.count
+            || s.baselineCols != ncols) {
+            s.baselineSweeps = s.sweeps;
+            s.baselineCount = s.count;
+            s.baselineCols = ncols;
+            s.baselines = GridLayoutState.ensure(s.baselines, s.count);
+            s.rowAscent = GridLayoutState.ensure(s.rowAscent, nrows);
+            s.rowDescent = GridLayoutState.ensure(s.rowDescent, nrows);
+            s.baselineHeights =
+                GridLayoutState.ensure(s.baselineHeights, nrows);
+            s.rowBaselineStale =
+                GridLayoutState.ensure(s.rowBaselineStale, nrows);
+            Arrays.fill(s.rowBaselineStale, 0, nrows, true);
+        } else {
+            for (int p = 0; p < s.pendingCount; ++p) {
+                s.rowBaselineStale[s.pending[p] / ncols] = true;
+            }
+        }
+        for (int r = 0; r < nrows; ++r) {
+            if (s.rowBaselineStale[r]) {
+                findRowBaseline(parent, s, r);
+            }
+            int height = s.uniform ? s.largestPreferredHeight
+                : s.rowHeight[r];
+            s.baselineHeights[r] =
+                Math.max(height, s.rowAscent[r] + s.rowDescent[r]);
+        }
     }
 
-    public int getColumns() {
-        return cols;
+    /**
+     * Find the baseline of each child in a row and the room needed
+     * above and below the baseline of the row. If the baseline of the
+     * row moves, every child in it must be positioned again. A row
+     * that has only been estimated so far is found again once it has
+     * been measured.
+     *
+     * @param parent the container
+     * @param s the layout state of the container
+     * @param r the row
+     */
+    private static void findRowBaseline(Container parent, FlexiState s,
+                                        int r) {
+        int ascent = 0;
+        int descent = 0;
+        boolean known = true;
+        int start = r * s.cols;
+        int end = Math.min(start + s.cols, s.count);
+        for (int i = start; i < end; ++i) {
+            int h = s.prefHeightOf(i);
+            if (h < 0) {
+                known = false;
+                s.baselines[i] = -1;
+                continue;
+            }
+            int b = parent.getComponent(i).getBaseline(s.prefWidthOf(i), h);
+            s.baselines[i] = b;
+            if (b >= 0) {
+                ascent = Math.max(ascent, b);
+                descent = Math.max(descent, h - b);
+            }
+        }
+        if (ascent != s.rowAscent[r]) {
+            for (int i = start; i < end; ++i) {
+                s.addPending(i);
+            }
+        }
+        s.rowAscent[r] = ascent;
+        s.rowDescent[r] = descent;
+        s.rowBaselineStale[r] = !known;
     }
 
-    public void setCols(int cols) {
-	if ((cols == 0) && (this.rows == 0)) {
-	    throw new IllegalArgumentException("rows and cols cannot "
-					       + "both be zero");
-	}
-	this.cols = cols;
+    /**
+     * Position a child on the baseline of its row if it has a
+     * baseline.
+     *
+     * @see org.tigris.swidgets.GridLayout2#positionCell(java.awt.Container,
+     * GridLayoutState, int, int, int)
+     */
+    void positionCell(Container parent, GridLayoutState s,
+                      int i, int r, int c) {
+        FlexiState fs = (FlexiState) s;
+        if (!baselineAligned || fs.baselines.length < s.count) {
+            super.positionCell(parent, s, i, r, c);
+            return;
+        }
+        s.measureRow(parent, r);
+        if (fs.rowBaselineStale[r]) {
+            findRowBaseline(parent, fs, r);
+        }
+        int b = fs.baselines[i];
+        if (b < 0) {
+            super.positionCell(parent, s, i, r, c);
+            return;
+        }
+        // A cell exactly the height of the child puts it where the
+        // anchor would, whatever that is.
+        int height = s.prefHeightOf(i);
+        positionComponentInCell(parent.getComponent(i),
+                                s.xOf(c), s.yOf(r) + fs.rowAscent[r] - b,
+                                s.widthOf(c), height,
+                                s.prefWidthOf(i), height);
     }
 
-    public int getHgap() {
-        return hgap;
+    /**
+     * @see org.tigris.swidgets.GridLayout2#createLayoutState()
+     */
+    GridLayoutState createLayoutState() {
+        return new FlexiState();
     }
 
-    public void setHgap(int hgap) {
-        this.hgap = hgap;
+    /**
+     * @see org.tigris.swidgets.GridLayout2#hasEvenTracks(GridLayoutState)
+     */
+    boolean hasEvenTracks(GridLayoutState s) {
+        return !usesTracks() && super.hasEvenTracks(s);
     }
 
-    public int getVgap() {
-        return vgap;
+    /**
+     * Solve the tracks of the columns and rows for the size of the
+     * container.
+     *
+     * @see org.tigris.swidgets.GridLayout2#sizeTracks(java.awt.Container,
+     * GridLayoutState)
+     */
+    void sizeTracks(Container parent, GridLayoutState s) {
+        if (!usesTracks()) {
+            return;
+        }
+        FlexiState fs = (FlexiState) s;
+        if (fs.placedBaseline != baselineAligned) {
+            fs.placedBaseline = baselineAligned;
+            fs.placeAll = true;
+        }
+        if (fs.fixedVersion != s.version || fs.fixedTracks != tracksVersion
+            || fs.fixedCols != s.cols || fs.fixedRows != s.rows) {
+            // The extents or tracks have changed since last time
+            fix(columnTracks, s.cols,
+                s.uniform ? null : s.colWidth, s.largestPreferredWidth,
+                fs.colAxis);
+            if (baselineAligned) {
+                updateBaselines(parent, fs);
+                fix(rowTracks, s.rows, fs.baselineHeights, 0, fs.rowAxis);
+            } else {
+                fix(rowTracks, s.rows,
+                    s.uniform ? null : s.rowHeight,
+                    s.largestPreferredHeight, fs.rowAxis);
+            }
+            fs.fixedVersion = s.version;
+            fs.fixedTracks = tracksVersion;
+            fs.fixedCols = s.cols;
+            fs.fixedRows = s.rows;
+        }
+        Insets insets = parent.getInsets();
+        share(columnTracks, fs.colAxis,
+              s.uniform ? null : s.colMinWidth, s.largestMinimumWidth,
+              parent.getWidth() - (insets.left + insets.right
+                                   + (s.cols - 1) * getHgap()));
+        share(rowTracks, fs.rowAxis,
+              s.uniform ? null : s.rowMinHeight, s.largestMinimumHeight,
+              parent.getHeight() - (insets.top + insets.bottom
+                                    + (s.rows - 1) * getVgap()));
     }
 
-    public void setVgap(int vgap) {
-        this.vgap = vgap;
+    /**
+     * Solve the tracks of one axis.
+     *
+     * @see #fix(Track[], int, int[], int, Axis)
+     * @see #share(Track[], Axis, int[], int, int)
+     */
+    private static void solve(Track[] tracks, int n,
+                              int[] extents, int extent,
+                              int[] minimums, int minimum,
+                              int available, Axis axis) {
+        fix(tracks, n, extents, extent, axis);
+        share(tracks, axis, minimums, minimum, available);
     }
 
     /**
-     * @param lh The largestHeight to set.
+     * Size the fixed and preferred tracks of one axis, which do not
+     * depend on the space available, and note which tracks do.
+     *
+     * @param tracks the tracks given, or null
+     * @param n the number of tracks to solve
+     * @param extents the preferred extent of each track, or null if
+     * every track has the same extent
+     * @param extent the preferred extent of every track when the
+     * extents are null
+     * @param axis receives the sizes
      */
-    protected void setLargestHeight(int lh) {
-        this.largestHeight = lh;
+    private static void fix(Track[] tracks, int n,
+                            int[] extents, int extent, Axis axis) {
+        axis.sizes = GridLayoutState.ensure(axis.sizes, n);
+        axis.flex = GridLayoutState.ensure(axis.flex, n);
+        int used = 0;
+        int flexCount = 0;
+        double weights = 0;
+        for (int k = 0; k < n; ++k) {
+            Track track = getTrack(tracks, k);
+            int type = track.getType();
+            int size = 0;
+            if (type == Track.FIXED) {
+                size = (int) track.getValue();
+            } else if (type == Track.PREFERRED) {
+                size = extents == null ? extent : extents[k];
+            } else {
+                axis.flex[flexCount++] = k;
+                if (type == Track.FRACTION) {
+                    weights += track.getValue();
+                }
+            }
+            axis.sizes[k] = size;
+            used += size;
+        }
+        axis.used = used;
+        axis.flexCount = flexCount;
+        axis.weights = weights;
     }
 
     /**
-     * @return Returns the largestHeight.
+     * Size the percentage tracks of one axis and share what is left
+     * among its fractions, which are never made smaller than the
+     * minimum size of their cells. Only the tracks that depend on the
+     * space available are visited.
+     *
+     * @param tracks the tracks given, or null
+     * @param axis the axis, its other tracks already sized
+     * @param minimums the minimum extent of each track, or null if
+     * every track has the same minimum
+     * @param minimum the minimum extent of every track when the
+     * minimums are null
+     * @param available the space available to all tracks
      */
-    protected int getLargestHeight() {
-        return largestHeight;
+    private static void share(Track[] tracks, Axis axis,
+                              int[] minimums, int minimum, int available) {
+        int[] sizes = axis.sizes;
+        int used = axis.used;
+        for (int f = 0; f < axis.flexCount; ++f) {
+            int k = axis.flex[f];
+            Track track = getTrack(tracks, k);
+            if (track.getType() == Track.PERCENT) {
+                sizes[k] = (int) Math.round(available * track.getValue() / 100);
+                used += sizes[k];
+            }
+        }
+        if (axis.weights == 0) {
+            return;
+        }
+
+        // Share out what is left, carrying the rounding from one
+        // fraction to the next so the shares add up exactly.
+        int left = Math.max(0, available - used);
+        double weight = 0;
+        int given = 0;
+        for (int f = 0; f < axis.flexCount; ++f) {
+            int k = axis.flex[f];
+            Track track = getTrack(tracks, k);
+            if (track.getType() == Track.FRACTION) {
+                weight += track.getValue();
+                int upTo = (int) Math.round(left * weight / axis.weights);
+                int least = minimums == null ? minimum : minimums[k];
+                sizes[k] = Math.max(upTo - given, least);
+                given = upTo;
+            }
+        }
     }
 
     /**
-     * @param lw The largestWidth to set.
+     * Calculate the size the tracks of one axis need.
+     *
+     * @param tracks the tracks given, or null
+     * @param n the number of tracks
+     * @param extents the preferred or minimum extent of each track, or
+     * null if every track has the same extent
+     * @param extent the extent of every track when the extents are null
+     * @return the space needed by all the tracks
      */
-    protected void setLargestWidth(int lw) {
-        this.largestWidth = lw;
+    private static int span(Track[] tracks, int n, int[] extents,
+                            int extent) {
+        int sum = 0;
+        double percent = 0;
+        int least = 0;
+        double weights = 0;
+        double perWeight = 0;
+        for (int k = 0; k < n; ++k) {
+            Track track = getTrack(tracks, k);
+            int type = track.getType();
+            int size = extents == null ? extent : extents[k];
+            if (type == Track.FIXED) {
+                sum += (int) track.getValue();
+            } else if (type == Track.FRACTION) {
+                // Fractions share in proportion, so the share of each
+                // must be enough for the fraction needing the most.
+                weights += track.getValue();
+                perWeight = Math.max(perWeight, size / track.getValue());
+            } else if (type == Track.PERCENT) {
+                // The whole must be large enough for this track to
+                // hold its cells.
+                double value = track.getValue();
+                percent += value;
+                if (value > 0) {
+                    least = Math.max(least,
+                                     (int) Math.ceil(size * 100 / value));
+                }
+            } else {
+                sum += size;
+            }
+        }
+        sum += (int) Math.ceil(perWeight * weights);
+        if (percent == 0) {
+            return sum;
+        }
+        if (percent < 100) {
+            sum = (int) Math.ceil(sum * 100 / (100 - percent));
+        }
+        return Math.max(sum, least);
     }
 
     /**
-     * @return Returns the largestWidth.
+     * @return the track given for a column or row, or a preferred track
+     * if none was given
      */
-    protected int getLargestWidth() {
-        return largestWidth;
+    private static Track getTrack(Track[] tracks, int k) {
+        if (tracks == null || k >= tracks.length || tracks[k] == null) {
+            return Track.preferred();
+        }
+        return tracks[k];
     }
 
     /**
-     * @param cw The colWidth to set.
+     * @see org.tigris.swidgets.GridLayout2#calculateSizes(java.awt.Container,
+     * int[], int[], int, int, int, int)
      */
-    protected void setColWidth(int[] cw) {
-        this.colWidth = cw;
+    protected Dimension calculateSizes(Container parent,
+                                       int theColWidth[], int theRowHeight[],
+                                       int actualRows, int actualCols,
+                                       int theLargestWidth,
+                                       int theLargestHeight) {
+        if (!usesTracks()) {
+            return super.calculateSizes(parent, theColWidth, theRowHeight,
+                                        actualRows, actualCols,
+                                        theLargestWidth, theLargestHeight);
+        }
+        FlexiState s = (FlexiState) getLayoutState(parent);
+        boolean uniform = s.uniform;
+        // Heights found for baselines are always given row by row.
+        boolean uniformRows = uniform && theRowHeight != s.baselineHeights;
+        int w = span(columnTracks, actualCols,
+                     uniform ? null : theColWidth, theLargestWidth);
+        int h = span(rowTracks, actualRows,
+                     uniformRows ? null : theRowHeight, theLargestHeight);
+        Insets insets = parent.getInsets();
+        return new Dimension(insets.left + insets.right + w
+                             + (actualCols - 1) * getHgap(),
+                             insets.top + insets.bottom + h
+                             + (actualRows - 1) * getVgap());
     }
 
     /**
-     * @return Returns the colWidth.
+     * @see org.tigris.swidgets.GridLayout2#getComponentCellWidth(
+     * GridLayoutState, int)
      */
-    protected int[] getColWidth() {
-        return colWidth;
+    int getComponentCellWidth(GridLayoutState s, int col) {
+        if (!usesTracks()) {
+            return super.getComponentCellWidth(s, col);
+        }
+        return ((FlexiState) s).colAxis.sizes[col];
     }
 
     /**
-     * @param rh The rowHeight to set.
+     * @see org.tigris.swidgets.GridLayout2#getComponentCellHeight(
+     * GridLayoutState, int)
      */
-    protected void setRowHeight(int[] rh) {
-        this.rowHeight = rh;
+    int getComponentCellHeight(GridLayoutState s, int row) {
+        if (!usesTracks()) {
+            return super.getComponentCellHeight(s, row);
+        }
+        return ((FlexiState) s).rowAxis.sizes[row];
     }
 
     /**
-     * @return Returns the rowHeight.
+     * The extra layout state a FlexiGridLayout keeps for each
+     * container.
      */
-    protected int[] getRowHeight() {
-        return rowHeight;
+    private static class FlexiState extends GridLayoutState {
+        /**
+         * The solved tracks of the columns and rows.
+         */
+        private final Axis colAxis = new Axis();
+        private final Axis rowAxis = new Axis();
+
+        /**
+         * The version of the extents, the version of the tracks and
+         * the size of the grid when the fixed and preferred tracks were
+         * last sized.
+         */
+        private int fixedVersion = -1;
+        private int fixedTracks = -1;
+        private int fixedCols = -1;
+        private int fixedRows = -1;
+
+        /**
+         * The baseline of each child, or -1 if it has none.
+         */
+        private int[] baselines = new int[0];
+
+        /**
+         * The room needed above and below the baseline of each row,
+         * and the preferred height of each row with its children
+         * aligned on their baselines.
+         */
+        private int[] rowAscent = new int[0];
+        private int[] rowDescent = new int[0];
+        private int[] baselineHeights = new int[0];
+
+        /**
+         * True for each row whose baseline must be found again.
+         */
+        private boolean[] rowBaselineStale = new boolean[0];
+
+        /**
+         * The version of the extents, the measuring sweep, the number
+         * of children and the number of columns when the baselines
+         * were last found.
+         */
+        private int baselineVersion = -1;
+        private int baselineSweeps = -1;
+        private int baselineCount = -1;
+        private int baselineCols = -1;
+
+        /**
+         * Whether the children were last placed on their baselines.
+         */
+        private boolean placedBaseline;
+
+        /**
+         * The cells of the children when placed by their constraints.
+         */
+        private SpanGrid spanGrid;
+
+        /**
+         * In the state kept by the container, the state kept for each
+         * breakpoint, created when first needed.
+         */
+        private FlexiState[] byBreakpoint;
+
+        /**
+         * In the state kept by the container, the state last laid out.
+         */
+        private FlexiState current;
+
+        /**
+         * In the state kept by the container, the version of the
+         * breakpoints the states for each breakpoint were made for.
+         */
+        private int breakpointsVersion = -1;
+
+        /**
+         * The breakpoint this state is kept for, or -1 if the
+         * container is narrower than the first.
+         */
+        private int breakpoint = -1;
     }
 
     /**
-     * @return Returns the cellSizing.
+     * The solved tracks of one axis.
      */
-    int getCellSizing() {
-        return cellSizing;
+    private static class Axis {
+        /**
+         * The size of each track.
+         */
+        private int[] sizes = new int[0];
+
+        /**
+         * The percentage and fraction tracks, which are sized again
+         * whenever the space available changes.
+         */
+        private int[] flex = new int[0];
+        private int flexCount;
+
+        /**
+         * The space taken by the fixed and preferred tracks.
+         */
+        private int used;
+
+        /**
+         * The sum of the weights of the fraction tracks.
+         */
+        private double weights;
     }
 }
@@ -0,0 +1,121 @@
+// $Id$
+
+package org.tigris.swidgets;
+
+/**
+ * The constraint giving the row and column of a component added to a
+ * container laid out by a {@link GridLayout2} in sparse mode. In a
+ * {@link FlexiGridLayout} the cell may also span several rows and
+ * columns.
+ *
+ * @see GridLayout2#setSparse(boolean)
+ */
+public final class GridCell implements java.io.Serializable {
+
+    private static final long serialVersionUID = 6120373413318826401L;
+
+    private final int row;
+    private final int column;
+    private final int rowSpan;
+    private final int columnSpan;
+
+    /**
+     * Construct a new GridCell.
+     *
+     * @param r the row of the cell, from zero
+     * @param c the column of the cell, from zero
+     */
+    public GridCell(int r, int c) {
+        this(r, c, 1, 1);
+    }
+
+    /**
+     * Construct a new GridCell spanning several rows and columns.
+     *
+     * @param r the first row of the cell, from zero
+     * @param c the first column of the cell, from zero
+     * @param rs the number of rows the cell spans
+     * @param cs the number of columns the cell spans
+     */
+    public GridCell(int r, int c, int rs, int cs) {
+        if (r < 0 || c < 0) {
+            throw new IllegalArgumentException("row and column must not "
+                                               + "be negative");
+        }
+        if (rs < 1 || cs < 1) {
+            throw new IllegalArgumentException("spans must be at least 1");
+        }
+        this.row = r;
+        this.column = c;
+        this.rowSpan = rs;
+        this.columnSpan = cs;
+    }
+
+    /**
+     * @return the row of the cell
+     */
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * @return the column of the cell
+     */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the number of rows the cell spans
+     */
+    public int getRowSpan() {
+        return rowSpan;
+    }
+
+    /**
+     * @return the number of columns the cell spans
+     */
+    public int getColumnSpan() {
+        return columnSpan;
+    }
+
+    /**
+     * Give a cell saved before cells could span the single row and
+     * column it occupied.
+     *
+     * @return the cell to use
+     */
+    private Object readResolve() {
+        if (rowSpan < 1 || columnSpan < 1) {
+            return new GridCell(row, column);
+        }
+        return this;
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof GridCell)) {
+            return false;
+        }
+        GridCell other = (GridCell) o;
+        return row == other.row && column == other.column
+            && rowSpan == other.rowSpan && columnSpan == other.columnSpan;
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    public int hashCode() {
+        return ((row * 31 + column) * 31 + rowSpan) * 31 + columnSpan;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "GridCell[row=" + row + ",column=" + column
+            + ",rowSpan=" + rowSpan + ",columnSpan=" + columnSpan + "]";
+    }
+}
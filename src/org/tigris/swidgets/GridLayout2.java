@@ -4,14 +4,37 @@
 package org.tigris.swidgets;
 
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.swing.JComponent;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 /**
  * Same as the standard java class GridLayout but allows more
- * flexability for sizing of columns and rows.
+ * flexability for sizing of columns and rows. <p>
+ *
+ * The sizes of child components are remembered between layouts. A
+ * child is only measured again after it has been invalidated, so a
+ * child whose size changes must be revalidated for the change to be
+ * seen. Only the children in rows and columns that move or change
+ * size are positioned again. Children implementing {@link SizeHint}
+ * are asked for their size hint instead, and in a large grid these
+ * are computed in parallel.
  *
  * @author Bob Tarling
  */
-public class GridLayout2 implements LayoutManager, java.io.Serializable {
+public class GridLayout2 implements LayoutManager2, java.io.Serializable {
 
      /**
        * Do not resize the child components.
@@ -170,21 +193,83 @@ public class GridLayout2 implements LayoutManager, java.io.Serializable {
     private int anchor = WEST;
 
     /**
-     * The height of the child component with the largest height
+     * True if only the children visible in an enclosing viewport are
+     * to be positioned.
+     *
+     * @see #setViewportAware(boolean)
+     */
+    private boolean viewportAware;
+
+    /**
+     * The distance in pixels beyond the visible area of an enclosing
+     * viewport in which children are still positioned.
+     *
+     * @see #setViewportMargin(int)
+     */
+    private int viewportMargin;
+
+    /**
+     * True if every child is declared to be the same size, so that only
+     * the first child need be measured.
+     *
+     * @see #setUniformCells(boolean)
+     */
+    private boolean uniformCells;
+
+    /**
+     * The number of rows measured before a large grid is first shown,
+     * or 0 to measure every row.
+     *
+     * @see #setSampleRows(int)
      */
-    private int largestHeight; 
+    private int sampleRows;
+
     /**
-     * The width of the child component with the largest width
+     * The number of children measured by each batch of refinement.
      */
-    private int largestWidth;
+    private static final int REFINE_CELLS = 2000;
+
     /**
-     * The required cell width of each column
+     * The delay in milliseconds between batches of refinement.
      */
-    private int[] colWidth;
+    private static final int REFINE_DELAY = 10;
+
     /**
-     * The required cell height of each row
+     * True if children are placed by their {@link GridCell}
+     * constraints rather than by their index.
+     *
+     * @see #setSparse(boolean)
      */
-    private int[] rowHeight;
+    private boolean sparse;
+
+    /**
+     * The width given to a column without children in sparse mode.
+     */
+    private int defaultColumnWidth;
+
+    /**
+     * The height given to a row without children in sparse mode.
+     */
+    private int defaultRowHeight;
+
+    /**
+     * The {@link GridCell} constraints of the child components, weakly
+     * keyed by component so that the children of a discarded container
+     * are not kept by a shared layout. Serialized as a plain map.
+     */
+    private transient Map constraints = new WeakHashMap();
+
+    /**
+     * Incremented whenever a constraint changes so that containers in
+     * sparse mode know to place their children again.
+     */
+    private transient int constraintsVersion;
+
+    /**
+     * The layout state of each container laid out by this layout,
+     * weakly keyed by container.
+     */
+    private transient Map states;
 
     /**
      * Construct a new GridLayout2 with a default of one column per
@@ -302,15 +387,105 @@ public class GridLayout2 implements LayoutManager, java.io.Serializable {
     public void addLayoutComponent(String name, Component comp) {
     }
 
+    /**
+     * Adds the specified component to the layout using the specified
+     * constraint. A {@link GridCell} constraint gives the row and
+     * column of the component in sparse mode, or in a
+     * {@link FlexiGridLayout}. Any other constraint is ignored, as
+     * it was before the layout took constraints.
+     *
+     * @param comp the component to be added
+     * @param constraint a GridCell, or anything else to be ignored
+     * @see java.awt.LayoutManager2#addLayoutComponent(java.awt.Component,
+     * java.lang.Object)
+     */
+    public void addLayoutComponent(Component comp, Object constraint) {
+        if (constraint instanceof GridCell) {
+            setConstraints(comp, (GridCell) constraint);
+        } else if (constraint instanceof String) {
+            addLayoutComponent((String) constraint, comp);
+        }
+    }
+
     /** 
-     * Removes the specified component with the specified name from
-     * the layout. This is included to satisfy the LayoutManager
-     * interface but is not actually used in this layout
-     * implementation.<p>
+     * Removes the specified component from the layout, forgetting any
+     * constraint it was added with.
      *
-     * @param comp the name of the component
+     * @param comp the component to be removed
      */    
     public void removeLayoutComponent(Component comp) {
+        if (constraints.remove(comp) != null) {
+            ++constraintsVersion;
+        }
+    }
+
+    /**
+     * Set the cell a component is placed in when in sparse mode, or
+     * by a {@link FlexiGridLayout}.
+     *
+     * @param comp the component
+     * @param cell the cell or null to place the component by its index
+     */
+    public void setConstraints(Component comp, GridCell cell) {
+        if (cell == null) {
+            constraints.remove(comp);
+        } else {
+            constraints.put(comp, cell);
+        }
+        ++constraintsVersion;
+    }
+
+    /**
+     * @param comp a component
+     * @return the cell the component is placed in when in sparse
+     * mode, or null if it is placed by its index
+     */
+    public GridCell getConstraints(Component comp) {
+        return (GridCell) constraints.get(comp);
+    }
+
+    /**
+     * @return true if any component has been given a constraint
+     */
+    boolean hasConstraints() {
+        return !constraints.isEmpty();
+    }
+
+    /**
+     * @return a number that changes whenever a constraint changes
+     */
+    int getConstraintsVersion() {
+        return constraintsVersion;
+    }
+
+    /**
+     * @see java.awt.LayoutManager2#maximumLayoutSize(java.awt.Container)
+     */
+    public Dimension maximumLayoutSize(Container target) {
+        return new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @see java.awt.LayoutManager2#getLayoutAlignmentX(java.awt.Container)
+     */
+    public float getLayoutAlignmentX(Container target) {
+        return (float) 0.5;
+    }
+
+    /**
+     * @see java.awt.LayoutManager2#getLayoutAlignmentY(java.awt.Container)
+     */
+    public float getLayoutAlignmentY(Container target) {
+        return (float) 0.5;
+    }
+
+    /**
+     * Children are measured again only once they are themselves
+     * invalidated, so nothing is discarded here.
+     *
+     * @see java.awt.LayoutManager2#invalidateLayout(java.awt.Container)
+     */
+    public void invalidateLayout(Container target) {
     }
 
     /**
@@ -349,51 +524,14 @@ public class GridLayout2 implements LayoutManager, java.io.Serializable {
      */
     public Dimension preferredLayoutSize(Container parent) {
         synchronized (parent.getTreeLock()) {
-            int componentCount = parent.getComponentCount();
-            int actualRows = rows;
-            int actualCols = cols;
-
-            if (actualRows > 0) {
-                actualCols = (componentCount + actualRows - 1) / actualRows;
-            } else {
-                actualRows = (componentCount + actualCols - 1) / actualCols;
+            if (sparse) {
+                return sparseLayoutSize(parent, false);
             }
-
-            colWidth = new int[actualCols];
-            rowHeight = new int[actualRows];
-            int largestPreferredWidth = 0;
-            int largestPreferredHeight = 0;
-
-            for (int c = 0; c < actualCols; ++c) {
-                for (int r = 0; r < actualRows; ++r) {
-                    int i = r * actualCols + c;
-                    if (i < componentCount) {
-                        if (parent.getComponent(i).getPreferredSize().getWidth()
-			    > colWidth[c]) {
-                            colWidth[c] =
-				(int) parent.getComponent(i)
-				    .getPreferredSize().getWidth();
-                            if (colWidth[c] > largestPreferredWidth)
-				largestPreferredWidth = colWidth[c];
-                        }
-                        if (parent.getComponent(i)
-			    .getPreferredSize().getHeight()
-			    > rowHeight[r])
-			{
-                            rowHeight[r] =
-				(int) parent.getComponent(i)
-				    .getPreferredSize().getHeight();
-                            if (rowHeight[r] > largestPreferredHeight)
-				largestPreferredHeight = rowHeight[r];
-                        }
-                    }
-                }
-            }
-
-            return calculateSizes(parent, colWidth, rowHeight,
-				  actualRows, actualCols,
-				  largestPreferredWidth,
-				  largestPreferredHeight);
+            GridLayoutState s = measure(parent);
+            return calculateSizes(parent, s.colWidth, s.rowHeight,
+				  s.rows, s.cols,
+				  s.largestPreferredWidth,
+				  s.largestPreferredHeight);
         }
     }
 
@@ -404,49 +542,14 @@ public class GridLayout2 implements LayoutManager, java.io.Serializable {
      */
     public Dimension minimumLayoutSize(Container parent) {
         synchronized (parent.getTreeLock()) {
-            int componentCount = parent.getComponentCount();
-            int actualRows = rows;
-            int actualCols = cols;
-
-            if (actualRows > 0) {
-                actualCols = (componentCount + actualRows - 1) / actualRows;
-            } else {
-                actualRows = (componentCount + actualCols - 1) / actualCols;
+            if (sparse) {
+                return sparseLayoutSize(parent, true);
             }
-
-            colWidth = new int[actualCols];
-            rowHeight = new int[actualRows];
-            int largestMinimumWidth = 0;
-            int largestMinimumHeight = 0;
-
-            for (int c = 0; c < actualCols; ++c) {
-                for (int r = 0; r < actualRows; ++r) {
-                    int i = r * actualCols + c;
-                    if (i < componentCount) {
-                        if (parent.getComponent(i).getMinimumSize().getWidth()
-			    > colWidth[c]) 
-			{
-                            colWidth[c] =
-				(int) parent.getComponent(i)
-				    .getMinimumSize().getWidth();
-                            if (colWidth[c] > largestMinimumWidth)
-				largestMinimumWidth = colWidth[c];
-                        }
-                        if (parent.getComponent(i).getMinimumSize().getHeight()
-			    > rowHeight[r]) {
-                            rowHeight[r] =
-				(int) parent.getComponent(i)
-				    .getMinimumSize().getHeight();
-                            if (rowHeight[r] > largestMinimumHeight)
-				largestMinimumHeight = rowHeight[r];
-                        }
-                    }
-                }
-            }
-
-            return calculateSizes(parent, colWidth, rowHeight,
-				  actualRows, actualCols,
-				  largestMinimumWidth, largestMinimumHeight);
+            GridLayoutState s = measure(parent);
+            return calculateSizes(parent, s.colMinWidth, s.rowMinHeight,
+				  s.rows, s.cols,
+				  s.largestMinimumWidth,
+				  s.largestMinimumHeight);
         }
     }
 
@@ -459,20 +562,14 @@ public class GridLayout2 implements LayoutManager, java.io.Serializable {
             if (ncomponents == 0) {
                 return;
             }
-            Insets insets = parent.getInsets();
-            int nrows = this.rows;
-            int ncols = this.cols;
-
-            if (nrows > 0) {
-                ncols = (ncomponents + nrows - 1) / nrows;
-            } else {
-                nrows = (ncomponents + ncols - 1) / ncols;
+            if (sparse) {
+                layoutSparse(parent);
+                return;
             }
-
-            colWidth = new int[ncols];
-            rowHeight = new int[nrows];
-            largestWidth = 0;
-            largestHeight = 0;
+            Insets insets = parent.getInsets();
+            GridLayoutState s = measure(parent);
+            int nrows = s.rows;
+            int ncols = s.cols;
 
             if (cellSizing == FITPARENT) {
                 int availableWidth =
@@ -481,61 +578,484 @@ public class GridLayout2 implements LayoutManager, java.io.Serializable {
                 int availableHeight =
 		    parent.getHeight()
 		    - (insets.top + insets.bottom + (nrows - 1) * vgap);
-                largestWidth = availableWidth / ncols;
-                largestHeight = availableHeight / nrows;
+                s.largestWidth = availableWidth / ncols;
+                s.largestHeight = availableHeight / nrows;
             }
             else {
+                s.largestWidth = s.largestPreferredWidth;
+                s.largestHeight = s.largestPreferredHeight;
+            }
+            sizeTracks(parent, s);
+
+            // Find which columns and rows have moved or changed size
+            // since the last layout. When every cell is the same size
+            // their positions are calculated rather than kept.
+            boolean even = hasEvenTracks(s);
+            boolean all = s.startPlacing(nrows, ncols, fill, anchor, even);
+            boolean anyColMoved = false;
+            boolean anyRowMoved = false;
+            if (even) {
+                anyColMoved = s.placeEven(insets.left, insets.top,
+                                          s.largestWidth, s.largestHeight,
+                                          hgap, vgap, all);
+                anyRowMoved = anyColMoved;
+            } else {
+                for (int c = 0, x = insets.left; c < ncols; ++c) {
+                    int cellWidth = getComponentCellWidth(s, c);
+                    anyColMoved |= s.placeCol(c, x, cellWidth, all);
+                    x += cellWidth + hgap;
+                }
+                for (int r = 0, y = insets.top; r < nrows; ++r) {
+                    int cellHeight = getComponentCellHeight(s, r);
+                    anyRowMoved |= s.placeRow(r, y, cellHeight, all);
+                    y += cellHeight + vgap;
+                }
+            }
+
+            if (viewportAware && parent.getParent() instanceof JViewport) {
+                JViewport viewport = (JViewport) parent.getParent();
+                listenTo(viewport, parent);
+                positionVisible(parent, s, viewport.getViewRect(),
+                                all, true);
+                s.placed();
+                refineLater(parent, s);
+                return;
+            }
+            if (s.firstRow >= 0) {
+                // Children were positioned for a viewport last time
+                // so none of them can be trusted.
+                s.firstRow = -1;
+                anyRowMoved = true;
+                s.moveAllRows();
+            }
+
+            // Position the children in moved rows and columns and any
+            // child measured again since the last layout.
+            if (anyRowMoved) {
+                for (int r = 0; r < nrows; ++r) {
+                    if (s.isRowMoved(r)) {
+                        int end = Math.min((r + 1) * ncols, ncomponents);
+                        for (int i = r * ncols; i < end; ++i) {
+                            positionCell(parent, s, i, r, i - r * ncols);
+                        }
+                    }
+                }
+            }
+            if (anyColMoved) {
                 for (int c = 0; c < ncols; ++c) {
-                    for (int r = 0; r < nrows; ++r) {
-                        int i = r * ncols + c;
-                        if (i < ncomponents) {
-                            if (parent.getComponent(i)
-				.getPreferredSize().getWidth()
-				> colWidth[c])
-			    {
-                                colWidth[c] =
-				    (int) parent.getComponent(i)
-				        .getPreferredSize().getWidth();
-                                if (colWidth[c] > largestWidth)
-				    largestWidth = colWidth[c];
-                            }
-                            if (parent.getComponent(i)
-				.getPreferredSize().getHeight()
-				> rowHeight[r])
-			    {
-                                rowHeight[r] =
-				    (int) parent.getComponent(i)
-				        .getPreferredSize().getHeight();
-                                if (rowHeight[r] > largestHeight)
-				    largestHeight = rowHeight[r];
+                    if (s.isColMoved(c)) {
+                        for (int i = c, r = 0; i < ncomponents;
+                             i += ncols, ++r) {
+                            if (!s.isRowMoved(r)) {
+                                positionCell(parent, s, i, r, c);
                             }
                         }
                     }
                 }
             }
+            for (int p = 0; p < s.pendingCount; ++p) {
+                int i = s.pending[p];
+                int r = i / ncols;
+                int c = i % ncols;
+                if (!s.isRowMoved(r) && !s.isColMoved(c)) {
+                    positionCell(parent, s, i, r, c);
+                }
+            }
+            s.placed();
+            refineLater(parent, s);
+        }
+    }
 
-            int cellWidth;
-            int cellHeight;
-            for (int c = 0, x = insets.left;
-		 c < ncols;
-		 x += cellWidth + hgap, ++c)
-	    {
-                cellWidth = getComponentCellWidth(c);
-                for (int r = 0, y = insets.top;
-		     r < nrows;
-		     y += cellHeight + vgap, ++r)
-		{
-                    cellHeight = getComponentCellHeight(r);
+    /**
+     * Called once the children of a container have been measured and
+     * before its columns and rows are placed, so that a subclass can
+     * work out the sizes it will give from
+     * {@link #getComponentCellWidth(GridLayoutState, int)} and
+     * {@link #getComponentCellHeight(GridLayoutState, int)}.
+     *
+     * @param parent the container being laid out
+     * @param s the layout state of the container
+     */
+    void sizeTracks(Container parent, GridLayoutState s) {
+    }
+
+    /**
+     * @param s the layout state of a container being laid out
+     * @return true if every column of the container is to be the same
+     * width and every row the same height
+     */
+    boolean hasEvenTracks(GridLayoutState s) {
+        return s.uniform || cellSizing != ROWCOLPREFERRED;
+    }
 
+    /**
+     * Measure the children of a container in sparse mode.
+     *
+     * @param parent the container
+     * @return the sparse grid of the container
+     */
+    private SparseGrid measureSparse(Container parent) {
+        GridLayoutState s = getLayoutState(parent);
+        if (s.sparseGrid == null) {
+            s.sparseGrid = new SparseGrid();
+        }
+        s.sparseGrid.measure(parent, this,
+                             getActualCols(s, parent.getComponentCount()));
+        return s.sparseGrid;
+    }
+
+    /**
+     * Calculate the preferred or minimum size of a container in
+     * sparse mode.
+     */
+    private Dimension sparseLayoutSize(Container parent, boolean minimum) {
+        Dimension size =
+            measureSparse(parent).getSize(minimum, cellSizing, hgap, vgap,
+                                          defaultColumnWidth,
+                                          defaultRowHeight);
+        Insets insets = parent.getInsets();
+        size.width += insets.left + insets.right;
+        size.height += insets.top + insets.bottom;
+        return size;
+    }
+
+    /**
+     * Lay out a container in sparse mode.
+     */
+    private void layoutSparse(Container parent) {
+        SparseGrid grid = measureSparse(parent);
+        Insets insets = parent.getInsets();
+        grid.place(cellSizing, hgap, vgap,
+                   defaultColumnWidth, defaultRowHeight,
+                   insets.left, insets.top,
+                   parent.getWidth() - (insets.left + insets.right),
+                   parent.getHeight() - (insets.top + insets.bottom));
+        int ncomponents = parent.getComponentCount();
+        for (int i = 0; i < ncomponents; ++i) {
+            int r = grid.rowSlot[i];
+            int c = grid.colSlot[i];
+            positionComponentInCell(parent.getComponent(i),
+                                    grid.colPos[c], grid.rowPos[r],
+                                    grid.colSize[c], grid.rowSize[r],
+                                    grid.prefWidth[i], grid.prefHeight[i]);
+        }
+    }
+
+    /**
+     * Position only the children that are within the visible area of
+     * a viewport, plus the viewport margin. Children that were
+     * positioned before but are no longer visible are parked with an
+     * empty size at the origin of their cell.
+     *
+     * @param parent the container being laid out
+     * @param s the layout state of the container
+     * @param view the visible area in the coordinates of the container
+     * @param all true if every child must be parked or positioned
+     * @param relayout true if the columns and rows have just been
+     * placed, false if only the visible area has changed
+     */
+    private void positionVisible(Container parent, GridLayoutState s,
+                                 Rectangle view, boolean all,
+                                 boolean relayout) {
+        int ncomponents = s.count;
+        int ncols = s.cols;
+        int firstRow = s.rowAt(view.y - viewportMargin);
+        int lastRow = s.rowAt(view.y + view.height + viewportMargin - 1);
+        int firstCol = s.colAt(view.x - viewportMargin);
+        int lastCol = s.colAt(view.x + view.width + viewportMargin - 1);
+
+        int oldFirstRow = s.firstRow;
+        int oldLastRow = s.lastRow;
+        int oldFirstCol = s.firstCol;
+        int oldLastCol = s.lastCol;
+        if (oldFirstRow < 0) {
+            all = true;
+        }
+
+        if (all) {
+            for (int i = 0, r = 0, c = 0; i < ncomponents; ++i) {
+                if (r < firstRow || r > lastRow
+                    || c < firstCol || c > lastCol) {
+                    parkCell(parent, s, i, r, c);
+                }
+                if (++c == ncols) {
+                    c = 0;
+                    ++r;
+                }
+            }
+        } else {
+            // Park the children that have left the visible area
+            for (int r = oldFirstRow; r <= oldLastRow; ++r) {
+                for (int c = oldFirstCol; c <= oldLastCol; ++c) {
                     int i = r * ncols + c;
+                    if (i < ncomponents
+                        && (r < firstRow || r > lastRow
+                            || c < firstCol || c > lastCol)) {
+                        parkCell(parent, s, i, r, c);
+                    }
+                }
+            }
+            // and any replaced child that is not visible.
+            if (relayout) {
+                for (int p = 0; p < s.pendingCount; ++p) {
+                    int i = s.pending[p];
+                    int r = i / ncols;
+                    int c = i % ncols;
+                    if (r < firstRow || r > lastRow
+                        || c < firstCol || c > lastCol) {
+                        parkCell(parent, s, i, r, c);
+                    }
+                }
+            }
+        }
 
-                    if (i < ncomponents) {
-                        positionComponentInCell(parent.getComponent(i), x, y,
-						cellWidth, cellHeight);
+        for (int r = firstRow; r <= lastRow; ++r) {
+            boolean rowKept = r >= oldFirstRow && r <= oldLastRow
+                && !(relayout && s.isRowMoved(r));
+            for (int c = firstCol; c <= lastCol; ++c) {
+                int i = r * ncols + c;
+                if (i >= ncomponents) {
+                    break;
+                }
+                if (all || !rowKept
+                    || c < oldFirstCol || c > oldLastCol
+                    || (relayout && (s.isColMoved(c) || s.isPending(i)))) {
+                    positionCell(parent, s, i, r, c);
+                    if (!relayout) {
+                        validateRevealed(parent.getComponent(i));
                     }
                 }
             }
         }
+
+        s.firstRow = firstRow;
+        s.lastRow = lastRow;
+        s.firstCol = firstCol;
+        s.lastCol = lastCol;
+    }
+
+    /**
+     * Respond to the visible area of a viewport changing by
+     * positioning the children that have been revealed.
+     *
+     * @param parent the container in the viewport
+     * @param viewport the viewport
+     */
+    void viewportChanged(Container parent, JViewport viewport) {
+        synchronized (parent.getTreeLock()) {
+            if (!viewportAware) {
+                return;
+            }
+            GridLayoutState s = getLayoutState(parent);
+            if (s.firstRow < 0 || s.placeAll || s.pendingCount > 0
+                || s.count != parent.getComponentCount()) {
+                // A full layout is still to come
+                return;
+            }
+            positionVisible(parent, s, viewport.getViewRect(),
+                            false, false);
+            refineLater(parent, s);
+        }
+    }
+
+    /**
+     * Follow a layout pass of a grid that is still partly estimated.
+     * If rows measured while positioning changed any extents, another
+     * layout pass is queued, and if rows remain to be measured they
+     * are measured a batch at a time while the event thread is idle.
+     *
+     * @param parent the container just laid out
+     * @param s the layout state of the container
+     */
+    void refineLater(Container parent, GridLayoutState s) {
+        if (s.refined) {
+            s.refined = false;
+            if (!s.relayoutQueued) {
+                s.relayoutQueued = true;
+                SwingUtilities.invokeLater(new Relayout(this, parent));
+            }
+        }
+        if (s.unknownRows > 0 && !s.refining && parent.isDisplayable()) {
+            s.refining = true;
+            new Refiner(this, parent);
+        }
+    }
+
+    /**
+     * Measure a batch of the rows of a container that are still
+     * estimated, laying the container out again if their extents
+     * changed.
+     *
+     * @param parent the container
+     * @return true if there are still rows to measure
+     */
+    boolean refine(Container parent) {
+        synchronized (parent.getTreeLock()) {
+            if (parent.getLayout() != this) {
+                return false;
+            }
+            GridLayoutState s = getLayoutState(parent);
+            if (s.unknownRows == 0 || !parent.isDisplayable()
+                || s.count != parent.getComponentCount()) {
+                // Any layout still to come starts refining again
+                s.refining = false;
+                return false;
+            }
+            s.refine(parent, REFINE_CELLS);
+            if (s.refined) {
+                s.refined = false;
+                relayout(parent);
+            }
+            if (s.unknownRows == 0) {
+                s.refining = false;
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Lay out a container again because the extents of its rows or
+     * columns were refined. Swing components are revalidated, which
+     * coalesces any number of requests into a single layout.
+     *
+     * @param parent the container
+     */
+    void relayout(Container parent) {
+        if (parent.getLayout() == this && states != null
+            && states.containsKey(parent)) {
+            getLayoutState(parent).relayoutQueued = false;
+        }
+        if (parent instanceof JComponent) {
+            ((JComponent) parent).revalidate();
+        } else {
+            parent.invalidate();
+            parent.validate();
+        }
+    }
+
+    /**
+     * Make sure that the layout hears about changes to the visible
+     * area of the viewport a container is shown in.
+     *
+     * @param viewport the viewport
+     * @param parent the container shown in the viewport
+     */
+    void listenTo(JViewport viewport, Container parent) {
+        ChangeListener[] listeners = viewport.getChangeListeners();
+        for (int i = 0; i < listeners.length; ++i) {
+            if (listeners[i] instanceof ViewportListener) {
+                ViewportListener listener = (ViewportListener) listeners[i];
+                if (listener.layout == this && listener.view == parent) {
+                    return;
+                }
+            }
+        }
+        viewport.addChangeListener(new ViewportListener(this, parent));
+    }
+
+    /**
+     * Lay out the children of a child positioned because the visible
+     * area of a viewport changed. No layout pass follows to validate
+     * it, so a child revealed from its empty parked size would keep
+     * its own children at an empty size.
+     *
+     * @param comp the child just positioned
+     */
+    static void validateRevealed(Component comp) {
+        if (comp instanceof Container) {
+            ((Container) comp).validate();
+        }
+    }
+
+    /**
+     * Give a child that is not visible an empty size at the origin of
+     * its cell.
+     */
+    private void parkCell(Container parent, GridLayoutState s,
+                          int i, int r, int c) {
+        parent.getComponent(i).setBounds(s.xOf(c), s.yOf(r), 0, 0);
+    }
+
+    /**
+     * Position a child in its cell using the column and row positions
+     * found for this layout pass.
+     */
+    void positionCell(Container parent, GridLayoutState s,
+                      int i, int r, int c) {
+        s.measureRow(parent, r);
+        positionComponentInCell(parent.getComponent(i),
+                                s.xOf(c), s.yOf(r),
+                                s.widthOf(c), s.heightOf(r),
+                                s.prefWidthOf(i), s.prefHeightOf(i));
+    }
+
+    /**
+     * Measure the children of a container as a grid, capturing the
+     * preferred and minimum sizes of each child in a single sweep.
+     *
+     * @param parent the container to measure
+     * @return the layout state of the container holding the results
+     */
+    GridLayoutState measure(Container parent) {
+        int ncomponents = parent.getComponentCount();
+        GridLayoutState s = getLayoutState(parent);
+        if (uniformCells) {
+            s.measureDeclared(parent, getActualRows(s, ncomponents),
+                              getActualCols(s, ncomponents));
+        } else {
+            s.measure(parent, getActualRows(s, ncomponents),
+                      getActualCols(s, ncomponents), sampleRows);
+        }
+        return s;
+    }
+
+    /**
+     * Calculate the number of rows needed to show a number of
+     * components.
+     *
+     * @param ncomponents the number of components
+     * @return the number of rows
+     */
+    int getActualRows(int ncomponents) {
+        if (rows > 0) return rows;
+        return (ncomponents + cols - 1) / cols;
+    }
+
+    /**
+     * Calculate the number of columns needed to show a number of
+     * components.
+     *
+     * @param ncomponents the number of components
+     * @return the number of columns
+     */
+    int getActualCols(int ncomponents) {
+        if (rows > 0) return (ncomponents + rows - 1) / rows;
+        return cols;
+    }
+
+    /**
+     * Calculate the number of rows needed to show the children of a
+     * container being laid out.
+     *
+     * @param s the layout state of the container
+     * @param ncomponents the number of components
+     * @return the number of rows
+     */
+    int getActualRows(GridLayoutState s, int ncomponents) {
+        return getActualRows(ncomponents);
+    }
+
+    /**
+     * Calculate the number of columns needed to show the children of a
+     * container being laid out.
+     *
+     * @param s the layout state of the container
+     * @param ncomponents the number of components
+     * @return the number of columns
+     */
+    int getActualCols(GridLayoutState s, int ncomponents) {
+        return getActualCols(ncomponents);
     }
 
 
@@ -565,7 +1085,8 @@ public class GridLayout2 implements LayoutManager, java.io.Serializable {
     {
         int w = 0;
         int h = 0;
-        if (cellSizing == GridLayout2.ROWCOLPREFERRED) {
+        if (cellSizing == GridLayout2.ROWCOLPREFERRED
+            && !getLayoutState(parent).uniform) {
             for (int c = 0; c < actualCols; ++c) w += theColWidth[c];
             for (int r = 0; r < actualRows; ++r) h += theRowHeight[r];
         }
@@ -584,23 +1105,51 @@ public class GridLayout2 implements LayoutManager, java.io.Serializable {
     /**
      * Calculate the cell height.
      * 
+     * @param parent the container being laid out
      * @param row the row for this cell
      * @return the height
      */
-    protected int getComponentCellHeight(int row) {
-        if (cellSizing == ROWCOLPREFERRED) return rowHeight[row];
-        return largestHeight;
+    protected int getComponentCellHeight(Container parent, int row) {
+        return getComponentCellHeight(getLayoutState(parent), row);
     }
 
     /**
      * Calculate the cell width.
      * 
+     * @param parent the container being laid out
      * @param col the column of this cell
      * @return the width
      */
-    protected int getComponentCellWidth(int col) {
-        if (cellSizing == ROWCOLPREFERRED) return colWidth[col];
-        return largestWidth;
+    protected int getComponentCellWidth(Container parent, int col) {
+        return getComponentCellWidth(getLayoutState(parent), col);
+    }
+
+    /**
+     * Calculate the cell height from the layout state of a container.
+     *
+     * @param s the layout state of the container
+     * @param row the row for this cell
+     * @return the height
+     */
+    int getComponentCellHeight(GridLayoutState s, int row) {
+        if (cellSizing == ROWCOLPREFERRED && !s.uniform) {
+            return s.rowHeight[row];
+        }
+        return s.largestHeight;
+    }
+
+    /**
+     * Calculate the cell width from the layout state of a container.
+     *
+     * @param s the layout state of the container
+     * @param col the column of this cell
+     * @return the width
+     */
+    int getComponentCellWidth(GridLayoutState s, int col) {
+        if (cellSizing == ROWCOLPREFERRED && !s.uniform) {
+            return s.colWidth[col];
+        }
+        return s.largestWidth;
     }
 
     /**
@@ -613,18 +1162,41 @@ public class GridLayout2 implements LayoutManager, java.io.Serializable {
     protected void positionComponentInCell(Component comp,
 					   int x, int y,
 					   int cellWidth, int cellHeight)
+    {
+        Dimension preferredSize = comp.getPreferredSize();
+        positionComponentInCell(comp, x, y, cellWidth, cellHeight,
+				preferredSize.width, preferredSize.height);
+    }
+
+    /**
+     * Position a component in its cell using a preferred size that
+     * has already been measured.
+     *
+     * @param comp the component to be positioned
+     * @param x the x
+     * @param y the y
+     * @param cellWidth the width of the cell
+     * @param cellHeight the height of the cell
+     * @param preferredWidth the preferred width of the component
+     * @param preferredHeight the preferred height of the component
+     */
+    protected void positionComponentInCell(Component comp,
+					   int x, int y,
+					   int cellWidth, int cellHeight,
+					   int preferredWidth,
+					   int preferredHeight)
     {
         int componentWidth;
         int componentHeight;
         if (fill == VERTICAL || fill == NONE) {
-            componentWidth = (int) comp.getPreferredSize().getWidth();
+            componentWidth = preferredWidth;
         }
         else {
             componentWidth = cellWidth;
         }
 
         if (fill == HORIZONTAL || fill == NONE) {
-            componentHeight = (int) comp.getPreferredSize().getHeight();
+            componentHeight = preferredHeight;
         }
         else {
             componentHeight = cellHeight;
@@ -725,59 +1297,274 @@ public class GridLayout2 implements LayoutManager, java.io.Serializable {
     }
 
     /**
+     * @return the number of rows measured before a large grid is first
+     * shown, or 0 if every row is measured
+     */
+    public int getSampleRows() {
+        return sampleRows;
+    }
+
+    /**
+     * Set the number of rows measured before a grid with more rows than
+     * that is first shown. <p>
+     *
+     * This is intended for ROWCOLPREFERRED grids of hundreds of
+     * thousands of cells, which would otherwise have every child
+     * measured before anything can be shown. Evenly spaced sample rows
+     * are measured, the columns are sized from those rows alone and the
+     * other rows are given the average height of the sample. The
+     * remaining rows are measured a batch at a time while the event
+     * thread is idle, and any row is measured as soon as its children
+     * are positioned. Whenever this changes the width of a column or
+     * the height of a row the container is laid out again, once for
+     * each batch. It works best with {@link #setViewportAware(boolean)}
+     * so that only the rows scrolled into view are positioned.
+     *
+     * @param n the number of rows to sample, or 0 to measure every row
+     */
+    public void setSampleRows(int n) {
+        this.sampleRows = n;
+    }
+
+    /**
+     * @return true if every child is declared to be the same size
+     */
+    public boolean isUniformCells() {
+        return uniformCells;
+    }
+
+    /**
+     * Declare whether every child is the same size, as in a grid of
+     * icon buttons. <p>
+     *
+     * When declared, only the first child is measured and its size is
+     * used for every cell, so laying out a large grid costs no more
+     * measuring than laying out one cell. Children are then positioned
+     * arithmetically. Without the declaration a grid whose children all
+     * measure the same is found to be uniform by itself, and checked
+     * again whenever a child is invalidated, but every child is still
+     * measured the first time. This has no effect in sparse mode.
+     *
+     * @param u true if every child is the same size
+     */
+    public void setUniformCells(boolean u) {
+        this.uniformCells = u;
+    }
+
+    /**
+     * @return true if children are placed by their GridCell
+     * constraints
+     */
+    public boolean isSparse() {
+        return sparse;
+    }
+
+    /**
+     * Set whether children are placed by their {@link GridCell}
+     * constraints rather than by their index. <p>
+     *
+     * In sparse mode a grid with few children spread over many rows
+     * and columns needs no filler components. Rows and columns without
+     * children are given the default row height and column width.
+     * Children without a constraint are placed in the cell their index
+     * would give them. The number of rows and columns of the layout,
+     * if given, are the least the grid will span.
+     *
+     * @param s true for sparse mode
+     */
+    public void setSparse(boolean s) {
+        this.sparse = s;
+    }
+
+    /**
+     * @return the width given to columns without children in sparse
+     * mode
+     */
+    public int getDefaultColumnWidth() {
+        return defaultColumnWidth;
+    }
+
+    /**
+     * @param w the width given to columns without children in sparse
+     * mode
+     */
+    public void setDefaultColumnWidth(int w) {
+        this.defaultColumnWidth = w;
+    }
+
+    /**
+     * @return the height given to rows without children in sparse mode
+     */
+    public int getDefaultRowHeight() {
+        return defaultRowHeight;
+    }
+
+    /**
+     * @param h the height given to rows without children in sparse mode
+     */
+    public void setDefaultRowHeight(int h) {
+        this.defaultRowHeight = h;
+    }
+
+    /**
+     * @return true if only children visible in an enclosing viewport
+     * are positioned
+     */
+    public boolean isViewportAware() {
+        return viewportAware;
+    }
+
+    /**
+     * Set whether only the children visible in an enclosing viewport
+     * are to be positioned. <p>
+     *
+     * This is intended for very large grids shown in a
+     * <code>JScrollPane</code>. Children outside the visible area,
+     * plus the viewport margin, are given an empty size at the origin
+     * of their cell and are only positioned once they are scrolled
+     * into view. A container that is not the view of a
+     * <code>JViewport</code> has all its children positioned as usual.
+     *
+     * @param va true to position only visible children
+     */
+    public void setViewportAware(boolean va) {
+        this.viewportAware = va;
+    }
+
+    /**
+     * @return the distance beyond the visible area in which children
+     * are positioned
+     */
+    public int getViewportMargin() {
+        return viewportMargin;
+    }
+
+    /**
+     * @param vm the distance in pixels beyond the visible area of a
+     * viewport in which children are still positioned
+     */
+    public void setViewportMargin(int vm) {
+        this.viewportMargin = vm;
+    }
+
+    /**
+     * Get the layout state kept for a container, creating it if this
+     * is the first time the container has been seen. A child measured
+     * while a container is laid out may itself be laid out by this
+     * layout, so the state is passed along rather than kept.
+     *
+     * @param parent the container being laid out
+     * @return the layout state of the container
+     */
+    GridLayoutState getLayoutState(Container parent) {
+        if (states == null) {
+            states = new WeakHashMap();
+        }
+        GridLayoutState s = (GridLayoutState) states.get(parent);
+        if (s == null) {
+            s = createLayoutState();
+            states.put(parent, s);
+        }
+        return s;
+    }
+
+    /**
+     * Write the constraints as a plain map, as the weak map holding
+     * them is not serializable.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(new HashMap(constraints));
+    }
+
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        constraints = new WeakHashMap((Map) in.readObject());
+    }
+
+    /**
+     * Create the state to be kept for a new container. Subclasses
+     * that need to keep more per container state override this.
+     *
+     * @return a new layout state
+     */
+    GridLayoutState createLayoutState() {
+        return new GridLayoutState();
+    }
+
+    /**
+     * @param parent the container
      * @param lh The largestHeight to set.
      */
-    protected void setLargestHeight(int lh) {
-        this.largestHeight = lh;
+    protected void setLargestHeight(Container parent, int lh) {
+        getLayoutState(parent).largestHeight = lh;
     }
 
     /**
+     * @param parent the container
      * @return Returns the largestHeight.
      */
-    protected int getLargestHeight() {
-        return largestHeight;
+    protected int getLargestHeight(Container parent) {
+        return getLayoutState(parent).largestHeight;
     }
 
     /**
+     * @param parent the container
      * @param lw The largestWidth to set.
      */
-    protected void setLargestWidth(int lw) {
-        this.largestWidth = lw;
+    protected void setLargestWidth(Container parent, int lw) {
+        getLayoutState(parent).largestWidth = lw;
     }
 
     /**
+     * @param parent the container
      * @return Returns the largestWidth.
      */
-    protected int getLargestWidth() {
-        return largestWidth;
+    protected int getLargestWidth(Container parent) {
+        return getLayoutState(parent).largestWidth;
     }
 
     /**
+     * @param parent the container
      * @param cw The colWidth to set.
      */
-    protected void setColWidth(int[] cw) {
-        this.colWidth = cw;
+    protected void setColWidth(Container parent, int[] cw) {
+        GridLayoutState s = getLayoutState(parent);
+        s.colWidth = cw;
+        s.remeasure();
     }
 
     /**
+     * The array returned is reused between layout passes and may be
+     * longer than the number of columns.
+     *
+     * @param parent the container
      * @return Returns the colWidth.
      */
-    protected int[] getColWidth() {
-        return colWidth;
+    protected int[] getColWidth(Container parent) {
+        return getLayoutState(parent).colWidth;
     }
 
     /**
+     * @param parent the container
      * @param rh The rowHeight to set.
      */
-    protected void setRowHeight(int[] rh) {
-        this.rowHeight = rh;
+    protected void setRowHeight(Container parent, int[] rh) {
+        GridLayoutState s = getLayoutState(parent);
+        s.rowHeight = rh;
+        s.remeasure();
     }
 
     /**
+     * The array returned is reused between layout passes and may be
+     * longer than the number of rows.
+     *
+     * @param parent the container
      * @return Returns the rowHeight.
      */
-    protected int[] getRowHeight() {
-        return rowHeight;
+    protected int[] getRowHeight(Container parent) {
+        return getLayoutState(parent).rowHeight;
     }
 
     /**
@@ -786,4 +1573,76 @@ public class GridLayout2 implements LayoutManager, java.io.Serializable {
     int getCellSizing() {
         return cellSizing;
     }
+
+    /**
+     * Measures the estimated rows of a container a batch at a time,
+     * stopping once every row is measured.
+     */
+    private static class Refiner implements ActionListener {
+        private final GridLayout2 layout;
+        private final Container parent;
+        private final Timer timer;
+
+        Refiner(GridLayout2 theLayout, Container theParent) {
+            layout = theLayout;
+            parent = theParent;
+            timer = new Timer(REFINE_DELAY, this);
+            timer.start();
+        }
+
+        /**
+         * @see java.awt.event.ActionListener#actionPerformed(java.awt.event.ActionEvent)
+         */
+        public void actionPerformed(ActionEvent e) {
+            if (!layout.refine(parent)) {
+                timer.stop();
+            }
+        }
+    }
+
+    /**
+     * Lays out a container again once the event thread gets to it.
+     */
+    private static class Relayout implements Runnable {
+        private final GridLayout2 layout;
+        private final Container parent;
+
+        Relayout(GridLayout2 theLayout, Container theParent) {
+            layout = theLayout;
+            parent = theParent;
+        }
+
+        /**
+         * @see java.lang.Runnable#run()
+         */
+        public void run() {
+            layout.relayout(parent);
+        }
+    }
+
+    /**
+     * Listens to the viewport of a container laid out with a viewport
+     * aware layout so that children scrolled into view get positioned.
+     */
+    private static class ViewportListener implements ChangeListener {
+        private final GridLayout2 layout;
+        private final Container view;
+
+        ViewportListener(GridLayout2 theLayout, Container theView) {
+            layout = theLayout;
+            view = theView;
+        }
+
+        /**
+         * @see javax.swing.event.ChangeListener#stateChanged(javax.swing.event.ChangeEvent)
+         */
+        public void stateChanged(ChangeEvent e) {
+            JViewport viewport = (JViewport) e.getSource();
+            if (viewport.getView() != view || view.getLayout() != layout) {
+                viewport.removeChangeListener(this);
+                return;
+            }
+            layout.viewportChanged(view, viewport);
+        }
+    }
 }
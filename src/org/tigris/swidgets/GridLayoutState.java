@@ -0,0 +1,1494 @@
+// $Id$
+
+package org.tigris.swidgets;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.util.Arrays;
+
+/**
+ * The layout state that a {@link GridLayout2} keeps for each container
+ * it lays out. <p>
+ *
+ * Keeping this state per container rather than in the layout manager
+ * itself allows a single layout instance to be shared by any number
+ * of containers. The arrays held here are reused from one layout pass
+ * to the next and only ever grow, so they may be longer than the
+ * current number of rows and columns. <p>
+ *
+ * The measured size of each child is kept between passes. A child is
+ * only measured again once it has been invalidated, as Swing
+ * components do themselves whenever their preferred size may have
+ * changed, or when a different child has taken its place. The extent
+ * of each row and column is kept as the largest size in that row or
+ * column along with the number of cells of that size, so a changed
+ * cell updates its own row and column without looking at any other
+ * cell unless the only largest cell became smaller. <p>
+ *
+ * When every child turns out to be the same size, or the layout
+ * declares that they are, the grid is marked uniform. The columns and
+ * rows of a uniform grid, or of any grid whose cells are all sized
+ * alike, are positioned arithmetically rather than one by one. <p>
+ *
+ * The layout may ask for a large grid to be estimated rather than
+ * measured. Only a sample of rows is then measured at first, the
+ * other rows being given the average height of those sampled, and the
+ * remaining rows are measured later, either a batch at a time or as
+ * they are positioned.
+ */
+class GridLayoutState {
+
+    /**
+     * The number of rows of the last layout pass.
+     */
+    int rows;
+
+    /**
+     * The number of columns of the last layout pass.
+     */
+    int cols;
+
+    /**
+     * The height of the child component with the largest height
+     */
+    int largestHeight;
+
+    /**
+     * The width of the child component with the largest width
+     */
+    int largestWidth;
+
+    /**
+     * The required cell width of each column
+     */
+    int[] colWidth = new int[0];
+
+    /**
+     * The required cell height of each row
+     */
+    int[] rowHeight = new int[0];
+
+    /**
+     * The required minimum cell width of each column
+     */
+    int[] colMinWidth = new int[0];
+
+    /**
+     * The required minimum cell height of each row
+     */
+    int[] rowMinHeight = new int[0];
+
+    /**
+     * The number of cells in each column as wide as the column
+     */
+    private int[] colWidthTies = new int[0];
+
+    /**
+     * The number of cells in each row as high as the row
+     */
+    private int[] rowHeightTies = new int[0];
+
+    /**
+     * The number of cells in each column with a minimum width the
+     * same as the minimum width of the column
+     */
+    private int[] colMinWidthTies = new int[0];
+
+    /**
+     * The number of cells in each row with a minimum height the same
+     * as the minimum height of the row
+     */
+    private int[] rowMinHeightTies = new int[0];
+
+    /**
+     * The largest preferred width of any child component
+     */
+    int largestPreferredWidth;
+
+    /**
+     * The largest preferred height of any child component
+     */
+    int largestPreferredHeight;
+
+    /**
+     * The largest minimum width of any child component
+     */
+    int largestMinimumWidth;
+
+    /**
+     * The largest minimum height of any child component
+     */
+    int largestMinimumHeight;
+
+    /**
+     * The number of child components measured by the last call to
+     * {@link #measure(Container, int, int)}, or -1 if every child
+     * must be measured again.
+     */
+    int count = -1;
+
+    /**
+     * The preferred width of each child component, by index
+     */
+    int[] prefWidth = new int[0];
+
+    /**
+     * The preferred height of each child component, by index
+     */
+    int[] prefHeight = new int[0];
+
+    /**
+     * The minimum width of each child component, by index
+     */
+    int[] minWidth = new int[0];
+
+    /**
+     * The minimum height of each child component, by index
+     */
+    int[] minHeight = new int[0];
+
+    /**
+     * The child measured at each index, used to notice children that
+     * have been replaced or reordered.
+     */
+    private final ChildSnapshot children = new ChildSnapshot();
+
+    /**
+     * True if every child has the same preferred and minimum size,
+     * either as found by measuring them or as declared by the layout.
+     */
+    boolean uniform;
+
+    /**
+     * True if the children are declared to be the same size, so that
+     * only the first is measured and the sizes of the others are not
+     * kept.
+     */
+    private boolean declared;
+
+    /**
+     * Flags the rows whose children have been measured. Only used while
+     * some rows are still to be measured.
+     */
+    private boolean[] rowKnown = new boolean[0];
+
+    /**
+     * The number of rows whose children are still to be measured.
+     */
+    int unknownRows;
+
+    /**
+     * The preferred and minimum height given to rows not yet measured.
+     */
+    private int estimatedRowHeight;
+    private int estimatedRowMinHeight;
+
+    /**
+     * The row that {@link #refine} looks at next.
+     */
+    private int nextRow;
+
+    /**
+     * True if measuring rows that had been estimated changed the extent
+     * of any row or column, so the grid must be laid out again.
+     */
+    boolean refined;
+
+    /**
+     * True if the largest sizes must be found again before use.
+     */
+    private boolean largestStale;
+
+    /**
+     * True while rows are being measured a batch at a time.
+     */
+    boolean refining;
+
+    /**
+     * True while a layout pass to show refined extents is queued.
+     */
+    boolean relayoutQueued;
+
+    /**
+     * Receives the sizes of the child being measured.
+     */
+    private final int[] size = new int[4];
+
+    /**
+     * The size hints computed in parallel by the last full sweep,
+     * kept to be reused by the next.
+     */
+    private int[] hints;
+
+    /**
+     * Incremented whenever the extents of the rows or columns may have
+     * changed.
+     */
+    int version;
+
+    /**
+     * Incremented whenever every child is measured again.
+     */
+    int sweeps;
+
+    /**
+     * The number of children there were before the last measure, if
+     * it found only children appended to them, or -1. The sizes of
+     * those children are then unchanged, and so are the extents of
+     * the rows they fill, other than a last row they left part empty.
+     */
+    int appendedFrom = -1;
+
+    /**
+     * The version of the grid after the children were appended. Any
+     * later change increments the version, so the children appended
+     * are only known while the version is the same.
+     */
+    int appendedVersion;
+
+    /**
+     * True if every child must be positioned by the next layout pass.
+     */
+    boolean placeAll = true;
+
+    /**
+     * The indexes of children measured since the last layout pass
+     * that must be positioned again.
+     */
+    int[] pending = new int[0];
+
+    /**
+     * The number of entries in {@link #pending}.
+     */
+    int pendingCount;
+
+    /**
+     * Flags the children that are already in {@link #pending}.
+     */
+    private boolean[] isPending = new boolean[0];
+
+    /**
+     * Flags the columns and rows whose extent must be found again
+     * by looking at every cell.
+     */
+    private boolean[] colStale = new boolean[0];
+    private boolean[] rowStale = new boolean[0];
+
+    /**
+     * The x position and width of each column at the last layout
+     */
+    int[] colX = new int[0];
+    int[] colW = new int[0];
+
+    /**
+     * The y position and height of each row at the last layout
+     */
+    int[] rowY = new int[0];
+    int[] rowH = new int[0];
+
+    /**
+     * Flags the columns and rows that moved or changed size in the
+     * current layout pass.
+     */
+    boolean[] colMoved = new boolean[0];
+    boolean[] rowMoved = new boolean[0];
+
+    /**
+     * True if every column has the same width and every row the same
+     * height in the current layout pass, in which case the position
+     * of each is calculated from the fields below rather than kept.
+     */
+    private boolean even;
+    private int evenX;
+    private int evenY;
+    private int evenWidth;
+    private int evenHeight;
+    private int strideX;
+    private int strideY;
+    private boolean evenMoved;
+
+    /**
+     * True if the columns and rows are even in this layout pass but
+     * were kept one by one in the last, so which of them moved is
+     * still recorded one by one.
+     */
+    private boolean movedByTrack;
+
+    /**
+     * The rows and columns, inclusive, that were visible in a viewport
+     * at the last layout. The first row is -1 if the children were not
+     * positioned for a viewport.
+     */
+    int firstRow = -1;
+    int lastRow;
+    int firstCol;
+    int lastCol;
+
+    /**
+     * The state kept instead when the layout is in sparse mode.
+     */
+    SparseGrid sparseGrid;
+
+    /**
+     * The fill and anchor that children were last positioned with.
+     */
+    int placedFill = -1;
+    int placedAnchor = -1;
+
+    /**
+     * Measure the child components of a container laid out as a grid
+     * of the given size. <p>
+     *
+     * The first time, and whenever the number of children or the
+     * shape of the grid changes, each child is visited once, in index
+     * order, and its preferred and minimum sizes are captured in the
+     * same sweep. Otherwise only the children that have been
+     * invalidated or replaced since they were last measured, or whose
+     * preferred or minimum size has been set, are
+     * measured again and their rows and columns updated. Children
+     * appended to a grid of the same number of columns are measured
+     * on their own, growing the grid by the rows they fill. Either way
+     * the grid is then checked for being uniform. <p>
+     *
+     * If a number of sample rows is given and the grid has more rows
+     * than that, the first sweep measures only the sample rows and
+     * estimates the others.
+     *
+     * @param parent the container whose children are measured
+     * @param nrows the number of rows in the grid
+     * @param ncols the number of columns in the grid
+     * @param sampleRows the number of rows to measure at first, or 0
+     * to measure every row
+     */
+    void measure(Container parent, int nrows, int ncols, int sampleRows) {
+        int ncomponents = parent.getComponentCount();
+        if (ncomponents > count && count > 0 && ncols == cols
+            && nrows >= rows && !declared && unknownRows == 0) {
+            measureAppended(parent, nrows);
+            return;
+        }
+        if (ncomponents != count || nrows != rows || ncols != cols
+            || declared) {
+            measureAll(parent, nrows, ncols, sampleRows);
+            return;
+        }
+
+        if (!measureChanged(parent, ncomponents)) {
+            if (largestStale) {
+                findLargest();
+                uniform = isUniform();
+            }
+            return;
+        }
+        ++version;
+        rescanPending();
+        findLargest();
+        uniform = isUniform();
+    }
+
+    /**
+     * Measure again the children, up to a number of them, that have
+     * been invalidated or replaced since they were last measured, or
+     * whose preferred or minimum size has been set, as setting one
+     * does not invalidate the child. A child that measures the same
+     * as before, such as one added since the container was last
+     * validated, is not taken as a change.
+     *
+     * @param parent the container whose children are measured
+     * @param end the number of children to look at
+     * @return true if any child was replaced or changed size
+     */
+    private boolean measureChanged(Container parent, int end) {
+        boolean changed = false;
+        for (int i = 0; i < end; ++i) {
+            Component comp = parent.getComponent(i);
+            if (!children.is(i, comp) || SizeHints.isStale(comp)) {
+                boolean replaced = children.set(i, comp);
+                if (unknownRows > 0 && !rowKnown[i / cols]) {
+                    // Measured along with the rest of its row
+                    continue;
+                }
+                SizeHints.measure(comp, size);
+                if (replaced
+                    || size[0] != prefWidth[i] || size[1] != prefHeight[i]
+                    || size[2] != minWidth[i] || size[3] != minHeight[i]) {
+                    setCell(i);
+                    addPending(i);
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Measure the children appended since the last measure to a grid
+     * of the same number of columns, growing it by the rows they fill.
+     * The children already measured are only looked at to notice any
+     * that have been invalidated or replaced. If none have, the
+     * largest sizes and whether the grid is uniform are found from
+     * the appended children alone, so the work done does not depend
+     * on how many children were there before.
+     *
+     * @param parent the container whose children are measured
+     * @param nrows the number of rows in the grid
+     */
+    private void measureAppended(Container parent, int nrows) {
+        int from = count;
+        int ncomponents = parent.getComponentCount();
+        int oldRows = rows;
+        boolean changed = measureChanged(parent, from);
+
+        rowHeight = grow(rowHeight, oldRows, nrows);
+        rowMinHeight = grow(rowMinHeight, oldRows, nrows);
+        rowHeightTies = grow(rowHeightTies, oldRows, nrows);
+        rowMinHeightTies = grow(rowMinHeightTies, oldRows, nrows);
+        rowStale = ensure(rowStale, nrows);
+        Arrays.fill(rowStale, oldRows, nrows, false);
+        rows = nrows;
+        count = ncomponents;
+        prefWidth = ensure(prefWidth, ncomponents);
+        prefHeight = ensure(prefHeight, ncomponents);
+        minWidth = ensure(minWidth, ncomponents);
+        minHeight = ensure(minHeight, ncomponents);
+        children.ensure(ncomponents);
+        pending = ensure(pending, ncomponents);
+        isPending = ensure(isPending, ncomponents);
+        Arrays.fill(isPending, from, ncomponents, false);
+
+        boolean same = true;
+        int largestPrefW = largestPreferredWidth;
+        int largestPrefH = largestPreferredHeight;
+        int largestMinW = largestMinimumWidth;
+        int largestMinH = largestMinimumHeight;
+        for (int i = from; i < ncomponents; ++i) {
+            Component comp = parent.getComponent(i);
+            children.set(i, comp);
+            // No size yet, so the cell only ever adds to its row and
+            // column
+            prefWidth[i] = -1;
+            prefHeight[i] = -1;
+            minWidth[i] = -1;
+            minHeight[i] = -1;
+            measureCell(comp, i);
+            addPending(i);
+            same &= size[0] == largestPreferredWidth
+                && size[1] == largestPreferredHeight
+                && size[2] == largestMinimumWidth
+                && size[3] == largestMinimumHeight;
+            if (size[0] > largestPrefW) largestPrefW = size[0];
+            if (size[1] > largestPrefH) largestPrefH = size[1];
+            if (size[2] > largestMinW) largestMinW = size[2];
+            if (size[3] > largestMinH) largestMinH = size[3];
+        }
+        ++version;
+
+        if (changed || largestStale) {
+            appendedFrom = -1;
+            rescanPending();
+            findLargest();
+            uniform = isUniform();
+            return;
+        }
+        appendedFrom = from;
+        appendedVersion = version;
+        largestPreferredWidth = largestPrefW;
+        largestPreferredHeight = largestPrefH;
+        largestMinimumWidth = largestMinW;
+        largestMinimumHeight = largestMinH;
+        if (uniform) {
+            uniform = same;
+        } else if (from < cols || from <= (oldRows - 1) * cols) {
+            // The grid was only uneven for having an empty row or
+            // column, which may now be filled
+            uniform = isUniform();
+        }
+        // Otherwise children already measured differ in size, so the
+        // grid stays uneven
+    }
+
+    /**
+     * Find again the extents of any row or column of the children
+     * measured since the last layout pass whose only largest cell
+     * shrank, from the sizes already measured.
+     */
+    private void rescanPending() {
+        for (int p = 0; p < pendingCount; ++p) {
+            int i = pending[p];
+            int r = i / cols;
+            int c = i % cols;
+            if (rowStale[r]) {
+                rescanRow(r);
+            }
+            if (colStale[c]) {
+                rescanCol(c);
+            }
+        }
+    }
+
+    /**
+     * Measure the child components of a container that are declared
+     * to all be the same size. Only the first child is measured, and
+     * then only when it has been invalidated or replaced or its size
+     * has been set. The other
+     * children are only looked at to notice any that have been
+     * replaced and so must be positioned.
+     *
+     * @param parent the container whose children are measured
+     * @param nrows the number of rows in the grid
+     * @param ncols the number of columns in the grid
+     */
+    void measureDeclared(Container parent, int nrows, int ncols) {
+        int ncomponents = parent.getComponentCount();
+        boolean measureFirst = false;
+        if (ncomponents != count || nrows != rows || ncols != cols
+            || !declared) {
+            setGrid(nrows, ncols);
+            ++sweeps;
+            count = ncomponents;
+            children.ensure(ncomponents);
+            pending = ensure(pending, ncomponents);
+            isPending = clear(isPending, ncomponents);
+            pendingCount = 0;
+            placeAll = true;
+            declared = true;
+            unknownRows = 0;
+            for (int i = 0; i < ncomponents; ++i) {
+                children.set(i, parent.getComponent(i));
+            }
+            measureFirst = true;
+        } else {
+            for (int i = 0; i < ncomponents; ++i) {
+                if (children.set(i, parent.getComponent(i))) {
+                    addPending(i);
+                    measureFirst |= i == 0;
+                }
+            }
+        }
+
+        if (ncomponents == 0) {
+            largestPreferredWidth = 0;
+            largestPreferredHeight = 0;
+            largestMinimumWidth = 0;
+            largestMinimumHeight = 0;
+            return;
+        }
+        Component first = parent.getComponent(0);
+        if (measureFirst || SizeHints.isStale(first)) {
+            SizeHints.measure(first, size);
+            if (!measureFirst
+                && size[0] == largestPreferredWidth
+                && size[1] == largestPreferredHeight
+                && size[2] == largestMinimumWidth
+                && size[3] == largestMinimumHeight) {
+                return;
+            }
+            ++version;
+            largestPreferredWidth = size[0];
+            largestPreferredHeight = size[1];
+            largestMinimumWidth = size[2];
+            largestMinimumHeight = size[3];
+
+            // A grid with more rows or columns than it needs has empty
+            // ones, which take no space when sized by their cells.
+            uniform = ncomponents >= ncols
+                && ncomponents > (nrows - 1) * ncols;
+            if (!uniform) {
+                colMinWidth = ensure(colMinWidth, ncols);
+                rowMinHeight = ensure(rowMinHeight, nrows);
+                for (int c = 0; c < ncols; ++c) {
+                    boolean empty = c >= ncomponents;
+                    colWidth[c] = empty ? 0 : largestPreferredWidth;
+                    colMinWidth[c] = empty ? 0 : largestMinimumWidth;
+                }
+                for (int r = 0; r < nrows; ++r) {
+                    boolean empty = r * ncols >= ncomponents;
+                    rowHeight[r] = empty ? 0 : largestPreferredHeight;
+                    rowMinHeight[r] = empty ? 0 : largestMinimumHeight;
+                }
+            }
+        }
+    }
+
+    /**
+     * Check whether every child has the same preferred and minimum
+     * size and every row and column holds a child, using only the
+     * extents of the rows and columns and the number of cells
+     * matching each.
+     *
+     * @return true if the grid is uniform
+     */
+    private boolean isUniform() {
+        if (count == 0) {
+            return false;
+        }
+        int full = count / cols;
+        int extra = count % cols;
+        for (int c = 0; c < cols; ++c) {
+            int cells = c < extra ? full + 1 : full;
+            if (cells == 0
+                || colWidth[c] != largestPreferredWidth
+                || colWidthTies[c] != cells
+                || colMinWidth[c] != largestMinimumWidth
+                || colMinWidthTies[c] != cells) {
+                return false;
+            }
+        }
+        for (int r = 0; r < rows; ++r) {
+            int cells = Math.min(cols, count - r * cols);
+            if (cells <= 0
+                || rowHeight[r] != largestPreferredHeight
+                || rowHeightTies[r] != cells
+                || rowMinHeight[r] != largestMinimumHeight
+                || rowMinHeightTies[r] != cells) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Measure a single child and update the extent of its row and
+     * column.
+     *
+     * @param comp the child
+     * @param i the index of the child
+     */
+    private void measureCell(Component comp, int i) {
+        SizeHints.measure(comp, size);
+        setCell(i);
+    }
+
+    /**
+     * Keep the sizes just measured for a child and update the extent
+     * of its row and column.
+     *
+     * @param i the index of the child
+     */
+    private void setCell(int i) {
+        int r = i / cols;
+        int c = i % cols;
+
+        if (update(colWidth, colWidthTies, c, prefWidth[i], size[0])) {
+            colStale[c] = true;
+        }
+        if (update(rowHeight, rowHeightTies, r, prefHeight[i], size[1])) {
+            rowStale[r] = true;
+        }
+        if (update(colMinWidth, colMinWidthTies, c, minWidth[i], size[2])) {
+            colStale[c] = true;
+        }
+        if (update(rowMinHeight, rowMinHeightTies, r, minHeight[i], size[3])) {
+            rowStale[r] = true;
+        }
+        prefWidth[i] = size[0];
+        prefHeight[i] = size[1];
+        minWidth[i] = size[2];
+        minHeight[i] = size[3];
+    }
+
+    /**
+     * Add a child to the children that must be positioned again.
+     *
+     * @param i the index of the child
+     */
+    void addPending(int i) {
+        if (!isPending[i]) {
+            isPending[i] = true;
+            pending[pendingCount++] = i;
+        }
+    }
+
+    /**
+     * Update the extent of a row or column when one of its cells
+     * changes size.
+     *
+     * @param extent the extents of the rows or columns
+     * @param ties the number of cells matching each extent
+     * @param k the row or column of the cell
+     * @param oldSize the previous size of the cell
+     * @param newSize the new size of the cell
+     * @return true if the extent must be found again from all cells
+     */
+    private static boolean update(int[] extent, int[] ties, int k,
+                                  int oldSize, int newSize) {
+        if (oldSize == newSize) {
+            return false;
+        }
+        int max = extent[k];
+        if (newSize > max) {
+            extent[k] = newSize;
+            ties[k] = 1;
+        } else if (newSize == max) {
+            ++ties[k];
+        } else if (oldSize == max) {
+            return --ties[k] == 0;
+        }
+        return false;
+    }
+
+    /**
+     * Find the extents of a row again from the sizes of its cells.
+     *
+     * @param r the row
+     */
+    private void rescanRow(int r) {
+        int start = r * cols;
+        int end = Math.min(start + cols, count);
+        int height = 0;
+        int heightTies = 0;
+        int minimum = 0;
+        int minimumTies = 0;
+        for (int i = start; i < end; ++i) {
+            int h = prefHeight[i];
+            if (h > height) {
+                height = h;
+                heightTies = 1;
+            } else if (h == height) {
+                ++heightTies;
+            }
+            h = minHeight[i];
+            if (h > minimum) {
+                minimum = h;
+                minimumTies = 1;
+            } else if (h == minimum) {
+                ++minimumTies;
+            }
+        }
+        rowHeight[r] = height;
+        rowHeightTies[r] = heightTies;
+        rowMinHeight[r] = minimum;
+        rowMinHeightTies[r] = minimumTies;
+        rowStale[r] = false;
+    }
+
+    /**
+     * Find the extents of a column again from the sizes of its cells.
+     *
+     * @param c the column
+     */
+    private void rescanCol(int c) {
+        int width = 0;
+        int widthTies = 0;
+        int minimum = 0;
+        int minimumTies = 0;
+        for (int i = c; i < count; i += cols) {
+            int w = prefWidth[i];
+            if (w > width) {
+                width = w;
+                widthTies = 1;
+            } else if (w == width) {
+                ++widthTies;
+            }
+            w = minWidth[i];
+            if (w > minimum) {
+                minimum = w;
+                minimumTies = 1;
+            } else if (w == minimum) {
+                ++minimumTies;
+            }
+        }
+        colWidth[c] = width;
+        colWidthTies[c] = widthTies;
+        colMinWidth[c] = minimum;
+        colMinWidthTies[c] = minimumTies;
+        colStale[c] = false;
+    }
+
+    /**
+     * Measure the children of a row that has only been estimated so
+     * far. Nothing is done if the row has already been measured.
+     *
+     * @param parent the container whose children are measured
+     * @param r the row
+     */
+    void measureRow(Container parent, int r) {
+        if (unknownRows == 0 || rowKnown[r]) {
+            return;
+        }
+        rowKnown[r] = true;
+        --unknownRows;
+        ++version;
+        rowHeight[r] = 0;
+        rowHeightTies[r] = 0;
+        rowMinHeight[r] = 0;
+        rowMinHeightTies[r] = 0;
+
+        boolean changed = false;
+        int end = Math.min(r * cols + cols, count);
+        for (int i = r * cols, c = 0; i < end; ++i, ++c) {
+            int width = colWidth[c];
+            int minimum = colMinWidth[c];
+            Component comp = parent.getComponent(i);
+            children.set(i, comp);
+            measureCell(comp, i);
+            changed |= colWidth[c] != width || colMinWidth[c] != minimum;
+        }
+        if (changed || rowHeight[r] != estimatedRowHeight
+            || rowMinHeight[r] != estimatedRowMinHeight) {
+            refined = true;
+            largestStale = true;
+        }
+    }
+
+    /**
+     * Measure a batch of the rows that have only been estimated so far.
+     *
+     * @param parent the container whose children are measured
+     * @param cells the number of children to measure, at least
+     */
+    void refine(Container parent, int cells) {
+        int measured = 0;
+        while (unknownRows > 0 && measured < cells) {
+            if (nextRow >= rows) {
+                nextRow = 0;
+            }
+            if (!rowKnown[nextRow]) {
+                measureRow(parent, nextRow);
+                measured += cols;
+            }
+            ++nextRow;
+        }
+        if (largestStale) {
+            findLargest();
+            uniform = isUniform();
+        }
+    }
+
+    /**
+     * Find the largest preferred and minimum sizes from the extents
+     * of the rows and columns.
+     */
+    private void findLargest() {
+        int largestPrefW = 0;
+        int largestMinW = 0;
+        for (int c = 0; c < cols; ++c) {
+            if (colWidth[c] > largestPrefW) largestPrefW = colWidth[c];
+            if (colMinWidth[c] > largestMinW) largestMinW = colMinWidth[c];
+        }
+        int largestPrefH = 0;
+        int largestMinH = 0;
+        for (int r = 0; r < rows; ++r) {
+            if (rowHeight[r] > largestPrefH) largestPrefH = rowHeight[r];
+            if (rowMinHeight[r] > largestMinH) largestMinH = rowMinHeight[r];
+        }
+        largestPreferredWidth = largestPrefW;
+        largestPreferredHeight = largestPrefH;
+        largestMinimumWidth = largestMinW;
+        largestMinimumHeight = largestMinH;
+        largestStale = false;
+    }
+
+    /**
+     * Measure every child of a container in a single sweep, or only a
+     * sample of the rows.
+     *
+     * @param parent the container whose children are measured
+     * @param nrows the number of rows in the grid
+     * @param ncols the number of columns in the grid
+     * @param sampleRows the number of rows to measure, or 0 for all
+     */
+    private void measureAll(Container parent, int nrows, int ncols,
+                            int sampleRows) {
+        ++version;
+        ++sweeps;
+        setGrid(nrows, ncols);
+        colMinWidth = clear(colMinWidth, ncols);
+        rowMinHeight = clear(rowMinHeight, nrows);
+        colWidthTies = clear(colWidthTies, ncols);
+        rowHeightTies = clear(rowHeightTies, nrows);
+        colMinWidthTies = clear(colMinWidthTies, ncols);
+        rowMinHeightTies = clear(rowMinHeightTies, nrows);
+        colStale = clear(colStale, ncols);
+        rowStale = clear(rowStale, nrows);
+
+        int ncomponents = parent.getComponentCount();
+        count = ncomponents;
+        prefWidth = ensure(prefWidth, ncomponents);
+        prefHeight = ensure(prefHeight, ncomponents);
+        minWidth = ensure(minWidth, ncomponents);
+        minHeight = ensure(minHeight, ncomponents);
+        children.ensure(ncomponents);
+        pending = ensure(pending, ncomponents);
+        isPending = clear(isPending, ncomponents);
+        pendingCount = 0;
+        placeAll = true;
+        declared = false;
+        unknownRows = 0;
+        refined = false;
+
+        if (sampleRows > 0 && nrows > sampleRows) {
+            measureSample(parent, sampleRows);
+            return;
+        }
+
+        // Children with size hints may have them computed in parallel
+        // before the sweep.
+        int[] hinted = SizeHints.computeAll(parent, hints);
+        if (hinted != null) {
+            hints = hinted;
+        }
+
+        int largestPrefW = 0;
+        int largestPrefH = 0;
+        int largestMinW = 0;
+        int largestMinH = 0;
+        int r = 0;
+        int c = 0;
+        for (int i = 0; i < ncomponents; ++i) {
+            Component comp = parent.getComponent(i);
+            children.set(i, comp);
+            if (hinted != null && hinted[i * 4] >= 0) {
+                System.arraycopy(hinted, i * 4, size, 0, 4);
+            } else {
+                SizeHints.measure(comp, size);
+            }
+            int w = size[0];
+            int h = size[1];
+            prefWidth[i] = w;
+            prefHeight[i] = h;
+            if (w > colWidth[c]) {
+                colWidth[c] = w;
+                colWidthTies[c] = 1;
+                if (w > largestPrefW) largestPrefW = w;
+            } else if (w == colWidth[c]) {
+                ++colWidthTies[c];
+            }
+            if (h > rowHeight[r]) {
+                rowHeight[r] = h;
+                rowHeightTies[r] = 1;
+                if (h > largestPrefH) largestPrefH = h;
+            } else if (h == rowHeight[r]) {
+                ++rowHeightTies[r];
+            }
+
+            w = size[2];
+            h = size[3];
+            minWidth[i] = w;
+            minHeight[i] = h;
+            if (w > colMinWidth[c]) {
+                colMinWidth[c] = w;
+                colMinWidthTies[c] = 1;
+                if (w > largestMinW) largestMinW = w;
+            } else if (w == colMinWidth[c]) {
+                ++colMinWidthTies[c];
+            }
+            if (h > rowMinHeight[r]) {
+                rowMinHeight[r] = h;
+                rowMinHeightTies[r] = 1;
+                if (h > largestMinH) largestMinH = h;
+            } else if (h == rowMinHeight[r]) {
+                ++rowMinHeightTies[r];
+            }
+
+            if (++c == ncols) {
+                c = 0;
+                ++r;
+            }
+        }
+        largestPreferredWidth = largestPrefW;
+        largestPreferredHeight = largestPrefH;
+        largestMinimumWidth = largestMinW;
+        largestMinimumHeight = largestMinH;
+        largestStale = false;
+        uniform = isUniform();
+    }
+
+    /**
+     * Measure evenly spaced sample rows of a grid whose extents have
+     * just been cleared, and give every other row the average height
+     * of the sample. The widths of the columns are found from the
+     * sample rows alone.
+     *
+     * @param parent the container whose children are measured
+     * @param sampleRows the number of rows to measure
+     */
+    private void measureSample(Container parent, int sampleRows) {
+        Arrays.fill(prefWidth, 0, count, -1);
+        Arrays.fill(prefHeight, 0, count, -1);
+        Arrays.fill(minWidth, 0, count, -1);
+        Arrays.fill(minHeight, 0, count, -1);
+        for (int i = 0; i < count; ++i) {
+            children.set(i, parent.getComponent(i));
+        }
+        rowKnown = clear(rowKnown, rows);
+        unknownRows = rows;
+        nextRow = 0;
+
+        long height = 0;
+        long minimum = 0;
+        for (int k = 0; k < sampleRows; ++k) {
+            int r = (int) ((long) k * rows / sampleRows);
+            measureRow(parent, r);
+            height += rowHeight[r];
+            minimum += rowMinHeight[r];
+        }
+        estimatedRowHeight = (int) ((height + sampleRows - 1) / sampleRows);
+        estimatedRowMinHeight =
+            (int) ((minimum + sampleRows - 1) / sampleRows);
+        for (int r = 0; r < rows; ++r) {
+            if (!rowKnown[r]) {
+                rowHeight[r] = estimatedRowHeight;
+                rowMinHeight[r] = estimatedRowMinHeight;
+            }
+        }
+        refined = false;
+        findLargest();
+        uniform = false;
+    }
+
+    /**
+     * Take the sizes of the children from the state kept for the same
+     * container when laid out as another shape of grid. A state that
+     * has not been laid out for a while has missed any changes to its
+     * children, so children whose sizes differ update the extents of
+     * their rows and columns as if measured again. If any child has
+     * been replaced every child is measured again instead. Every child
+     * is positioned by the next pass.
+     *
+     * @param from the state last laid out
+     */
+    void adopt(GridLayoutState from) {
+        placeAll = true;
+        firstRow = -1;
+        if (count < 0) {
+            return;
+        }
+        if (from.count != count || declared || from.declared
+            || unknownRows > 0 || from.unknownRows > 0) {
+            remeasure();
+            return;
+        }
+        if (!children.same(from.children, count)) {
+            remeasure();
+            return;
+        }
+        boolean changed = false;
+        for (int i = 0; i < count; ++i) {
+            if (prefWidth[i] != from.prefWidth[i]
+                || prefHeight[i] != from.prefHeight[i]
+                || minWidth[i] != from.minWidth[i]
+                || minHeight[i] != from.minHeight[i]) {
+                size[0] = from.prefWidth[i];
+                size[1] = from.prefHeight[i];
+                size[2] = from.minWidth[i];
+                size[3] = from.minHeight[i];
+                setCell(i);
+                addPending(i);
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return;
+        }
+        ++version;
+        for (int r = 0; r < rows; ++r) {
+            if (rowStale[r]) {
+                rescanRow(r);
+            }
+        }
+        for (int c = 0; c < cols; ++c) {
+            if (colStale[c]) {
+                rescanCol(c);
+            }
+        }
+        findLargest();
+        uniform = isUniform();
+    }
+
+    /**
+     * Forget all measurements so that every child is measured again
+     * by the next pass.
+     */
+    void remeasure() {
+        count = -1;
+    }
+
+    /**
+     * Prepare the positions of the columns and rows for a layout pass
+     * over a grid of the given size, and decide whether every child
+     * must be positioned.
+     *
+     * @param nrows the number of rows in the grid
+     * @param ncols the number of columns in the grid
+     * @param fill the fill the children will be positioned with
+     * @param anchor the anchor the children will be positioned with
+     * @param evenTracks true if the columns and rows are to be placed
+     * by {@link #placeEven}, false if by {@link #placeCol} and
+     * {@link #placeRow}
+     * @return true if every child must be positioned
+     */
+    boolean startPlacing(int nrows, int ncols, int fill, int anchor,
+                         boolean evenTracks) {
+        boolean all = placeAll || fill != placedFill
+            || anchor != placedAnchor;
+        boolean wasEven = even;
+        placedFill = fill;
+        placedAnchor = anchor;
+        even = evenTracks;
+        movedByTrack = evenTracks && !wasEven;
+        if (evenTracks) {
+            return all;
+        }
+        // Positions kept from an even layout are carried over so that
+        // only the columns and rows that really move are treated as
+        // moved.
+        boolean carry = wasEven && !all;
+        if (colX.length < ncols) {
+            colX = ensure(colX, ncols);
+            colW = ensure(colW, ncols);
+            all = !carry;
+        }
+        if (rowY.length < nrows) {
+            rowY = ensure(rowY, nrows);
+            rowH = ensure(rowH, nrows);
+            all = !carry;
+        }
+        colMoved = ensure(colMoved, ncols);
+        rowMoved = ensure(rowMoved, nrows);
+        if (carry) {
+            for (int c = 0; c < ncols; ++c) {
+                colX[c] = evenX + c * strideX;
+                colW[c] = evenWidth;
+            }
+            for (int r = 0; r < nrows; ++r) {
+                rowY[r] = evenY + r * strideY;
+                rowH[r] = evenHeight;
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Record the position and size of every column and row for this
+     * layout pass when all columns are the same width and all rows the
+     * same height.
+     *
+     * @param x the x position of the first column
+     * @param y the y position of the first row
+     * @param w the width of every column
+     * @param h the height of every row
+     * @param hgap the gap between columns
+     * @param vgap the gap between rows
+     * @param all true if every column and row is to be treated as moved
+     * @return true if the columns and rows moved or changed size
+     */
+    boolean placeEven(int x, int y, int w, int h, int hgap, int vgap,
+                      boolean all) {
+        boolean moved = false;
+        if (movedByTrack && !all
+            && colMoved.length >= cols && rowMoved.length >= rows) {
+            // Compare with the positions kept one by one by the last
+            // layout.
+            for (int c = 0; c < cols; ++c) {
+                colMoved[c] = colX[c] != x + c * (w + hgap) || colW[c] != w;
+                moved |= colMoved[c];
+            }
+            for (int r = 0; r < rows; ++r) {
+                rowMoved[r] = rowY[r] != y + r * (h + vgap) || rowH[r] != h;
+                moved |= rowMoved[r];
+            }
+        } else {
+            movedByTrack = false;
+            moved = all || evenX != x || evenY != y
+                || evenWidth != w || evenHeight != h
+                || strideX != w + hgap || strideY != h + vgap;
+        }
+        evenX = x;
+        evenY = y;
+        evenWidth = w;
+        evenHeight = h;
+        strideX = w + hgap;
+        strideY = h + vgap;
+        evenMoved = moved;
+        return moved;
+    }
+
+    /**
+     * Treat every row as moved for the rest of this layout pass.
+     */
+    void moveAllRows() {
+        if (even && !movedByTrack) {
+            evenMoved = true;
+        } else {
+            Arrays.fill(rowMoved, 0, rows, true);
+        }
+    }
+
+    /**
+     * @param c a column
+     * @return the x position of the column in this layout pass
+     */
+    int xOf(int c) {
+        return even ? evenX + c * strideX : colX[c];
+    }
+
+    /**
+     * @param r a row
+     * @return the y position of the row in this layout pass
+     */
+    int yOf(int r) {
+        return even ? evenY + r * strideY : rowY[r];
+    }
+
+    /**
+     * @param c a column
+     * @return the width of the column in this layout pass
+     */
+    int widthOf(int c) {
+        return even ? evenWidth : colW[c];
+    }
+
+    /**
+     * @param r a row
+     * @return the height of the row in this layout pass
+     */
+    int heightOf(int r) {
+        return even ? evenHeight : rowH[r];
+    }
+
+    /**
+     * @param c a column
+     * @return true if the column moved or changed size in this pass
+     */
+    boolean isColMoved(int c) {
+        return even && !movedByTrack ? evenMoved : colMoved[c];
+    }
+
+    /**
+     * @param r a row
+     * @return true if the row moved or changed size in this pass
+     */
+    boolean isRowMoved(int r) {
+        return even && !movedByTrack ? evenMoved : rowMoved[r];
+    }
+
+    /**
+     * @param i the index of a child
+     * @return the preferred width of the child as last measured
+     */
+    int prefWidthOf(int i) {
+        return declared ? largestPreferredWidth : prefWidth[i];
+    }
+
+    /**
+     * @param i the index of a child
+     * @return the preferred height of the child as last measured
+     */
+    int prefHeightOf(int i) {
+        return declared ? largestPreferredHeight : prefHeight[i];
+    }
+
+    /**
+     * Record the position and size of a column for this layout pass.
+     *
+     * @param c the column
+     * @param x the x position of the column
+     * @param w the width of the column
+     * @param all true if every column is to be treated as moved
+     * @return true if the column moved or changed size
+     */
+    boolean placeCol(int c, int x, int w, boolean all) {
+        boolean moved = all || colX[c] != x || colW[c] != w;
+        colX[c] = x;
+        colW[c] = w;
+        colMoved[c] = moved;
+        return moved;
+    }
+
+    /**
+     * Record the position and size of a row for this layout pass.
+     *
+     * @param r the row
+     * @param y the y position of the row
+     * @param h the height of the row
+     * @param all true if every row is to be treated as moved
+     * @return true if the row moved or changed size
+     */
+    boolean placeRow(int r, int y, int h, boolean all) {
+        boolean moved = all || rowY[r] != y || rowH[r] != h;
+        rowY[r] = y;
+        rowH[r] = h;
+        rowMoved[r] = moved;
+        return moved;
+    }
+
+    /**
+     * @param i the index of a child
+     * @return true if the child has been measured again since it was
+     * last positioned
+     */
+    boolean isPending(int i) {
+        return isPending[i];
+    }
+
+    /**
+     * Find the row at a y position, using the row positions of the
+     * last layout.
+     *
+     * @param y the y position
+     * @return the last row starting at or above the position, or the
+     * first row if none
+     */
+    int rowAt(int y) {
+        if (even) {
+            return step(y - evenY, strideY, rows);
+        }
+        return search(rowY, rows, y);
+    }
+
+    /**
+     * Find the column at an x position, using the column positions of
+     * the last layout.
+     *
+     * @param x the x position
+     * @return the last column starting at or left of the position, or
+     * the first column if none
+     */
+    int colAt(int x) {
+        if (even) {
+            return step(x - evenX, strideX, cols);
+        }
+        return search(colX, cols, x);
+    }
+
+    /**
+     * Find the last of evenly spaced positions that is not beyond an
+     * offset from the first.
+     */
+    private static int step(int offset, int stride, int length) {
+        if (offset < 0 || length <= 1) {
+            return 0;
+        }
+        if (stride <= 0) {
+            return length - 1;
+        }
+        return Math.min(offset / stride, length - 1);
+    }
+
+    /**
+     * Binary search ascending positions for the last that is not
+     * beyond a value.
+     */
+    private static int search(int[] positions, int length, int value) {
+        int low = 0;
+        int high = length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (positions[mid] <= value) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Record that the children have been positioned.
+     */
+    void placed() {
+        for (int p = 0; p < pendingCount; ++p) {
+            isPending[pending[p]] = false;
+        }
+        pendingCount = 0;
+        placeAll = false;
+    }
+
+    /**
+     * Prepare the state for a pass over a grid of the given size.
+     * The column widths and row heights of the grid are cleared and
+     * the arrays grown if they are too small.
+     *
+     * @param nrows the number of rows in the grid
+     * @param ncols the number of columns in the grid
+     */
+    void setGrid(int nrows, int ncols) {
+        rows = nrows;
+        cols = ncols;
+        largestWidth = 0;
+        largestHeight = 0;
+        colWidth = clear(colWidth, ncols);
+        rowHeight = clear(rowHeight, nrows);
+    }
+
+    /**
+     * Clear the first entries of an array, replacing the array with
+     * a larger one if it can not hold that many entries.
+     *
+     * @param array the array to clear
+     * @param length the number of entries required
+     * @return the cleared array
+     */
+    static int[] clear(int[] array, int length) {
+        if (array.length < length) {
+            return new int[grow(array.length, length)];
+        }
+        Arrays.fill(array, 0, length, 0);
+        return array;
+    }
+
+    /**
+     * @see #clear(int[], int)
+     */
+    static boolean[] clear(boolean[] array, int length) {
+        if (array.length < length) {
+            return new boolean[grow(array.length, length)];
+        }
+        Arrays.fill(array, 0, length, false);
+        return array;
+    }
+
+    /**
+     * Make sure an array can hold a number of entries keeping its
+     * existing content.
+     *
+     * @param array the array to check
+     * @param length the number of entries required
+     * @return the same array or a larger copy of it
+     */
+    static int[] ensure(int[] array, int length) {
+        if (array.length >= length) {
+            return array;
+        }
+        int[] grown = new int[grow(array.length, length)];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    /**
+     * @see #ensure(int[], int)
+     */
+    static boolean[] ensure(boolean[] array, int length) {
+        if (array.length >= length) {
+            return array;
+        }
+        boolean[] grown = new boolean[grow(array.length, length)];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    /**
+     * Make sure an array can hold a number of entries keeping the
+     * first of them and clearing the rest.
+     *
+     * @param array the array to grow
+     * @param keep the number of entries to keep
+     * @param length the number of entries required
+     * @return the same array or a larger copy of it
+     */
+    static int[] grow(int[] array, int keep, int length) {
+        int[] grown = ensure(array, length);
+        Arrays.fill(grown, keep, length, 0);
+        return grown;
+    }
+
+    /**
+     * Calculate a new capacity for an array. Some headroom is given
+     * so that a slowly growing grid does not reallocate on every pass.
+     */
+    private static int grow(int current, int required) {
+        int capacity = current + (current >> 1);
+        return capacity < required ? required : capacity;
+    }
+}
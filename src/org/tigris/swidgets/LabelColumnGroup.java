@@ -0,0 +1,161 @@
+// $Id$
+
+package org.tigris.swidgets;
+
+import java.awt.Container;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.swing.JComponent;
+
+/**
+ * A group of {@link LabelledLayout}s whose label columns are all given
+ * the same width, so that the labels of panels stacked one above the
+ * other line up. <p>
+ *
+ * Each section of each container laid out by a member layout gives
+ * the group the width of its widest label when it is measured, and
+ * replaces it when the section is measured again. The widths are
+ * kept for each container, weakly held, and the widest is found
+ * again from them whenever a member is laid out, so a container that
+ * has been collected or no longer has a member layout stops counting
+ * without any label being measured again. When the widest width
+ * changes the other containers of the group are revalidated, and are
+ * positioned again without being measured.
+ *
+ * @see LabelledLayout#setLabelColumnGroup(LabelColumnGroup)
+ */
+public class LabelColumnGroup implements java.io.Serializable {
+
+    private static final long serialVersionUID = 6712360513384209265L;
+
+    /**
+     * The label width of each section of each container laid out by a
+     * member layout, keyed weakly by the container.
+     */
+    private transient Map labelWidths;
+
+    /**
+     * The widest label width of any section, as last found.
+     */
+    private transient int width;
+
+    /**
+     * True if label widths have been given or withdrawn since the
+     * widest was last found.
+     */
+    private transient boolean changed;
+
+    /**
+     * The width the containers of the group were last laid out with.
+     */
+    private transient int publishedWidth;
+
+    /**
+     * @return the width of the label column of every member
+     */
+    public int getLabelWidth() {
+        if (changed) {
+            findWidth();
+        }
+        return width;
+    }
+
+    /**
+     * Give the width of the widest label of a section of a container,
+     * replacing any given before.
+     *
+     * @param parent the container
+     * @param sectionNo the section
+     * @param w the width
+     */
+    void setLabelWidth(Container parent, int sectionNo, int w) {
+        if (labelWidths == null) {
+            labelWidths = new WeakHashMap();
+        }
+        int[] widths = (int[]) labelWidths.get(parent);
+        if (widths == null || widths.length <= sectionNo) {
+            widths = GridLayoutState.ensure(
+                widths == null ? new int[0] : widths, sectionNo + 1);
+            labelWidths.put(parent, widths);
+        }
+        widths[sectionNo] = w;
+        changed = true;
+    }
+
+    /**
+     * Withdraw the label widths of every section of a container, before
+     * its sections are measured afresh or when it is no longer laid
+     * out by a member layout.
+     *
+     * @param parent the container
+     */
+    void withdraw(Container parent) {
+        if (labelWidths != null && labelWidths.remove(parent) != null) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Find the widest label width of the containers that are still
+     * laid out by a member layout, forgetting the others.
+     */
+    private void findWidth() {
+        changed = false;
+        width = 0;
+        if (labelWidths == null) {
+            return;
+        }
+        Iterator it = labelWidths.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry entry = (Map.Entry) it.next();
+            if (!isMember((Container) entry.getKey())) {
+                it.remove();
+                continue;
+            }
+            int[] widths = (int[]) entry.getValue();
+            for (int i = 0; i < widths.length; ++i) {
+                if (widths[i] > width) {
+                    width = widths[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if a container is laid out by a member layout
+     */
+    private boolean isMember(Container parent) {
+        return parent.getLayout() instanceof LabelledLayout
+            && ((LabelledLayout) parent.getLayout())
+                .getLabelColumnGroup() == this;
+    }
+
+    /**
+     * Find the widest label width again, and revalidate every container
+     * of the group but the one being laid out if it has changed since
+     * they were last told.
+     *
+     * @param source the container being laid out
+     */
+    void publish(Container source) {
+        findWidth();
+        if (width == publishedWidth) {
+            return;
+        }
+        publishedWidth = width;
+        Iterator it = labelWidths.keySet().iterator();
+        while (it.hasNext()) {
+            Container parent = (Container) it.next();
+            if (parent == source) {
+                continue;
+            }
+            if (parent instanceof JComponent) {
+                ((JComponent) parent).revalidate();
+            } else {
+                parent.invalidate();
+            }
+        }
+    }
+}
@@ -4,14 +4,21 @@ import java.awt.Component;
 import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.Insets;
-import java.awt.LayoutManager;
-import java.util.ArrayList;
+import java.awt.LayoutManager2;
+import java.awt.Rectangle;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import javax.swing.JComboBox;
+import javax.swing.JComponent;
 import javax.swing.JLabel;
-import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 /**
  * This layout manager lines up components in 2 columns. All JLabels
@@ -49,11 +56,26 @@ import javax.swing.UIManager;
  * 
  * When there are multiple panels, each panel is given equal width.
  * The width restriction of JLabels and components described above are then
- * dependent on panel width rather than container width.
+ * dependent on panel width rather than container width. <p>
+ *
+ * The pairing of labels with their components and the panels are
+ * indexed once for each container and kept until the container is
+ * invalidated, so a JLabel and the component it is registered with
+ * need not be added one after the other. Only the panels in which
+ * a component has been invalidated, shown or hidden are laid out
+ * again. <p>
+ *
+ * A viewport aware LabelledLayout positions only the rows visible in
+ * an enclosing <code>JViewport</code>, see
+ * {@link #setViewportAware(boolean)}. Rows added with
+ * {@link #getLazyRow(LabelledRowFactory)} only have their label and
+ * component created once they are first shown. The label columns of
+ * several LabelledLayouts can be lined up with a
+ * {@link LabelColumnGroup}.
  *
  * @author Bob Tarling
  */
-public class LabelledLayout implements LayoutManager, java.io.Serializable {
+public class LabelledLayout implements LayoutManager2, java.io.Serializable {
 
     private static final long serialVersionUID = -5596655602155151443L;
 
@@ -81,6 +103,35 @@ public class LabelledLayout implements LayoutManager, java.io.Serializable {
 
     private boolean _ignoreSplitters;
 
+    /**
+     * The group whose label column width is shared, or null.
+     *
+     * @see #setLabelColumnGroup(LabelColumnGroup)
+     */
+    private LabelColumnGroup labelColumnGroup;
+
+    /**
+     * True if only the rows visible in an enclosing viewport are to be
+     * positioned.
+     *
+     * @see #setViewportAware(boolean)
+     */
+    private boolean viewportAware;
+
+    /**
+     * The distance beyond the visible area of a viewport in which rows
+     * are still positioned.
+     *
+     * @see #setViewportMargin(int)
+     */
+    private int viewportMargin;
+
+    /**
+     * The layout state of each container laid out by this layout,
+     * weakly keyed by container.
+     */
+    private transient Map states;
+
     /**
      * Construct a new LabelledLayout.
      */
@@ -120,15 +171,118 @@ public class LabelledLayout implements LayoutManager, java.io.Serializable {
     public void addLayoutComponent(String name, Component comp) {
     }
 
+    /**
+     * Adding a component changes the rows of its container, which are
+     * indexed again when next needed.
+     *
+     * @see java.awt.LayoutManager2#addLayoutComponent(java.awt.Component,
+     * java.lang.Object)
+     */
+    public void addLayoutComponent(Component comp, Object constraints) {
+        childrenChanged(comp.getParent());
+    }
+
     /** 
-     * Removes the specified component with the specified name from
-     * the layout. This is included to satisfy the LayoutManager
-     * interface but is not actually used in this layout
-     * implementation.
+     * Removing a component changes the rows of its container, which
+     * are indexed again when next needed.
      *
-     * @param name the name of the component
+     * @param comp the component to be removed
      */
     public void removeLayoutComponent(Component comp) {
+        Container parent = comp.getParent();
+        childrenChanged(parent);
+        leaveGroupIfReplaced(parent);
+    }
+
+    /**
+     * Discard the index of the rows and sections of a container whose
+     * children have been added or removed, and lay out every section
+     * of it again.
+     */
+    private void childrenChanged(Container parent) {
+        if (parent != null && states != null) {
+            LabelledLayoutState s = (LabelledLayoutState) states.get(parent);
+            if (s != null) {
+                s.stale = true;
+                s.allDirty = true;
+            }
+        }
+    }
+
+    /**
+     * Have the index of the rows and sections of a container checked
+     * before it is next used, so that a change to which components its
+     * labels are registered with is picked up once the container has
+     * been revalidated. The children are only indexed again if that
+     * has changed, and only the sections whose rows then differ, or
+     * whose components have themselves been invalidated, are laid out
+     * again.
+     *
+     * @see java.awt.LayoutManager2#invalidateLayout(java.awt.Container)
+     */
+    public void invalidateLayout(Container target) {
+        if (target != null && states != null) {
+            LabelledLayoutState s = (LabelledLayoutState) states.get(target);
+            if (s != null) {
+                s.unchecked = true;
+            }
+        }
+        leaveGroupIfReplaced(target);
+    }
+
+    /**
+     * Withdraw the label widths of a container from the label column
+     * group if the container is no longer laid out by this layout.
+     */
+    private void leaveGroupIfReplaced(Container parent) {
+        if (labelColumnGroup != null && parent != null
+            && parent.getLayout() != this) {
+            labelColumnGroup.withdraw(parent);
+        }
+    }
+
+    /**
+     * @see java.awt.LayoutManager2#maximumLayoutSize(java.awt.Container)
+     */
+    public Dimension maximumLayoutSize(Container target) {
+        return new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @see java.awt.LayoutManager2#getLayoutAlignmentX(java.awt.Container)
+     */
+    public float getLayoutAlignmentX(Container target) {
+        return (float) 0.5;
+    }
+
+    /**
+     * @see java.awt.LayoutManager2#getLayoutAlignmentY(java.awt.Container)
+     */
+    public float getLayoutAlignmentY(Container target) {
+        return (float) 0.5;
+    }
+
+    /**
+     * Get the layout state kept for a container, indexing its children
+     * if this is the first time the container has been seen or it has
+     * changed since.
+     *
+     * @param parent the container being laid out
+     * @return the layout state of the container
+     */
+    LabelledLayoutState getLayoutState(Container parent) {
+        if (states == null) {
+            states = new WeakHashMap();
+        }
+        LabelledLayoutState s = (LabelledLayoutState) states.get(parent);
+        if (s == null) {
+            s = new LabelledLayoutState();
+            states.put(parent, s);
+        }
+        if (!s.isCurrent(parent)) {
+            s.index(parent, _ignoreSplitters);
+        }
+        return s;
     }
 
     /**
@@ -168,6 +322,10 @@ public class LabelledLayout implements LayoutManager, java.io.Serializable {
                     preferredHeight += childHeight + _vgap;
                 }
             }
+            if (labelColumnGroup != null
+                && labelColumnGroup.getLabelWidth() > widestLabel) {
+                widestLabel = labelColumnGroup.getLabelWidth();
+            }
             preferredWidth += insets.left + widestLabel + insets.right;
             preferredHeight += insets.top + insets.bottom;
             return new Dimension(
@@ -199,7 +357,14 @@ public class LabelledLayout implements LayoutManager, java.io.Serializable {
                     minimumHeight += childHeight + _vgap;
                 }
             }
-            return new Dimension(0, minimumHeight);
+            // The label column of a group is shared, so it cannot
+            // shrink for this container alone
+            int minimumWidth = 0;
+            if (labelColumnGroup != null) {
+                minimumWidth = insets.left + labelColumnGroup.getLabelWidth()
+                    + insets.right;
+            }
+            return new Dimension(minimumWidth, minimumHeight);
         }
     }
 
@@ -208,46 +373,172 @@ public class LabelledLayout implements LayoutManager, java.io.Serializable {
      */
     public void layoutContainer(Container parent) {
         synchronized (parent.getTreeLock()) {
-            int sectionX = parent.getInsets().left;
-
-            ArrayList components = new ArrayList();
-            int sectionCount = getSectionCount(parent);
-            int sectionWidth = getSectionWidth(parent, sectionCount);
-            int sectionNo = 0;
-            for (int i = 0; i < parent.getComponentCount(); ++i) {
-                Component childComp = parent.getComponent(i);
-                if (childComp instanceof Seperator) {
-                    if (!_ignoreSplitters) {
-                        layoutSection(parent, sectionX, sectionWidth, components, sectionNo++);
-                        sectionX += sectionWidth + _hgap;
-                        components.clear();
+            LabelledLayoutState s = getLayoutState(parent);
+            Rectangle view = null;
+            if (viewportAware && parent.getParent() instanceof JViewport) {
+                JViewport viewport = (JViewport) parent.getParent();
+                listenTo(viewport, parent);
+                view = viewport.getViewRect();
+            }
+            Insets insets = parent.getInsets();
+            if (parent.getWidth() != s.laidWidth
+                || parent.getHeight() != s.laidHeight
+                || !insets.equals(s.laidInsets)
+                || s.viewportShown != (view != null)) {
+                s.allDirty = true;
+            }
+            if (s.allDirty && labelColumnGroup != null) {
+                labelColumnGroup.withdraw(parent);
+            }
+            // Measure the sections that have changed before any are
+            // positioned, so that the label column of a group is known
+            for (int sectionNo = 0; sectionNo < s.sectionCount; ++sectionNo) {
+                s.sectionMeasured[sectionNo] =
+                    s.isSectionDirty(parent, sectionNo);
+                if (s.sectionMeasured[sectionNo]) {
+                    s.sectionDirty[sectionNo] = false;
+                    measureSection(parent, s, sectionNo);
+                }
+            }
+            if (labelColumnGroup != null) {
+                labelColumnGroup.publish(parent);
+            }
+            int sectionX = insets.left;
+            int sectionWidth = getSectionWidth(parent, s.sectionCount);
+            for (int sectionNo = 0; sectionNo < s.sectionCount; ++sectionNo) {
+                int columnWidth = labelColumnGroup != null
+                    ? labelColumnGroup.getLabelWidth()
+                    : s.labelWidth[sectionNo];
+                if (s.sectionMeasured[sectionNo]
+                    || s.columnWidth[sectionNo] != columnWidth) {
+                    // Sections that were not measured again are only
+                    // positioned again if their label column changed
+                    s.columnWidth[sectionNo] = columnWidth;
+                    if (view == null) {
+                        positionRows(parent, s, sectionX, sectionWidth,
+                                     sectionNo, s.sectionStart[sectionNo],
+                                     s.sectionStart[sectionNo + 1], false);
+                    } else {
+                        showRows(parent, s, sectionX, sectionWidth,
+                                 sectionNo, view, true, false);
                     }
-                } else {
-                    components.add(parent.getComponent(i));
+                } else if (view != null) {
+                    // The section keeps its bounds but the view may
+                    // have moved
+                    showRows(parent, s, sectionX, sectionWidth,
+                             sectionNo, view, false, false);
                 }
+                sectionX += sectionWidth + _hgap;
             }
-            layoutSection(parent, sectionX, sectionWidth, components, sectionNo);
+            s.allDirty = false;
+            s.laidWidth = parent.getWidth();
+            s.laidHeight = parent.getHeight();
+            s.laidInsets.top = insets.top;
+            s.laidInsets.left = insets.left;
+            s.laidInsets.bottom = insets.bottom;
+            s.laidInsets.right = insets.right;
+            s.viewportShown = view != null;
+            s.created = false;
+            relayoutLater(parent, s);
         }
     }
 
-    /** Determine the number of sections.  There is only ever one
-     * section if oriented vertically.  If oriented horizontally the
-     * number of sections is deduced from the number of Splitters in
-     * the parent container.
+    /**
+     * Respond to the visible area of a viewport changing by
+     * positioning the rows that have been revealed and giving those
+     * that have left it an empty size. The row tops found by the last
+     * layout pass are searched, so nothing is measured again.
+     *
+     * @param parent the container in the viewport
+     * @param viewport the viewport
      */
-    private int getSectionCount(Container parent) {
-        int sectionCount = 1;
-        int componentCount = parent.getComponentCount();
-        if (!_ignoreSplitters) {
-            for (int i = 0; i < componentCount; ++i) {
-                if (parent.getComponent(i) instanceof Seperator) {
-                    ++sectionCount;
+    void viewportChanged(Container parent, JViewport viewport) {
+        synchronized (parent.getTreeLock()) {
+            if (!viewportAware || states == null) {
+                return;
+            }
+            LabelledLayoutState s = (LabelledLayoutState) states.get(parent);
+            if (s == null || !s.viewportShown || !s.isCurrent(parent)) {
+                // A full layout is still to come
+                return;
+            }
+            Rectangle view = viewport.getViewRect();
+            int sectionX = parent.getInsets().left;
+            int sectionWidth = getSectionWidth(parent, s.sectionCount);
+            for (int sectionNo = 0; sectionNo < s.sectionCount; ++sectionNo) {
+                showRows(parent, s, sectionX, sectionWidth,
+                         sectionNo, view, false, true);
+                sectionX += sectionWidth + _hgap;
+            }
+            if (s.created) {
+                // Adding the children of the lazy rows has
+                // invalidated the container
+                s.created = false;
+                s.relayout = true;
+            }
+            relayoutLater(parent, s);
+        }
+    }
+
+    /**
+     * Queue another layout pass of a container if creating lazy rows
+     * found them a different size to the one they were given.
+     *
+     * @param parent the container just laid out
+     * @param s the layout state of the container
+     */
+    private void relayoutLater(Container parent, LabelledLayoutState s) {
+        if (s.relayout) {
+            s.relayout = false;
+            if (!s.relayoutQueued) {
+                s.relayoutQueued = true;
+                SwingUtilities.invokeLater(new Relayout(this, parent));
+            }
+        }
+    }
+
+    /**
+     * Lay out a container again once lazy rows have been created.
+     * Swing components are revalidated, which coalesces any number of
+     * requests into a single layout.
+     *
+     * @param parent the container
+     */
+    void relayout(Container parent) {
+        if (states != null) {
+            LabelledLayoutState s = (LabelledLayoutState) states.get(parent);
+            if (s != null) {
+                s.relayoutQueued = false;
+            }
+        }
+        if (parent instanceof JComponent) {
+            ((JComponent) parent).revalidate();
+        } else {
+            parent.invalidate();
+            parent.validate();
+        }
+    }
+
+    /**
+     * Make sure that the layout hears about changes to the visible
+     * area of the viewport a container is shown in.
+     *
+     * @param viewport the viewport
+     * @param parent the container shown in the viewport
+     */
+    private void listenTo(JViewport viewport, Container parent) {
+        ChangeListener[] listeners = viewport.getChangeListeners();
+        for (int i = 0; i < listeners.length; ++i) {
+            if (listeners[i] instanceof ViewportListener) {
+                ViewportListener listener = (ViewportListener) listeners[i];
+                if (listener.layout == this && listener.view == parent) {
+                    return;
                 }
             }
         }
-        return sectionCount;
+        viewport.addChangeListener(new ViewportListener(this, parent));
     }
-    
+
     /**
      * Determine the width of each section from the section count.
      * This is the working width minus the gaps between sections. This
@@ -268,119 +559,311 @@ public class LabelledLayout implements LayoutManager, java.io.Serializable {
     }
     
     /**
-     * Layout a single section
+     * Measure a single section, finding the label width and the top
+     * and height of every row, proportional rows included.
      */
-    private void layoutSection(
+    private void measureSection(
             Container parent,
-            int sectionX,
-            int sectionWidth,
-            ArrayList components,
+            LabelledLayoutState s,
             int sectionNo) {
-        ArrayList rowHeights = new ArrayList();
-
-        int componentCount = components.size();
-        if (componentCount == 0) {
-            return;
-        }
+        int firstRow = s.sectionStart[sectionNo];
+        int endRow = s.sectionStart[sectionNo + 1];
+        int[] rowHeights = s.rowHeight;
+        int[] rowTops = s.rowTop;
 
         int childWidth, childHeight;
         int labelWidth = 0;
         int unknownHeightCount = 0;
         int totalHeight = 0;
+        int visibleRows = 0;
 
-        // Build up an array list of the heights of each label/component pair.
+        // Find the height of each label/component pair.
         // Heights of zero indicate a proportional height.
-        for (int i = 0; i < componentCount; ++i) {
-            Component childComp = (Component) components.get(i);
-            if (childComp instanceof JLabel) {
+        for (int row = firstRow; row < endRow; ++row) {
+            s.rowShown[row] = s.shownFlags(parent, row);
+            Component childComp = getRowComponent(parent, s, row);
+            if (childComp == null) {
+                rowHeights[row] = -1;
+                continue;
+            }
+            if (childComp instanceof LazyRow) {
+                // Until it is created a lazy row has the estimated
+                // height and no label
+                LazyRow lazyRow = (LazyRow) childComp;
+                if (lazyRow.isLabelShown()) {
+                    childWidth = lazyRow.getLabel().getPreferredSize().width;
+                    if (childWidth > labelWidth) {
+                        labelWidth = childWidth;
+                    }
+                }
+                childHeight = getLazyRowHeight(lazyRow);
+            } else if (childComp instanceof JLabel) {
                 JLabel jlabel = (JLabel) childComp;
-                childComp = jlabel.getLabelFor();
                 childWidth = (int) jlabel.getPreferredSize().getWidth();
                 if (childWidth > labelWidth) {
                     labelWidth = childWidth;
                 }
-                // Start off with the child height being the preferred
-                // height of the label.
-                childHeight = (int) jlabel.getPreferredSize().getHeight();
-
-                if (childComp != null) {
-                    i++;
-                    childHeight = getChildHeight(childComp);
-                    if (childHeight == 0) {
-                        ++unknownHeightCount;
-                    }
+                if (isLabelShown(parent, s, row)) {
+                    childHeight =
+                        getChildHeight(parent.getComponent(s.rowField[row]));
+                } else {
+                    // A label on its own is the height of the label.
+                    childHeight = (int) jlabel.getPreferredSize().getHeight();
                 }
             } else {
                 // to manage the case there are no label/component
                 // pairs but just one component
                 childHeight = getChildHeight(childComp);
-                if (childHeight == 0) {
-                    ++unknownHeightCount;
-                }
             }
-            
+            if (childHeight == 0) {
+                ++unknownHeightCount;
+            }
             totalHeight += childHeight + _vgap;
-            rowHeights.add(new Integer(childHeight));
+            rowHeights[row] = childHeight;
+            ++visibleRows;
+        }
+        s.labelWidth[sectionNo] = labelWidth;
+        if (labelColumnGroup != null) {
+            labelColumnGroup.setLabelWidth(parent, sectionNo, labelWidth);
+        }
+        if (visibleRows == 0) {
+            return;
         }
         totalHeight -= _vgap;
         
         Insets insets = parent.getInsets();
         int parentHeight = parent.getHeight() - (insets.top + insets.bottom);
-        // Set the child components to the heights in the array list
-        // calculating the height of any proportional component on the
-        // fly.  FIXME - This assumes that the JLabel and the
-        // component it labels have been added to the parent component
-        // consecutively.
+        // Give each proportional row its share of the height left over
+        // and accumulate the row tops.
         int y = insets.top;
-        int row = 0;
-        for (int i = 0; i < componentCount; ++i) {
-            Component childComp = (Component) components.get(i);
-            if (childComp.isVisible()) {
-                int rowHeight;
-                int componentWidth = sectionWidth;
-                int componentX = sectionX;
-                // If the component is a JLabel which has another
-                // component assigned then position/size the label and
-                // calculate the size of the registered component
-                if (childComp instanceof JLabel && ((JLabel) childComp).getLabelFor() != null) {
-                    i++; // Assumes the next child is the labelled component (could be improved)
-                    JLabel jlabel = (JLabel) childComp;
-                    childComp = jlabel.getLabelFor();
-                    jlabel.setBounds(sectionX, y, labelWidth,
-				     (int)
-				     jlabel.getPreferredSize().getHeight());
-                    componentWidth = sectionWidth - (labelWidth + _hgap);
-                    componentX = sectionX + labelWidth + _hgap;
-                }
-                rowHeight = ((Integer) rowHeights.get(row)).intValue();
-                if (rowHeight == 0) {
-                    try {
-                        rowHeight = calculateHeight(parentHeight, totalHeight, unknownHeightCount--, childComp);
-                    } catch(ArithmeticException e) {
-                        // We should put the exception as second parameter when we use JDK 1.5 exclusively
-                        throw new IllegalStateException(
-                                "Division by zero laying out " + childComp.getClass().getName() +
-                                " on " + parent.getClass().getName() +
-                                " in section " + sectionNo +
-                                " using " + UIManager.getLookAndFeel().getClass().getName() + ":" + e.getMessage());                        
-                    }
-                    totalHeight += rowHeight;
+        for (int row = firstRow; row < endRow; ++row) {
+            rowTops[row] = y;
+            int rowHeight = rowHeights[row];
+            if (rowHeight < 0) {
+                continue;
+            }
+            if (rowHeight == 0) {
+                Component childComp = parent.getComponent(s.rowField[row]);
+                try {
+                    rowHeight = calculateHeight(parentHeight, totalHeight, unknownHeightCount--, childComp);
+                } catch(ArithmeticException e) {
+                    // We should put the exception as second parameter when we use JDK 1.5 exclusively
+                    throw new IllegalStateException(
+                            "Division by zero laying out " + childComp.getClass().getName() +
+                            " on " + parent.getClass().getName() +
+                            " in section " + sectionNo +
+                            " using " + UIManager.getLookAndFeel().getClass().getName() + ":" + e.getMessage());                        
                 }
-                // Make sure the component width isn't any greater
-                // than its maximum allowed width
-                if (childComp.getMaximumSize() != null
-		    && childComp.getMaximumSize().getWidth() < componentWidth)
-		{
-		    componentWidth =
-			(int) childComp.getMaximumSize().getWidth();
+                totalHeight += rowHeight;
+                rowHeights[row] = rowHeight;
+            }
+            y += rowHeight + _vgap;
+        }
+    }
+
+    /**
+     * Position the rows of a section that are within the visible area
+     * of a viewport, plus the viewport margin, and give an empty size
+     * to those that are not. The rows are found by a binary search of
+     * the row tops.
+     *
+     * @param all true after a layout pass, when every row of the
+     * section is positioned or parked, or false when only the rows
+     * that have entered or left the visible area are
+     * @param scrolled true if only the visible area has changed, so no
+     * layout pass follows to validate the rows revealed
+     */
+    private void showRows(
+            Container parent,
+            LabelledLayoutState s,
+            int sectionX,
+            int sectionWidth,
+            int sectionNo,
+            Rectangle view,
+            boolean all,
+            boolean scrolled) {
+        int firstRow = s.sectionStart[sectionNo];
+        int endRow = s.sectionStart[sectionNo + 1];
+        int from = s.firstRowBelow(firstRow, endRow,
+                                   view.y - viewportMargin);
+        int to = s.firstRowFrom(from, endRow,
+                                view.y + view.height + viewportMargin);
+        if (all) {
+            parkRows(parent, s, sectionX, firstRow, from);
+            parkRows(parent, s, sectionX, to, endRow);
+            positionRows(parent, s, sectionX, sectionWidth,
+                         sectionNo, from, to, scrolled);
+        } else {
+            int shownFrom = s.shownFrom[sectionNo];
+            int shownTo = s.shownTo[sectionNo];
+            parkRows(parent, s, sectionX,
+                     shownFrom, Math.min(shownTo, from));
+            parkRows(parent, s, sectionX,
+                     Math.max(shownFrom, to), shownTo);
+            positionRows(parent, s, sectionX, sectionWidth,
+                         sectionNo, from, Math.min(to, shownFrom),
+                         scrolled);
+            positionRows(parent, s, sectionX, sectionWidth,
+                         sectionNo, Math.max(from, shownTo), to,
+                         scrolled);
+        }
+        s.shownFrom[sectionNo] = from;
+        s.shownTo[sectionNo] = to;
+    }
+
+    /**
+     * Position and size the label and component of a range of rows of
+     * a section at the row tops and heights found by the last layout
+     * pass.
+     *
+     * @param validate true if the components positioned are to be
+     * validated, as no layout pass follows
+     */
+    private void positionRows(
+            Container parent,
+            LabelledLayoutState s,
+            int sectionX,
+            int sectionWidth,
+            int sectionNo,
+            int from,
+            int to,
+            boolean validate) {
+        int labelWidth = s.columnWidth[sectionNo];
+        for (int row = from; row < to; ++row) {
+            int rowHeight = s.rowHeight[row];
+            if (rowHeight < 0) {
+                continue;
+            }
+            int y = s.rowTop[row];
+            Component childComp = getRowComponent(parent, s, row);
+            if (childComp instanceof LazyRow) {
+                positionLazyRow(s, (LazyRow) childComp, sectionX,
+                                sectionWidth, sectionNo, y, rowHeight);
+                if (validate) {
+                    GridLayout2.validateRevealed(childComp);
                 }
-                childComp.setBounds(componentX, y, componentWidth, rowHeight);
-                y += rowHeight + _vgap;
-                ++row;
+                continue;
+            }
+            int componentWidth = sectionWidth;
+            int componentX = sectionX;
+            // If the component is a JLabel which has another
+            // component assigned then position/size the label and
+            // calculate the size of the registered component
+            if (isLabelShown(parent, s, row)) {
+                JLabel jlabel = (JLabel) childComp;
+                childComp = parent.getComponent(s.rowField[row]);
+                jlabel.setBounds(sectionX, y, labelWidth,
+                                 (int)
+                                 jlabel.getPreferredSize().getHeight());
+                componentWidth = sectionWidth - (labelWidth + _hgap);
+                componentX = sectionX + labelWidth + _hgap;
+            }
+            // Make sure the component width isn't any greater
+            // than its maximum allowed width
+            if (childComp.getMaximumSize() != null
+                && childComp.getMaximumSize().getWidth() < componentWidth)
+            {
+                componentWidth =
+                    (int) childComp.getMaximumSize().getWidth();
+            }
+            childComp.setBounds(componentX, y, componentWidth, rowHeight);
+            if (validate) {
+                GridLayout2.validateRevealed(childComp);
             }
         }
     }
+
+    /**
+     * Position a lazy row, creating its label and component if this is
+     * the first time it is shown. Should the row then need a different
+     * height or a wider label column than it was given, its section is
+     * laid out again by another layout pass.
+     */
+    private void positionLazyRow(
+            LabelledLayoutState s,
+            LazyRow lazyRow,
+            int sectionX,
+            int sectionWidth,
+            int sectionNo,
+            int y,
+            int rowHeight) {
+        int labelWidth = s.columnWidth[sectionNo];
+        if (!lazyRow.isCreated()) {
+            lazyRow.create();
+            s.created = true;
+            if (getLazyRowHeight(lazyRow) != rowHeight
+                || (lazyRow.isLabelShown()
+                    && lazyRow.getLabel().getPreferredSize().width
+                        > labelWidth)) {
+                s.sectionDirty[sectionNo] = true;
+                s.relayout = true;
+            }
+        }
+        lazyRow.setLabelColumn(labelWidth, _hgap);
+        lazyRow.setBounds(sectionX, y, sectionWidth, rowHeight);
+        lazyRow.doLayout();
+    }
+
+    /**
+     * Give the label and component of a range of rows an empty size
+     * at the start of their row.
+     */
+    private void parkRows(
+            Container parent,
+            LabelledLayoutState s,
+            int sectionX,
+            int from,
+            int to) {
+        for (int row = from; row < to; ++row) {
+            if (s.rowHeight[row] < 0) {
+                continue;
+            }
+            int y = s.rowTop[row];
+            if (s.rowLabel[row] >= 0) {
+                parent.getComponent(s.rowLabel[row])
+                    .setBounds(sectionX, y, 0, 0);
+            }
+            parent.getComponent(s.rowField[row]).setBounds(sectionX, y, 0, 0);
+        }
+    }
+
+    /**
+     * Get the component that starts a row, which is its label if the
+     * label is visible. A row whose label is hidden is shown as its
+     * registered component alone, if that is visible.
+     *
+     * @return the component, or null if the row shows nothing
+     */
+    private Component getRowComponent(Container parent,
+                                      LabelledLayoutState s, int row) {
+        if (isLabelShown(parent, s, row)) {
+            return parent.getComponent(s.rowLabel[row]);
+        }
+        Component comp = parent.getComponent(s.rowField[row]);
+        return comp.isVisible() ? comp : null;
+    }
+
+    /**
+     * @return true if a row pairs a label with its registered
+     * component and the label is visible
+     */
+    private boolean isLabelShown(Container parent, LabelledLayoutState s,
+                                 int row) {
+        return s.rowLabel[row] >= 0
+            && parent.getComponent(s.rowLabel[row]).isVisible();
+    }
     
+    /**
+     * The height of a lazy row, which until it is created is the
+     * estimated height and is then found from its component.
+     */
+    private int getLazyRowHeight(LazyRow lazyRow) {
+        if (lazyRow.isCreated()) {
+            return getChildHeight(lazyRow.getField());
+        }
+        return getChildHeight(lazyRow);
+    }
+
     private int getChildHeight(Component childComp) {
         if (isResizable(childComp)) {
             // If the child component is resizable then
@@ -430,6 +913,18 @@ public class LabelledLayout implements LayoutManager, java.io.Serializable {
         return new Seperator();
     }
 
+    /**
+     * Create a row whose label and component are only created by a
+     * factory when the row is first shown, and which has the estimated
+     * height of the factory until then.
+     *
+     * @param factory the factory creating the label and component
+     * @return the row to add to the container
+     */
+    public static Component getLazyRow(LabelledRowFactory factory) {
+        return new LazyRow(factory);
+    }
+
     public int getHgap() {
         return _hgap;
     }
@@ -445,13 +940,125 @@ public class LabelledLayout implements LayoutManager, java.io.Serializable {
     public void setVgap(int vgap) {
         _vgap = vgap;
     }
-}
 
-class Seperator extends JPanel {
-    
-    private static final long serialVersionUID = -4143634500959911688L;
+    /**
+     * @return the group whose label column width this layout shares,
+     * or null if it has a label column of its own
+     */
+    public LabelColumnGroup getLabelColumnGroup() {
+        return labelColumnGroup;
+    }
+
+    /**
+     * Share the width of the label column with the other layouts of a
+     * group, so that the labels of stacked panels line up. Every
+     * section of every container of the group is given the width of
+     * the widest label in the group. The containers laid out by this
+     * layout must be revalidated after the group is changed.
+     *
+     * @param group the group to join, or null to leave the group
+     */
+    public void setLabelColumnGroup(LabelColumnGroup group) {
+        if (states != null) {
+            Iterator it = states.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry entry = (Map.Entry) it.next();
+                if (labelColumnGroup != null) {
+                    labelColumnGroup.withdraw((Container) entry.getKey());
+                }
+                ((LabelledLayoutState) entry.getValue()).allDirty = true;
+            }
+        }
+        labelColumnGroup = group;
+    }
+
+    /**
+     * @return true if only rows visible in an enclosing viewport are
+     * positioned
+     */
+    public boolean isViewportAware() {
+        return viewportAware;
+    }
 
-    Seperator() {
-        super.setVisible(false);
+    /**
+     * Set whether only the rows visible in an enclosing viewport are
+     * to be positioned. <p>
+     *
+     * This is intended for property panels of very large model
+     * elements shown in a <code>JScrollPane</code>. The tops of the
+     * rows are found once by each layout pass, and scrolling then
+     * positions only the rows that come into view, plus the viewport
+     * margin, giving the others an empty size. A container that is not
+     * the view of a <code>JViewport</code> has all its rows positioned
+     * as usual.
+     *
+     * @param va true to position only visible rows
+     */
+    public void setViewportAware(boolean va) {
+        this.viewportAware = va;
+    }
+
+    /**
+     * @return the distance beyond the visible area in which rows are
+     * positioned
+     */
+    public int getViewportMargin() {
+        return viewportMargin;
+    }
+
+    /**
+     * @param vm the distance in pixels beyond the visible area of a
+     * viewport in which rows are still positioned
+     */
+    public void setViewportMargin(int vm) {
+        this.viewportMargin = vm;
+    }
+
+    /**
+     * Hears about changes to the visible area of a viewport showing a
+     * container laid out by a viewport aware LabelledLayout, and stops
+     * listening once the container is no longer shown or laid out by
+     * that layout.
+     */
+    private static class ViewportListener implements ChangeListener {
+        private final LabelledLayout layout;
+        private final Container view;
+
+        ViewportListener(LabelledLayout theLayout, Container theView) {
+            layout = theLayout;
+            view = theView;
+        }
+
+        /**
+         * @see javax.swing.event.ChangeListener#stateChanged(javax.swing.event.ChangeEvent)
+         */
+        public void stateChanged(ChangeEvent e) {
+            JViewport viewport = (JViewport) e.getSource();
+            if (viewport.getView() != view || view.getLayout() != layout) {
+                viewport.removeChangeListener(this);
+                return;
+            }
+            layout.viewportChanged(view, viewport);
+        }
+    }
+
+    /**
+     * Lays out a container again once lazy rows have been created.
+     */
+    private static class Relayout implements Runnable {
+        private final LabelledLayout layout;
+        private final Container parent;
+
+        Relayout(LabelledLayout theLayout, Container theParent) {
+            layout = theLayout;
+            parent = theParent;
+        }
+
+        /**
+         * @see java.lang.Runnable#run()
+         */
+        public void run() {
+            layout.relayout(parent);
+        }
     }
 }
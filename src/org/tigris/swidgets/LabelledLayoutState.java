@@ -0,0 +1,450 @@
+// $Id$
+
+package org.tigris.swidgets;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Insets;
+
+import javax.swing.JLabel;
+
+/**
+ * The layout state that a {@link LabelledLayout} keeps for each
+ * container it lays out. <p>
+ *
+ * The children are indexed once into rows and sections held in
+ * primitive arrays. A row is either a label together with the
+ * component it is registered with, wherever that component is in the
+ * container, or a single component. Sections are delimited by
+ * Seperator children. The index is kept until children are added or
+ * removed, or a check after the container has been invalidated finds
+ * a child moved or a label registered with another component. The
+ * arrays are reused, only ever growing, so that laying out the
+ * container does not allocate. <p>
+ *
+ * The rows are measured a section at a time, and a section is only
+ * laid out again if something in it has changed, so the other
+ * sections keep their bounds.
+ */
+class LabelledLayoutState {
+
+    /**
+     * True if the children must be indexed again before use.
+     */
+    boolean stale = true;
+
+    /**
+     * True if the container has been invalidated since the index was
+     * last found to still hold.
+     */
+    boolean unchecked;
+
+    /**
+     * The number of children when they were indexed.
+     */
+    int count;
+
+    /**
+     * True if every section must be laid out again, as children have
+     * been added or removed or the container has changed size since
+     * the last layout pass.
+     */
+    boolean allDirty = true;
+
+    /**
+     * True for each section whose rows have changed since the last
+     * layout pass.
+     */
+    boolean[] sectionDirty = new boolean[0];
+
+    /**
+     * The width, height and insets of the container at the last layout
+     * pass.
+     */
+    int laidWidth = -1;
+    int laidHeight = -1;
+    final Insets laidInsets = new Insets(0, 0, 0, 0);
+
+    /**
+     * The number of rows.
+     */
+    int rowCount;
+
+    /**
+     * The index of the label of each row, or -1 for a row holding a
+     * single component.
+     */
+    int[] rowLabel = new int[0];
+
+    /**
+     * The index of the component of each row, which is the component
+     * the label is registered with or the single component.
+     */
+    int[] rowField = new int[0];
+
+    /**
+     * The number of sections.
+     */
+    int sectionCount;
+
+    /**
+     * The first row of each section, followed by the number of rows.
+     */
+    int[] sectionStart = new int[0];
+
+    /**
+     * The height of each row, worked out afresh by each layout pass.
+     * While the rows are measured a height of zero marks a
+     * proportional row, which is then given its share of the left over
+     * height. A height of -1 marks a row with nothing visible.
+     */
+    int[] rowHeight = new int[0];
+
+    /**
+     * The top of each row found by the last layout pass. A row with
+     * nothing visible has the top of the row that follows it, so that
+     * the bottoms of the rows of a section never decrease.
+     */
+    int[] rowTop = new int[0];
+
+    /**
+     * Which of the label and component of each row were visible at
+     * the last layout pass, see {@link #shownFlags(Container, int)}.
+     */
+    int[] rowShown = new int[0];
+
+    /**
+     * The width given to the labels of each section by the last layout
+     * pass.
+     */
+    int[] labelWidth = new int[0];
+
+    /**
+     * The width of the label column each section was last positioned
+     * with, which is either its own label width or that of its label
+     * column group.
+     */
+    int[] columnWidth = new int[0];
+
+    /**
+     * True for each section measured again by the current layout pass.
+     */
+    boolean[] sectionMeasured = new boolean[0];
+
+    /**
+     * True if the last layout pass only positioned the rows visible in
+     * a viewport, the range of which in each section follows.
+     */
+    boolean viewportShown;
+
+    /**
+     * True if lazy rows were created while positioning rows.
+     */
+    boolean created;
+
+    /**
+     * True if another layout pass is needed because lazy rows were
+     * created, and true while that layout pass is queued.
+     */
+    boolean relayout;
+    boolean relayoutQueued;
+
+    /**
+     * The first row of each section positioned for the viewport.
+     */
+    int[] shownFrom = new int[0];
+
+    /**
+     * The row after the last of each section positioned for the
+     * viewport.
+     */
+    int[] shownTo = new int[0];
+
+    /**
+     * The children as they were indexed.
+     */
+    private final ChildSnapshot children = new ChildSnapshot();
+
+    /**
+     * The index of the child each label child was registered with
+     * when indexed, or -1 if it was not registered with a child of the
+     * container. Not used for other children.
+     */
+    private int[] labelTarget = new int[0];
+
+    /**
+     * The index of the label each child is registered with, or -1 if
+     * it is not labelled by a label in the container. Only used while
+     * indexing.
+     */
+    private int[] labelOf = new int[0];
+
+    /**
+     * Maps the identity hash of each child to its index. Only used
+     * while indexing.
+     */
+    private final IntIntMap childIndex = new IntIntMap();
+
+    /**
+     * Index the children of a container into rows and sections. A
+     * label registered with another child of the container takes
+     * that child into its own row, so the two need not be added to
+     * the container one after the other. Should a child be registered
+     * with more than one label only the first label is paired with it.
+     *
+     * @param parent the container
+     * @param ignoreSplitters true if Seperator children do not start a
+     * new section
+     */
+    void index(Container parent, boolean ignoreSplitters) {
+        int n = parent.getComponentCount();
+        count = n;
+        stale = false;
+        unchecked = false;
+        children.ensure(n);
+        labelTarget = GridLayoutState.ensure(labelTarget, n);
+        labelOf = GridLayoutState.ensure(labelOf, n);
+        rowLabel = GridLayoutState.ensure(rowLabel, n);
+        rowField = GridLayoutState.ensure(rowField, n);
+        rowHeight = GridLayoutState.ensure(rowHeight, n);
+        rowTop = GridLayoutState.ensure(rowTop, n);
+        rowShown = GridLayoutState.ensure(rowShown, n);
+
+        childIndex.clear();
+        int separators = 0;
+        for (int i = 0; i < n; ++i) {
+            Component comp = parent.getComponent(i);
+            children.set(i, comp);
+            childIndex.put(identity(comp), i);
+            labelOf[i] = -1;
+            if (comp instanceof Seperator) {
+                ++separators;
+            }
+        }
+        for (int i = 0; i < n; ++i) {
+            Component comp = parent.getComponent(i);
+            if (comp instanceof JLabel) {
+                int j = indexOf(parent, ((JLabel) comp).getLabelFor());
+                labelTarget[i] = j;
+                if (j >= 0 && j != i && labelOf[j] < 0) {
+                    labelOf[j] = i;
+                }
+            }
+        }
+
+        int newSectionCount = ignoreSplitters ? 1 : separators + 1;
+        if (newSectionCount != sectionCount) {
+            allDirty = true;
+        }
+        sectionCount = newSectionCount;
+        sectionStart = GridLayoutState.ensure(sectionStart,
+                                              sectionCount + 1);
+        sectionDirty = GridLayoutState.ensure(sectionDirty, sectionCount);
+        labelWidth = GridLayoutState.ensure(labelWidth, sectionCount);
+        columnWidth = GridLayoutState.ensure(columnWidth, sectionCount);
+        sectionMeasured = GridLayoutState.ensure(sectionMeasured,
+                                                 sectionCount);
+        shownFrom = GridLayoutState.ensure(shownFrom, sectionCount);
+        shownTo = GridLayoutState.ensure(shownTo, sectionCount);
+        // A section is only marked dirty if its rows are not the same
+        // as when it was last laid out.
+        int section = 0;
+        int row = 0;
+        boolean changed = false;
+        sectionStart[0] = 0;
+        for (int i = 0; i < n; ++i) {
+            Component comp = parent.getComponent(i);
+            if (comp instanceof Seperator) {
+                if (!ignoreSplitters) {
+                    sectionDirty[section] |= changed;
+                    ++section;
+                    changed = sectionStart[section] != row;
+                    sectionStart[section] = row;
+                }
+            } else if (labelOf[i] < 0) {
+                // Not taken into the row of a label, so starts a row
+                int field = -1;
+                if (comp instanceof JLabel) {
+                    field = indexOf(parent, ((JLabel) comp).getLabelFor());
+                }
+                int label = -1;
+                if (field >= 0 && labelOf[field] == i) {
+                    label = i;
+                } else {
+                    field = i;
+                }
+                if (row >= rowCount
+                    || rowLabel[row] != label || rowField[row] != field) {
+                    changed = true;
+                }
+                rowLabel[row] = label;
+                rowField[row] = field;
+                ++row;
+            }
+        }
+        if (sectionStart[sectionCount] != row) {
+            changed = true;
+        }
+        sectionDirty[section] |= changed;
+        rowCount = row;
+        sectionStart[sectionCount] = row;
+    }
+
+    /**
+     * Check whether the index still holds. Once the container has been
+     * invalidated every child is checked to be where it was indexed
+     * and every label to be registered with the same component as
+     * then. Nothing is hashed, so this is much cheaper than indexing
+     * the children again, and it is only done once for each time the
+     * container is invalidated.
+     *
+     * @param parent the container
+     * @return false if the children must be indexed again
+     */
+    boolean isCurrent(Container parent) {
+        if (stale || count != parent.getComponentCount()) {
+            return false;
+        }
+        if (!unchecked) {
+            return true;
+        }
+        for (int i = 0; i < count; ++i) {
+            Component comp = parent.getComponent(i);
+            if (!children.is(i, comp)) {
+                stale = true;
+                return false;
+            }
+            if (comp instanceof JLabel) {
+                Component target = ((JLabel) comp).getLabelFor();
+                int j = labelTarget[i];
+                if (j >= 0
+                    ? target != parent.getComponent(j)
+                    : target != null && target.getParent() == parent) {
+                    stale = true;
+                    return false;
+                }
+            }
+        }
+        unchecked = false;
+        return true;
+    }
+
+    /**
+     * Find which of the label and component of a row are visible.
+     *
+     * @param parent the container
+     * @param row the row
+     * @return 1 if the row has a visible label, plus 2 if its component
+     * is visible
+     */
+    int shownFlags(Container parent, int row) {
+        int flags = 0;
+        if (rowLabel[row] >= 0
+            && parent.getComponent(rowLabel[row]).isVisible()) {
+            flags = 1;
+        }
+        if (parent.getComponent(rowField[row]).isVisible()) {
+            flags |= 2;
+        }
+        return flags;
+    }
+
+    /**
+     * Find whether a section must be laid out again. That is so if its
+     * rows have changed, if a label or component in it has been
+     * invalidated or if one has been shown or hidden since the last
+     * layout pass.
+     *
+     * @param parent the container
+     * @param sectionNo the section
+     * @return true if the section must be laid out again
+     */
+    boolean isSectionDirty(Container parent, int sectionNo) {
+        if (allDirty || sectionDirty[sectionNo]) {
+            return true;
+        }
+        int end = sectionStart[sectionNo + 1];
+        for (int row = sectionStart[sectionNo]; row < end; ++row) {
+            if (rowShown[row] != shownFlags(parent, row)
+                || !parent.getComponent(rowField[row]).isValid()
+                || (rowLabel[row] >= 0
+                    && !parent.getComponent(rowLabel[row]).isValid())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the first row of a section whose bottom is below a given
+     * position, by a binary search of the row tops and heights found
+     * by the last layout pass.
+     *
+     * @param from the first row to search
+     * @param to the row after the last to search
+     * @param y the position
+     * @return the row, or <code>to</code> if no row reaches below
+     */
+    int firstRowBelow(int from, int to, int y) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (rowTop[mid] + Math.max(rowHeight[mid], 0) > y) {
+                to = mid;
+            } else {
+                from = mid + 1;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Find the first row of a section whose top is at or below a given
+     * position.
+     *
+     * @param from the first row to search
+     * @param to the row after the last to search
+     * @param y the position
+     * @return the row, or <code>to</code> if every row starts above
+     */
+    int firstRowFrom(int from, int to, int y) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (rowTop[mid] >= y) {
+                to = mid;
+            } else {
+                from = mid + 1;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Find the index of a component in a container.
+     *
+     * @return the index, or -1 if the component is not a child of the
+     * container
+     */
+    private int indexOf(Container parent, Component comp) {
+        if (comp == null || comp.getParent() != parent) {
+            return -1;
+        }
+        int i = childIndex.get(identity(comp));
+        if (i >= 0 && parent.getComponent(i) == comp) {
+            return i;
+        }
+        // Another child has the same identity hash
+        for (i = 0; i < count; ++i) {
+            if (parent.getComponent(i) == comp) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The identity hash of a component as a non negative key.
+     */
+    private static int identity(Component comp) {
+        return System.identityHashCode(comp) & 0x7fffffff;
+    }
+}
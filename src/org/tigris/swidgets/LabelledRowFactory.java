@@ -0,0 +1,47 @@
+// $Id$
+
+package org.tigris.swidgets;
+
+import java.awt.Component;
+
+import javax.swing.JLabel;
+
+/**
+ * Creates the label and component of a row of a container laid out by
+ * a {@link LabelledLayout} when the row is first shown. <p>
+ *
+ * A lazy row, see {@link LabelledLayout#getLazyRow(LabelledRowFactory)},
+ * is given the estimated height until its components are created.
+ * With a viewport aware LabelledLayout that happens when the row is
+ * first scrolled into view, and a lazy row that is not visible is
+ * never created. <p>
+ *
+ * The components of a row are created once and then kept by the row,
+ * so a panel built of lazy rows can be kept for a type of element and
+ * reused for every element of that type which is selected. A factory
+ * keeps no state about the rows it has created, so one factory may
+ * serve the same row of any number of panels.
+ */
+public interface LabelledRowFactory {
+
+    /**
+     * @return the height a row is given until its components are
+     * created, which should be greater than zero
+     */
+    public int getEstimatedHeight();
+
+    /**
+     * Create the label of the row.
+     *
+     * @return the label, or null for a row holding a single component
+     */
+    public JLabel createLabel();
+
+    /**
+     * Create the component of the row. The label of the row is
+     * registered with the component created.
+     *
+     * @return the component
+     */
+    public Component createComponent();
+}
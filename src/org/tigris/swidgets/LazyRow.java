@@ -0,0 +1,168 @@
+// $Id$
+
+package org.tigris.swidgets;
+
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.LayoutManager;
+
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+
+/**
+ * A row of a container laid out by a {@link LabelledLayout} whose
+ * label and component are created by a {@link LabelledRowFactory} when
+ * the row is first positioned. <p>
+ *
+ * Until then the row has the estimated height of the factory. Once
+ * created the label and component are children of the row. The
+ * LabelledLayout tells the row how wide its label column is, so the
+ * label lines up with the labels of the other rows, and the row
+ * positions its children within its own bounds.
+ */
+class LazyRow extends JPanel {
+
+    private static final long serialVersionUID = 2904315572634167183L;
+
+    private final LabelledRowFactory factory;
+
+    private JLabel label;
+    private Component field;
+
+    /**
+     * The width of the label column and the gap after it.
+     */
+    private int labelWidth;
+    private int hgap;
+
+    /**
+     * The constructor.
+     *
+     * @param f the factory creating the label and component
+     */
+    LazyRow(LabelledRowFactory f) {
+        super((LayoutManager) null);
+        factory = f;
+        setOpaque(false);
+    }
+
+    /**
+     * @return true if the label and component have been created
+     */
+    boolean isCreated() {
+        return field != null;
+    }
+
+    /**
+     * Create the label and component of the row, unless they already
+     * have been.
+     */
+    void create() {
+        if (field != null) {
+            return;
+        }
+        label = factory.createLabel();
+        field = factory.createComponent();
+        if (label != null) {
+            label.setLabelFor(field);
+            add(label);
+        }
+        add(field);
+    }
+
+    /**
+     * @return the label of the row, or null if there is none or it has
+     * not been created
+     */
+    JLabel getLabel() {
+        return label;
+    }
+
+    /**
+     * @return the component of the row, or null if it has not been
+     * created
+     */
+    Component getField() {
+        return field;
+    }
+
+    /**
+     * @return true if the row has been created with a visible label
+     */
+    boolean isLabelShown() {
+        return label != null && label.isVisible();
+    }
+
+    /**
+     * Set the label column the row lines its label up with.
+     *
+     * @param width the width of the label column
+     * @param gap the gap between the label and the component
+     */
+    void setLabelColumn(int width, int gap) {
+        labelWidth = width;
+        hgap = gap;
+    }
+
+    /**
+     * The preferred size is that of the label and component side by
+     * side, or the estimated height if they are not yet created.
+     *
+     * @see javax.swing.JComponent#getPreferredSize()
+     */
+    public Dimension getPreferredSize() {
+        if (field == null) {
+            return new Dimension(0, factory.getEstimatedHeight());
+        }
+        Dimension size = field.getPreferredSize();
+        return new Dimension(getLabelExtent() + size.width, size.height);
+    }
+
+    /**
+     * The minimum size is that of the component after the label, so
+     * that the row resizes as the component would.
+     *
+     * @see javax.swing.JComponent#getMinimumSize()
+     */
+    public Dimension getMinimumSize() {
+        if (field == null) {
+            return new Dimension(0, factory.getEstimatedHeight());
+        }
+        Dimension size = field.getMinimumSize();
+        return new Dimension(getLabelExtent() + size.width, size.height);
+    }
+
+    /**
+     * The width taken by a visible label and the gap after it.
+     */
+    private int getLabelExtent() {
+        if (!isLabelShown()) {
+            return 0;
+        }
+        return label.getPreferredSize().width + hgap;
+    }
+
+    /**
+     * Position the label in the label column and give the component
+     * the rest of the row, no wider than its maximum width.
+     *
+     * @see java.awt.Container#doLayout()
+     */
+    public void doLayout() {
+        if (field == null) {
+            return;
+        }
+        int componentX = 0;
+        if (isLabelShown()) {
+            label.setBounds(0, 0, labelWidth,
+                            label.getPreferredSize().height);
+            componentX = labelWidth + hgap;
+        }
+        int componentWidth = getWidth() - componentX;
+        Dimension maximum = field.getMaximumSize();
+        if (maximum != null && maximum.width < componentWidth) {
+            componentWidth = maximum.width;
+        }
+        field.setBounds(componentX, 0, componentWidth, getHeight());
+    }
+}
@@ -9,6 +9,7 @@ import java.awt.Insets;
 import java.awt.Rectangle;
 
 import javax.swing.JComponent;
+import javax.swing.JViewport;
 
 /**
  * Similar to {@link GridLayout2} but once the components fill
@@ -16,17 +17,29 @@ import javax.swing.JComponent;
  * right until the full width of the container is filled. Once the
  * containers width is full it flows to the right no more, the grid
  * depths increase instead so that the user scrolls up/down instead of
- * left/right.
+ * left/right. <p>
+ *
+ * When viewport aware only the children within the visible area of an
+ * enclosing viewport, plus the viewport margin, are positioned, the
+ * others being parked. Scrolling then positions only the children of
+ * the rows and newspaper columns revealed. <p>
+ *
+ * Children appended to the end, as to a log that keeps growing, are
+ * measured and positioned on their own. They extend the last newspaper
+ * column, or flow into new ones, and the columns are only worked out
+ * again from the start once the appended rows overflow them.
  *
  * @author Bob Tarling
  */
 public class NewspaperLayout extends GridLayout2 {
 
     private int gridGap = 0;
-    private int preferredX;
-    private int preferredY;
 
-    private int gridWidth;
+    /**
+     * True if rows that need more newspaper columns than fit are
+     * shared out so the tallest column is as short as it can be.
+     */
+    private boolean balanced;
 
     /**
      * The constructor.
@@ -61,30 +74,24 @@ public class NewspaperLayout extends GridLayout2 {
     }
 
     /**
-     * @see java.awt.LayoutManager#addLayoutComponent(java.lang.String, 
-     * java.awt.Component)
-     */
-    public void addLayoutComponent(String name, Component comp) {
-    }
-
-    /**
-     * @see java.awt.LayoutManager#removeLayoutComponent(java.awt.Component)
-     */
-    public void removeLayoutComponent(Component comp) {
-    }
-
-    /**
+     * The preferred size is worked out from the columns and rows alone,
+     * without positioning any children, and kept until the children or
+     * the visible area change.
+     *
      * @see java.awt.LayoutManager#preferredLayoutSize(java.awt.Container)
      */
     public Dimension preferredLayoutSize(Container parent) {
-        JComponent comp = (JComponent) parent;
-        Rectangle rect = comp.getVisibleRect();
-        //preferredX = (int) rect.getWidth();
-        Insets insets = parent.getInsets();
-        layoutContainer(parent);
-        if (preferredX < insets.right + gridWidth + insets.left)
-	    preferredX = insets.right + gridWidth + insets.left;
-        return new Dimension(preferredX, preferredY);
+        synchronized (parent.getTreeLock()) {
+            Insets insets = parent.getInsets();
+            NewspaperState s = (NewspaperState) getLayoutState(parent);
+            if (parent.getComponentCount() > 0) {
+                measure(parent);
+                findColumns(parent, s);
+            }
+            if (s.preferredX < insets.right + s.gridWidth + insets.left)
+                s.preferredX = insets.right + s.gridWidth + insets.left;
+            return new Dimension(s.preferredX, s.preferredY);
+        }
     }
 
     /**
@@ -92,11 +99,11 @@ public class NewspaperLayout extends GridLayout2 {
      */
     public Dimension minimumLayoutSize(Container parent) {
         Insets insets = parent.getInsets();
-        return new Dimension(insets.right + gridWidth + insets.left, 0);
+        NewspaperState s = (NewspaperState) getLayoutState(parent);
+        return new Dimension(insets.right + s.gridWidth + insets.left, 0);
     }
 
     /**
-     * TODO: This is never used, and not part of the interface LayoutContainer.
      * @param parent the container
      * @return the dimension
      */
@@ -113,170 +120,738 @@ public class NewspaperLayout extends GridLayout2 {
             if (ncomponents == 0) {
                 return;
             }
+            NewspaperState s = (NewspaperState) measure(parent);
+            findColumns(parent, s);
             Insets insets = parent.getInsets();
-            int nrows = this.getRows();
-            int ncols = this.getColumns();
-
-            if (nrows > 0) {
-                ncols = (ncomponents + nrows - 1) / nrows;
-            } else {
-                nrows = (ncomponents + ncols - 1) / ncols;
-            }
-
-            // Determine the width for each column and the height for each row.
-            setColWidth(new int[ncols]);
-            setRowHeight(new int[nrows]);
-            setLargestWidth(0);
-            setLargestHeight(0);
-
-            if (getCellSizing() == FITPARENT) {
-                int availableWidth =
-		    parent.getWidth()
-		    - (insets.left + insets.right + (ncols - 1) * getHgap());
-                int availableHeight =
-		    parent.getHeight()
-		    - (insets.top + insets.bottom + (nrows - 1) * getVgap());
-                setLargestWidth(availableWidth / ncols);
-                setLargestHeight(availableHeight / nrows);
+            if (s.placedLeft != insets.left || s.placedTop != insets.top) {
+                s.placedLeft = insets.left;
+                s.placedTop = insets.top;
+                s.placedFrom = 0;
             }
-            else {
-
-                for (int c = 0; c < ncols; ++c) {
-                    for (int r = 0; r < nrows; ++r) {
-                        int i = r * ncols + c;
-                        if (parent.getComponent(i).getPreferredSize().getWidth()
-                                > getColWidth()[c]) {
-                            getColWidth()[c] = (int) parent.getComponent(i)
-				    .getPreferredSize().getWidth();
-                            if (getColWidth()[c] > getLargestWidth())
-				setLargestWidth(getColWidth()[c]);
-                        }
-                        if ((parent.getComponent(i).getPreferredSize()
-                                .getHeight()) > getRowHeight()[r]) {
-                            getRowHeight()[r] = (int) parent.getComponent(i)
-				    .getPreferredSize().getHeight();
-                            if (getRowHeight()[r] > getLargestHeight()) {
-                                setLargestHeight(getRowHeight()[r]);
-			    }
-                        }
+            if (isViewportAware() && parent.getParent() instanceof JViewport) {
+                JViewport viewport = (JViewport) parent.getParent();
+                listenTo(viewport, parent);
+                if (s.placedFrom == 0 || s.firstShown < 0) {
+                    s.firstShown = -1;
+                } else {
+                    showAppended(parent, s);
+                }
+                showColumns(parent, s, viewport.getViewRect(), false);
+            } else {
+                int from = s.firstShown < 0 ? s.placedFrom : 0;
+                s.firstShown = -1;
+                for (int k = 0; k < s.newsColumns; ++k) {
+                    if (s.starts[k + 1] > from) {
+                        positionRows(parent, s, k,
+                                     Math.max(from, s.starts[k]),
+                                     s.starts[k + 1], 0, 0, false);
                     }
                 }
             }
+            s.placedFrom = s.rows;
+            refineLater(parent, s);
+        }
+    }
 
-            // Calculate width
-            gridWidth = (ncols - 1) * getHgap();
-            for (int c = 0; c < ncols; ++c) {
-                gridWidth += getColWidth()[c];
+    /**
+     * Get the number of times the newspaper columns of a container
+     * have been worked out. The columns are kept until the children or
+     * the visible area change, so a change that settles in a single
+     * pass adds one however many times the preferred size is asked
+     * for and the container laid out.
+     *
+     * @param parent the container
+     * @return the number of passes
+     */
+    public int getColumnPasses(Container parent) {
+        synchronized (parent.getTreeLock()) {
+            return ((NewspaperState) getLayoutState(parent)).columnPasses;
+        }
+    }
+
+    /**
+     * @return true if the rows are shared out in balanced columns
+     */
+    public boolean isBalanced() {
+        return balanced;
+    }
+
+    /**
+     * Set whether rows that need more newspaper columns than fit the
+     * visible width are shared out in balanced columns, so that the
+     * tallest column is as short as it can be, rather than in columns
+     * of about the average height, which can leave the last column
+     * almost empty.
+     *
+     * @param b true to balance the columns
+     */
+    public void setBalanced(boolean b) {
+        balanced = b;
+    }
+
+    /**
+     * @see org.tigris.swidgets.GridLayout2#createLayoutState()
+     */
+    GridLayoutState createLayoutState() {
+        return new NewspaperState();
+    }
+
+    /**
+     * Work out which rows go in each newspaper column and the preferred
+     * height, without positioning any children. Rows flow down the
+     * visible height into as many columns as fit the visible width. If
+     * they need more columns than that they are shared out in columns
+     * of an even height instead. The result is kept until the children
+     * or the visible area change.
+     *
+     * @param parent the container, whose children have been measured
+     * @param s the layout state of the container
+     */
+    private void findColumns(Container parent, NewspaperState s) {
+        Rectangle visible = ((JComponent) parent).getVisibleRect();
+        boolean fit = getCellSizing() == FITPARENT;
+        int width = fit ? parent.getWidth() : 0;
+        int height = fit ? parent.getHeight() : 0;
+        boolean sameArea = s.visibleWidth == visible.width
+            && s.visibleHeight == visible.height
+            && s.parentWidth == width && s.parentHeight == height
+            && s.columnsHgap == getHgap() && s.columnsVgap == getVgap()
+            && s.columnsCellSizing == getCellSizing()
+            && s.columnsBalanced == balanced;
+        if (sameArea && s.columnsVersion == s.version) {
+            return;
+        }
+        // Children appended since the columns were last worked out may
+        // only extend them
+        boolean appended = sameArea && !fit && s.appendedFrom >= 0
+            && s.appendedVersion == s.version
+            && s.columnsVersion == s.version - 1;
+        s.columnsVersion = s.version;
+        s.visibleWidth = visible.width;
+        s.visibleHeight = visible.height;
+        s.parentWidth = width;
+        s.parentHeight = height;
+        s.columnsHgap = getHgap();
+        s.columnsVgap = getVgap();
+        s.columnsCellSizing = getCellSizing();
+        s.columnsBalanced = balanced;
+        ++s.columnPasses;
+
+        Insets insets = parent.getInsets();
+        int ncomponents = parent.getComponentCount();
+        int nrows = s.rows;
+        int ncols = s.cols;
+
+        // Determine the width for each column and the height for each row.
+        if (fit) {
+            int availableWidth =
+                parent.getWidth()
+                - (insets.left + insets.right + (ncols - 1) * getHgap());
+            int availableHeight =
+                parent.getHeight()
+                - (insets.top + insets.bottom + (nrows - 1) * getVgap());
+            s.largestWidth = availableWidth / ncols;
+            s.largestHeight = availableHeight / nrows;
+        }
+        else {
+            s.largestWidth = s.largestPreferredWidth;
+            s.largestHeight = s.largestPreferredHeight;
+        }
+
+        // Calculate width
+        int gridWidth = (ncols - 1) * getHgap();
+        for (int c = 0; c < ncols; ++c) {
+            gridWidth += getComponentCellWidth(s, c);
+        }
+        appended &= gridWidth == s.gridWidth;
+        s.gridWidth = gridWidth;
+
+        int rowStride = s.rowStride;
+        findRowTops(s, nrows);
+        appended &= rowStride == s.rowStride;
+        int gridHeight = rowTop(s, nrows) - getVgap();
+
+        s.starts = GridLayoutState.ensure(s.starts, nrows + 2);
+        if (appended && extendColumns(s, insets, visible, nrows, ncols,
+                                      ncomponents)) {
+            s.placedFrom =
+                Math.min(s.placedFrom, s.appendedFrom / ncols);
+            return;
+        }
+        s.placedFrom = 0;
+        int numberOfGrids = flowColumns(s, insets, visible, nrows, ncols,
+                                        ncomponents, 0, 0);
+        s.flowed = numberOfGrids < 0;
+        if (numberOfGrids > 0 && balanced) {
+            balancedColumns(s, insets, gridHeight, nrows, ncols,
+                            ncomponents, numberOfGrids);
+        } else if (numberOfGrids > 0) {
+            evenColumns(s, insets, gridHeight, nrows, ncols, ncomponents,
+                        numberOfGrids);
+        }
+    }
+
+    /**
+     * Make sure the top of every row, measured from the top of the
+     * first and including the gaps above it, can be found. When every
+     * row has the same height the tops are a multiple of it, otherwise
+     * they are kept as cumulative sums until the row extents change.
+     *
+     * @param s the layout state of the container
+     * @param nrows the number of rows
+     */
+    private void findRowTops(NewspaperState s, int nrows) {
+        if (getCellSizing() != ROWCOLPREFERRED || s.uniform) {
+            s.rowStride = getComponentCellHeight(s, 0) + getVgap();
+            return;
+        }
+        s.rowStride = -1;
+        if (s.topsVersion == s.version && s.topsRows == nrows
+            && s.topsVgap == getVgap()) {
+            return;
+        }
+        // Rows appended, or filled, since the tops were last worked
+        // out are all below the rows already there
+        int from = 0;
+        if (s.topsVersion == s.version - 1 && s.topsVgap == getVgap()
+            && s.appendedFrom >= 0 && s.appendedVersion == s.version) {
+            from = s.appendedFrom / s.cols;
+        }
+        s.topsVersion = s.version;
+        s.topsRows = nrows;
+        s.topsVgap = getVgap();
+        s.rowTops = GridLayoutState.ensure(s.rowTops, nrows + 1);
+        int y = from == 0 ? 0 : s.rowTops[from];
+        for (int r = from; r < nrows; ++r) {
+            s.rowTops[r] = y;
+            y += getComponentCellHeight(s, r) + getVgap();
+        }
+        s.rowTops[nrows] = y;
+    }
+
+    /**
+     * The top of a row, measured from the top of the first. The top of
+     * the row after the last is the height of every row and gap.
+     */
+    private static int rowTop(NewspaperState s, int r) {
+        return s.rowStride >= 0 ? r * s.rowStride : s.rowTops[r];
+    }
+
+    /**
+     * Binary search for the first row, from low up to high inclusive,
+     * whose top is below a position.
+     *
+     * @return the row found, or high + 1 if there is none
+     */
+    private static int firstBelow(NewspaperState s, int low, int high,
+                                  int y) {
+        int end = high + 1;
+        while (low < end) {
+            int mid = (low + end) >>> 1;
+            if (rowTop(s, mid) > y) {
+                end = mid;
+            } else {
+                low = mid + 1;
             }
+        }
+        return low;
+    }
+
+    /**
+     * The bottom of the lowest child in a newspaper column holding the
+     * rows from first up to but excluding end, or 0 if it has none.
+     */
+    private int columnBottom(NewspaperState s, Insets insets, int first,
+                             int end, int ncols, int ncomponents) {
+        int filled = (ncomponents + ncols - 1) / ncols;
+        int last = Math.min(end, filled);
+        if (last <= first) {
+            return 0;
+        }
+        return insets.top + rowTop(s, last) - rowTop(s, first) - getVgap();
+    }
 
-            // Calculate Height
-            int gridHeight = (nrows - 1) * getVgap();
-            for (int r = 0; r < nrows; ++r) {
-                gridHeight += getRowHeight()[r];
+    /**
+     * Flow the rows down the visible height, starting a new newspaper
+     * column whenever the next row would not fit. Each break is found
+     * by a binary search of the row tops. The flow can be started at
+     * any column already found, the columns before it being kept.
+     *
+     * @param newsColumn the column to start at
+     * @param highestY the bottom of the lowest child in the columns
+     * before it
+     * @return -1 if the columns fit the visible width, otherwise the
+     * number of columns that do
+     */
+    private int flowColumns(NewspaperState s, Insets insets,
+                            Rectangle visible, int nrows, int ncols,
+                            int ncomponents, int newsColumn,
+                            int highestY) {
+        // A row fits if its top, plus its height, is within this much
+        // of the top of the first row in its column.
+        int room = visible.height - insets.top - insets.bottom + getVgap();
+        s.starts[0] = 0;
+        int first = s.starts[newsColumn];
+        // Only the first column can be left empty, by a first row too
+        // high to fit, any other takes at least one row.
+        int from = newsColumn == 0 ? 1 : first + 2;
+        while (true) {
+            int end = firstBelow(s, from, nrows, rowTop(s, first) + room) - 1;
+            if (end >= nrows) {
+                s.closedBottom = highestY;
+                highestY = Math.max(highestY,
+                                    columnBottom(s, insets, first, nrows,
+                                                 ncols, ncomponents));
+                break;
             }
+            highestY = Math.max(highestY,
+                                columnBottom(s, insets, first, end,
+                                             ncols, ncomponents));
+            newsColumn++;
+            if ((insets.left
+                 + insets.right
+                 + newsColumn * (s.gridWidth + gridGap)
+                 + s.gridWidth)
+                > visible.width)
+                return newsColumn;
+            s.starts[newsColumn] = end;
+            first = end;
+            from = first + 2;
+        }
+        s.newsColumns = newsColumn + 1;
+        s.starts[s.newsColumns] = nrows;
+        s.preferredY = highestY + insets.bottom;
+        return -1;
+    }
+
+    /**
+     * Extend the newspaper columns last found to hold rows appended
+     * since. Columns that flowed down the visible height carry on
+     * flowing from the last of them, while columns that were shared
+     * out are kept as long as the last of them stays no taller than
+     * the tallest. Either way the rows already there keep their
+     * columns.
+     *
+     * @return false if the appended rows overflow the columns, so
+     * that they must be worked out again from the start
+     */
+    private boolean extendColumns(NewspaperState s, Insets insets,
+                                  Rectangle visible, int nrows, int ncols,
+                                  int ncomponents) {
+        int last = s.newsColumns - 1;
+        if (s.flowed) {
+            return flowColumns(s, insets, visible, nrows, ncols,
+                               ncomponents, last, s.closedBottom) < 0;
+        }
+        int bottom = columnBottom(s, insets, s.starts[last], nrows, ncols,
+                                  ncomponents);
+        if (bottom + insets.bottom > s.preferredY) {
+            return false;
+        }
+        s.starts[s.newsColumns] = nrows;
+        return true;
+    }
 
-            int numberOfGrids =
-		positionComponentsInternal(parent, getColWidth(), 
-		    getRowHeight(), gridHeight, nrows, ncols);
-            if (numberOfGrids > 0) {
-                positionComponentsExternal(parent, getColWidth(), 
-                    getRowHeight(), gridHeight, nrows, ncols, numberOfGrids);
+    /**
+     * Share the rows out in newspaper columns of about an even height,
+     * each column ending with the first row that takes it to the target
+     * height.
+     */
+    private void evenColumns(NewspaperState s, Insets insets,
+                             int gridHeight, int nrows, int ncols,
+                             int ncomponents, int maxGrids) {
+        int targetHeight = gridHeight / maxGrids;
+        int newsColumn = 0;
+        int highestY = 0;
+        int first = 0;
+        s.starts[0] = 0;
+        while (true) {
+            int end = firstBelow(s, first + 1, nrows,
+                                 rowTop(s, first) + targetHeight - 1);
+            if (end >= nrows) {
+                end = nrows;
             }
+            highestY = Math.max(highestY,
+                                columnBottom(s, insets, first, end,
+                                             ncols, ncomponents));
+            if (end == nrows) {
+                break;
+            }
+            newsColumn++;
+            s.starts[newsColumn] = end;
+            first = end;
         }
+        s.newsColumns = newsColumn + 1;
+        s.starts[s.newsColumns] = nrows;
+        s.preferredY = highestY + insets.bottom;
     }
 
-    private int positionComponentsInternal(Container parent,
-					   int colWidth[], int rowHeight[],
-					   int gridHeight, int nrows, int ncols)
-    {
-        JComponent parentComp = (JComponent) parent;
-        int visibleHeight = (int) parentComp.getVisibleRect().getHeight();
-        int visibleWidth = (int) parentComp.getVisibleRect().getWidth();
-        int ncomponents = parent.getComponentCount();
-        Insets insets = parent.getInsets();
+    /**
+     * Share the rows out in no more than a number of newspaper columns
+     * so that the tallest is as short as it can be. The height of the
+     * tallest column is found by a binary search between the average
+     * and the full height of the rows, trying each height by filling
+     * the columns greedily up to it.
+     */
+    private void balancedColumns(NewspaperState s, Insets insets,
+                                 int gridHeight, int nrows, int ncols,
+                                 int ncomponents, int maxGrids) {
+        // Too short, as even columns of the average height would not
+        // hold the rows.
+        int low = (gridHeight - (maxGrids - 1) * getVgap()) / maxGrids - 1;
+        // Tall enough, as a single column holds the rows.
+        int high = gridHeight;
+        while (high - low > 1) {
+            int mid = (low + high) >>> 1;
+            if (countColumns(s, nrows, mid, maxGrids) <= maxGrids) {
+                high = mid;
+            } else {
+                low = mid;
+            }
+        }
+
         int newsColumn = 0;
         int highestY = 0;
-        int y = insets.top;
-        int cellHeight;
-        int cellWidth;
-        for (int r = 0; r < nrows; ++r) {
-
-            cellHeight = getComponentCellHeight(r);
-
-            if (y + cellHeight + insets.bottom > visibleHeight ) {
-                y = insets.top;
-                newsColumn++;
-                if ((insets.left
-		     + insets.right
-		     + newsColumn * (gridWidth + gridGap)
-		     + gridWidth)
-		    > visibleWidth)
-		    return newsColumn;
+        int first = 0;
+        s.starts[0] = 0;
+        while (true) {
+            int end = columnEnd(s, first, nrows, high);
+            highestY = Math.max(highestY,
+                                columnBottom(s, insets, first, end,
+                                             ncols, ncomponents));
+            if (end == nrows) {
+                break;
             }
+            newsColumn++;
+            s.starts[newsColumn] = end;
+            first = end;
+        }
+        s.newsColumns = newsColumn + 1;
+        s.starts[s.newsColumns] = nrows;
+        s.preferredY = highestY + insets.bottom;
+    }
 
-            int x = insets.left + newsColumn * (gridWidth + gridGap);
-            for (int c = 0; c < ncols; ++c) {
-                cellWidth = getComponentCellWidth(c);
+    /**
+     * Count the newspaper columns needed if each is filled with rows
+     * up to a height, stopping once there are more than a limit.
+     */
+    private int countColumns(NewspaperState s, int nrows, int height,
+                             int limit) {
+        int count = 1;
+        int end = columnEnd(s, 0, nrows, height);
+        while (end < nrows && count <= limit) {
+            ++count;
+            end = columnEnd(s, end, nrows, height);
+        }
+        return count;
+    }
 
-                int i = r * ncols + c;
-                if (i < ncomponents) {
-                    positionComponentInCell(parent.getComponent(i), x, y,
-					    cellWidth, cellHeight);
-                    if (y + cellHeight > highestY) highestY = y + cellHeight;
-                }
-                x += cellWidth + getHgap();
+    /**
+     * Find the row that ends a newspaper column starting at a row and
+     * filled with rows up to a height. The column takes at least its
+     * first row, however tall.
+     *
+     * @return the first row after the column
+     */
+    private int columnEnd(NewspaperState s, int first, int nrows,
+                          int height) {
+        int end = firstBelow(s, first + 2, nrows,
+                             rowTop(s, first) + height + getVgap()) - 1;
+        return Math.min(end, nrows);
+    }
+
+    /**
+     * Respond to the visible area of a viewport changing by
+     * positioning the children of the newspaper columns that have been
+     * revealed and parking those of the columns that have left it.
+     *
+     * @see org.tigris.swidgets.GridLayout2#viewportChanged(
+     *          java.awt.Container, javax.swing.JViewport)
+     */
+    void viewportChanged(Container parent, JViewport viewport) {
+        synchronized (parent.getTreeLock()) {
+            if (!isViewportAware()) {
+                return;
             }
-            y += cellHeight + getVgap();
+            NewspaperState s = (NewspaperState) getLayoutState(parent);
+            if (s.firstShown < 0 || s.columnsVersion != s.version
+                || s.placedFrom < s.rows
+                || s.count != parent.getComponentCount()) {
+                // A full layout is still to come
+                return;
+            }
+            showColumns(parent, s, viewport.getViewRect(), true);
+            refineLater(parent, s);
         }
-        preferredY = highestY + insets.bottom;
-        return -1;
     }
 
+    /**
+     * Position only the children within the visible area of a viewport,
+     * plus the viewport margin. The newspaper columns in view are found
+     * from their width and the rows in view of each from the row tops.
+     * Other children are parked with an empty size at the top of their
+     * column. Children already shown are left alone, unless the
+     * container has just been laid out.
+     *
+     * @param parent the container
+     * @param s the layout state of the container, whose newspaper
+     * columns have been found
+     * @param view the visible area in the coordinates of the container
+     * @param scrolled true if only the visible area has changed, so no
+     * layout pass follows to validate the children revealed
+     */
+    private void showColumns(Container parent, NewspaperState s,
+                             Rectangle view, boolean scrolled) {
+        int margin = getViewportMargin();
+        int left = parent.getInsets().left;
+        int stride = s.gridWidth + gridGap;
+        int first = 0;
+        int last = s.newsColumns - 1;
+        if (stride > 0) {
+            int from = view.x - margin - left;
+            int to = view.x + view.width + margin - 1 - left;
+            first = from <= 0 ? 0 : Math.min(from / stride, last);
+            last = to < 0 ? 0 : Math.min(to / stride, last);
+        }
+        int top = view.y - margin;
+        int bottom = view.y + view.height + margin;
+
+        boolean all = s.firstShown < 0;
+        for (int k = 0; k < s.newsColumns; ++k) {
+            int newFrom = 0;
+            int newTo = 0;
+            if (k >= first && k <= last) {
+                newFrom = firstShownRow(parent, s, k, top);
+                newTo = endShownRow(parent, s, k, bottom);
+            }
+            int oldFrom = 0;
+            int oldTo = 0;
+            if (all) {
+                oldFrom = s.starts[k];
+                oldTo = s.starts[k + 1];
+                parkRows(parent, s, k, oldFrom, oldTo, newFrom, newTo);
+                oldTo = oldFrom;
+            } else if (k >= s.firstShown && k <= s.lastShown) {
+                oldFrom = firstShownRow(parent, s, k, s.shownTop);
+                oldTo = endShownRow(parent, s, k, s.shownBottom);
+                parkRows(parent, s, k, oldFrom, oldTo, newFrom, newTo);
+            }
+            positionRows(parent, s, k, newFrom, newTo, oldFrom, oldTo,
+                         scrolled);
+        }
+        s.firstShown = first;
+        s.lastShown = last;
+        s.shownTop = top;
+        s.shownBottom = bottom;
+    }
+
+    /**
+     * The first row of a newspaper column that reaches below a
+     * position.
+     */
+    private int firstShownRow(Container parent, NewspaperState s, int k,
+                              int y) {
+        int first = s.starts[k];
+        int end = s.starts[k + 1];
+        int offset = y - parent.getInsets().top;
+        int row = firstBelow(s, first + 1, end,
+                             rowTop(s, first) + offset) - 1;
+        return Math.min(row, end);
+    }
+
+    /**
+     * The row after the last of a newspaper column that starts above a
+     * position.
+     */
+    private int endShownRow(Container parent, NewspaperState s, int k,
+                            int y) {
+        int first = s.starts[k];
+        int end = s.starts[k + 1];
+        int offset = y - parent.getInsets().top;
+        return Math.min(firstBelow(s, first, end - 1,
+                                   rowTop(s, first) + offset - 1),
+                        end);
+    }
 
-    private boolean positionComponentsExternal(Container parent,
-					       int colWidth[], int rowHeight[],
-					       int gridHeight,
-					       int nrows, int ncols,
-					       int maxGrids) {
+    /**
+     * Position the children of rows appended since the container was
+     * last laid out that are within the part of a viewport last shown,
+     * and park the others, so that the children of every row are then
+     * as if shown for that part.
+     */
+    private void showAppended(Container parent, NewspaperState s) {
+        for (int k = 0; k < s.newsColumns; ++k) {
+            int to = s.starts[k + 1];
+            if (to <= s.placedFrom) {
+                continue;
+            }
+            int from = Math.max(s.placedFrom, s.starts[k]);
+            int shownFrom = 0;
+            int shownTo = 0;
+            if (k >= s.firstShown && k <= s.lastShown) {
+                shownFrom = Math.max(from,
+                                     firstShownRow(parent, s, k,
+                                                   s.shownTop));
+                shownTo = Math.min(to,
+                                   endShownRow(parent, s, k,
+                                               s.shownBottom));
+            }
+            parkRows(parent, s, k, from, to, shownFrom, shownTo);
+            if (shownFrom < shownTo) {
+                positionRows(parent, s, k, shownFrom, shownTo, 0, 0,
+                             false);
+            }
+        }
+    }
+
+    /**
+     * Position the children in a range of the rows of a newspaper
+     * column, except those in a range of rows already positioned.
+     *
+     * @param validate true if the children positioned are to be
+     * validated, as no layout pass follows
+     */
+    private void positionRows(Container parent, NewspaperState s, int k,
+                              int from, int to, int keepFrom, int keepTo,
+                              boolean validate) {
+        if (keepFrom < keepTo) {
+            positionRows(parent, s, k, from, Math.min(to, keepFrom), 0, 0,
+                         validate);
+            positionRows(parent, s, k, Math.max(from, keepTo), to, 0, 0,
+                         validate);
+            return;
+        }
         int ncomponents = parent.getComponentCount();
         Insets insets = parent.getInsets();
-        int newsColumn = 0;
-        int targetHeight = gridHeight / maxGrids;
-        int highestY = 0;
-        int y = insets.top;
-        int componentCellHeight;
-        int componentCellWidth;
-        for (int r = 0; r < nrows; ++r) {
-            if (getCellSizing() != ROWCOLPREFERRED)
-		componentCellHeight = getLargestHeight();
-            else componentCellHeight = rowHeight[r];
-
-            int x = insets.left + newsColumn * (gridWidth + gridGap);
+        int ncols = s.cols;
+        int x0 = insets.left + k * (s.gridWidth + gridGap);
+        int y = insets.top + rowTop(s, from) - rowTop(s, s.starts[k]);
+        for (int r = from; r < to; ++r) {
+            s.measureRow(parent, r);
+            int cellHeight = getComponentCellHeight(s, r);
+            int x = x0;
             for (int c = 0; c < ncols; ++c) {
-                if (getCellSizing() != ROWCOLPREFERRED)
-		    componentCellWidth = getLargestWidth();
-                else componentCellWidth = colWidth[c];
-
+                int cellWidth = getComponentCellWidth(s, c);
                 int i = r * ncols + c;
                 if (i < ncomponents) {
-                    positionComponentInCell(parent.getComponent(i),
-					    x, y,
-					    componentCellWidth,
-					    componentCellHeight);
-                    if (y + componentCellHeight > highestY)
-			highestY = y + componentCellHeight;
+                    Component comp = parent.getComponent(i);
+                    positionComponentInCell(comp, x, y,
+                                            cellWidth, cellHeight,
+                                            s.prefWidthOf(i),
+                                            s.prefHeightOf(i));
+                    if (validate) {
+                        validateRevealed(comp);
+                    }
                 }
-                x += componentCellWidth + getHgap();
-            }
-            y += componentCellHeight + getVgap();
-            if (y >= targetHeight + insets.top) {
-                y = insets.top;
-                newsColumn++;
+                x += cellWidth + getHgap();
             }
+            y += cellHeight + getVgap();
+        }
+    }
+
+    /**
+     * Give the children in a range of the rows of a newspaper column an
+     * empty size at the top of the column, except those in a range of
+     * rows that stay positioned.
+     */
+    private void parkRows(Container parent, NewspaperState s, int k,
+                          int from, int to, int keepFrom, int keepTo) {
+        if (keepFrom < keepTo) {
+            parkRows(parent, s, k, from, Math.min(to, keepFrom), 0, 0);
+            parkRows(parent, s, k, Math.max(from, keepTo), to, 0, 0);
+            return;
+        }
+        Insets insets = parent.getInsets();
+        int x0 = insets.left + k * (s.gridWidth + gridGap);
+        int end = Math.min(to * s.cols, parent.getComponentCount());
+        for (int i = from * s.cols; i < end; ++i) {
+            parent.getComponent(i).setBounds(x0, insets.top, 0, 0);
         }
-        preferredY = highestY + insets.bottom;
+    }
 
-        return true;
+    /**
+     * The extra layout state a NewspaperLayout keeps for each container.
+     */
+    private static class NewspaperState extends GridLayoutState {
+        private int preferredX;
+        private int preferredY;
+        private int gridWidth;
+
+
+        /**
+         * The first row of each newspaper column, followed by the
+         * number of rows.
+         */
+        private int[] starts = new int[0];
+        private int newsColumns;
+
+        /**
+         * What the newspaper columns were last worked out for.
+         */
+        private int columnsVersion = -1;
+        private int visibleWidth;
+        private int visibleHeight;
+        private int parentWidth;
+        private int parentHeight;
+        private int columnsHgap;
+        private int columnsVgap;
+        private int columnsCellSizing;
+        private boolean columnsBalanced;
+
+        /**
+         * True if the newspaper columns flowed down the visible height,
+         * false if the rows were shared out between them.
+         */
+        private boolean flowed;
+
+        /**
+         * The bottom of the lowest child in the newspaper columns
+         * before the last, when they flowed.
+         */
+        private int closedBottom;
+
+        /**
+         * The first row whose children are not positioned for the
+         * newspaper columns last found, and the insets the others were
+         * positioned within.
+         */
+        private int placedFrom;
+        private int placedLeft = -1;
+        private int placedTop = -1;
+
+        /**
+         * The number of times the newspaper columns have been worked
+         * out.
+         */
+        private int columnPasses;
+
+        /**
+         * The first and last newspaper columns whose children were
+         * positioned within a viewport, or -1 if every column was.
+         */
+        private int firstShown = -1;
+        private int lastShown;
+
+        /**
+         * The part of the height of the container, including the
+         * viewport margin, whose rows were positioned.
+         */
+        private int shownTop;
+        private int shownBottom;
+
+        /**
+         * The height of every row plus the gap below it, or -1 if the
+         * rows differ in height and their tops are kept instead.
+         */
+        private int rowStride;
+
+        /**
+         * The top of each row, followed by the height of them all,
+         * and what they were last worked out for.
+         */
+        private int[] rowTops = new int[0];
+        private int topsVersion = -1;
+        private int topsRows;
+        private int topsVgap;
     }
 }
-
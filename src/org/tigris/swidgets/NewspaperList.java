@@ -0,0 +1,326 @@
+// $Id$
+
+package org.tigris.swidgets;
+
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Insets;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.KeyEvent;
+
+import javax.swing.DefaultListModel;
+import javax.swing.JViewport;
+import javax.swing.ListModel;
+import javax.swing.SwingConstants;
+
+/**
+ * A list that shows its items in newspaper columns, in the same way as
+ * a {@link NewspaperLayout} with a single column grid. Items flow down
+ * the visible height into another column on the right until the
+ * visible width is filled, after which the columns grow deeper instead
+ * so that the user scrolls up/down rather than left/right. <p>
+ *
+ * Unlike a container laid out by a NewspaperLayout there is no
+ * component for each item. Every item is given the same size, either
+ * fixed or taken from a prototype value, so the position of any item
+ * is found arithmetically. Only the items within the area being
+ * painted are asked of the model, and each is painted by a single cell
+ * renderer, as with a <code>JList</code>. The memory used and the work
+ * done to paint, hit test or select are the same however many items
+ * the model holds.
+ */
+public class NewspaperList extends AbstractRendererView {
+
+    private static final long serialVersionUID = 1330946291641948184L;
+
+    private int columnGap;
+
+    /**
+     * The number of newspaper columns and the number of items in each,
+     * and what they were last worked out for.
+     */
+    private int columns;
+    private int rows;
+    private int geometrySize = -1;
+    private int geometryWidth;
+    private int geometryHeight;
+
+    /**
+     * The constructor.
+     */
+    public NewspaperList() {
+        this(new DefaultListModel());
+    }
+
+    /**
+     * The constructor.
+     *
+     * @param m the model holding the items to show
+     */
+    public NewspaperList(ListModel m) {
+        super(m);
+    }
+
+    /**
+     * @return the gap between newspaper columns
+     */
+    public int getColumnGap() {
+        return columnGap;
+    }
+
+    /**
+     * @param gap the gap between newspaper columns
+     */
+    public void setColumnGap(int gap) {
+        columnGap = gap;
+        itemsChanged();
+    }
+
+    /**
+     * @see org.tigris.swidgets.AbstractRendererView#locationToIndex(
+     *          java.awt.Point)
+     */
+    public int locationToIndex(Point location) {
+        updateGeometry();
+        if (rows == 0) {
+            return -1;
+        }
+        Insets insets = getInsets();
+        int x = location.x - insets.left;
+        int y = location.y - insets.top;
+        if (x < 0 || y < 0) {
+            return -1;
+        }
+        int cellWidth = getItemWidth();
+        int column = x / (cellWidth + columnGap);
+        int row = y / getItemHeight();
+        if (column >= columns || row >= rows
+            || x - column * (cellWidth + columnGap) >= cellWidth) {
+            return -1;
+        }
+        int index = column * rows + row;
+        return index < getModel().getSize() ? index : -1;
+    }
+
+    /**
+     * @see org.tigris.swidgets.AbstractRendererView#getCellBounds(int)
+     */
+    public Rectangle getCellBounds(int index) {
+        updateGeometry();
+        if (index < 0 || index >= getModel().getSize() || rows == 0) {
+            return null;
+        }
+        Insets insets = getInsets();
+        int cellWidth = getItemWidth();
+        int cellHeight = getItemHeight();
+        return new Rectangle(
+            insets.left + (index / rows) * (cellWidth + columnGap),
+            insets.top + (index % rows) * cellHeight,
+            cellWidth, cellHeight);
+    }
+
+    /**
+     * The items of a range in one newspaper column, or else the whole
+     * height of the newspaper columns from the first item to the last.
+     *
+     * @see org.tigris.swidgets.AbstractRendererView#getRangeBounds(int,
+     *          int)
+     */
+    Rectangle getRangeBounds(int first, int last) {
+        Rectangle firstBounds = getCellBounds(first);
+        Rectangle lastBounds = getCellBounds(last);
+        if (firstBounds == null || lastBounds == null) {
+            return null;
+        }
+        if (firstBounds.x == lastBounds.x) {
+            return firstBounds.union(lastBounds);
+        }
+        return new Rectangle(firstBounds.x, getInsets().top,
+                             lastBounds.x + lastBounds.width - firstBounds.x,
+                             rows * getItemHeight());
+    }
+
+    /**
+     * @return the number of newspaper columns the items are shown in
+     */
+    public int getNewspaperColumns() {
+        updateGeometry();
+        return columns;
+    }
+
+    /**
+     * Work out the newspaper columns from the size of the items and
+     * the area they are to be shown in, which is the extent of an
+     * enclosing viewport or else the size of this list. Items flow down
+     * the height into as many columns as fit the width, and if they
+     * need more columns than that are shared out evenly between those
+     * that do fit.
+     */
+    private void updateGeometry() {
+        Dimension area;
+        if (getParent() instanceof JViewport) {
+            area = ((JViewport) getParent()).getExtentSize();
+        } else {
+            area = getSize();
+        }
+        int size = getModel().getSize();
+        if (geometrySize == size
+            && geometryWidth == area.width
+            && geometryHeight == area.height) {
+            return;
+        }
+        geometrySize = size;
+        geometryWidth = area.width;
+        geometryHeight = area.height;
+
+        if (size == 0) {
+            columns = 0;
+            rows = 0;
+            return;
+        }
+        int cellWidth = getItemWidth();
+        int cellHeight = getItemHeight();
+        Insets insets = getInsets();
+        int height = area.height - insets.top - insets.bottom;
+        int width = area.width - insets.left - insets.right;
+        int rowsFit = Math.max(1, height / cellHeight);
+        int columnsFit =
+            Math.max(1, (width + columnGap) / (cellWidth + columnGap));
+        if ((size + rowsFit - 1) / rowsFit <= columnsFit) {
+            rows = Math.min(size, rowsFit);
+        } else {
+            rows = (size + columnsFit - 1) / columnsFit;
+        }
+        columns = (size + rows - 1) / rows;
+    }
+
+    /**
+     * @see org.tigris.swidgets.AbstractRendererView#itemsChanged()
+     */
+    void itemsChanged() {
+        geometrySize = -1;
+        super.itemsChanged();
+    }
+
+    /**
+     * @see javax.swing.JComponent#getPreferredSize()
+     */
+    public Dimension getPreferredSize() {
+        if (isPreferredSizeSet()) {
+            return super.getPreferredSize();
+        }
+        updateGeometry();
+        Insets insets = getInsets();
+        int width = columns == 0 ? 0
+            : columns * (getItemWidth() + columnGap) - columnGap;
+        int height = rows == 0 ? 0 : rows * getItemHeight();
+        return new Dimension(insets.left + width + insets.right,
+                             insets.top + height + insets.bottom);
+    }
+
+    /**
+     * The newspaper columns depend on the area the list is shown in,
+     * so the list is sized again if showing it changed that area.
+     *
+     * @see java.awt.Container#doLayout()
+     */
+    public void doLayout() {
+        int oldColumns = columns;
+        int oldRows = rows;
+        updateGeometry();
+        if (columns != oldColumns || rows != oldRows) {
+            revalidate();
+        }
+    }
+
+    /**
+     * Paint only the items within the clip, each stamped out by the
+     * cell renderer.
+     *
+     * @see org.tigris.swidgets.AbstractRendererView#paintItems(
+     *          java.awt.Graphics, java.awt.Rectangle)
+     */
+    void paintItems(Graphics g, Rectangle clip) {
+        updateGeometry();
+        if (rows == 0) {
+            return;
+        }
+        int cellWidth = getItemWidth();
+        int cellHeight = getItemHeight();
+        Insets insets = getInsets();
+        int stride = cellWidth + columnGap;
+        int firstColumn = Math.max(0, (clip.x - insets.left) / stride);
+        int lastColumn = Math.min(columns - 1,
+                                  (clip.x + clip.width - 1 - insets.left)
+                                  / stride);
+        int firstRow = Math.max(0, (clip.y - insets.top) / cellHeight);
+        int lastRow = Math.min(rows - 1,
+                               (clip.y + clip.height - 1 - insets.top)
+                               / cellHeight);
+        int size = getModel().getSize();
+        for (int c = firstColumn; c <= lastColumn; ++c) {
+            int x = insets.left + c * stride;
+            for (int r = firstRow; r <= lastRow; ++r) {
+                int index = c * rows + r;
+                if (index >= size) {
+                    break;
+                }
+                paintItem(g, index, x, insets.top + r * cellHeight,
+                          cellWidth, cellHeight);
+            }
+        }
+    }
+
+    /**
+     * Move a cell up or down, or a column left or right.
+     *
+     * @see org.tigris.swidgets.AbstractRendererView#moveIndex(int, int)
+     */
+    int moveIndex(int lead, int keyCode) {
+        updateGeometry();
+        switch (keyCode) {
+        case KeyEvent.VK_UP:
+            return lead - 1;
+        case KeyEvent.VK_DOWN:
+            return lead + 1;
+        case KeyEvent.VK_LEFT:
+            return lead - rows;
+        case KeyEvent.VK_RIGHT:
+            return lead + rows;
+        default:
+            return -1;
+        }
+    }
+
+    /**
+     * @see javax.swing.Scrollable#getScrollableUnitIncrement(
+     *          java.awt.Rectangle, int, int)
+     */
+    public int getScrollableUnitIncrement(Rectangle visibleRect,
+                                          int orientation, int direction) {
+        if (orientation == SwingConstants.VERTICAL) {
+            return getItemHeight();
+        }
+        return getItemWidth() + columnGap;
+    }
+
+    /**
+     * The items flow across no more than the width of the viewport.
+     *
+     * @see javax.swing.Scrollable#getScrollableTracksViewportWidth()
+     */
+    public boolean getScrollableTracksViewportWidth() {
+        return true;
+    }
+
+    /**
+     * The list fills the height of a viewport taller than the items.
+     *
+     * @see javax.swing.Scrollable#getScrollableTracksViewportHeight()
+     */
+    public boolean getScrollableTracksViewportHeight() {
+        return getParent() instanceof JViewport
+            && getParent().getHeight() > getPreferredSize().height;
+    }
+}
@@ -4,7 +4,6 @@
 package org.tigris.swidgets;
 
 import java.awt.*;
-import java.util.*;
 
 /**
  * Allows components to be a set as a proportion to their container or
@@ -16,7 +15,16 @@ import java.util.*;
 
 public class ProportionalLayout extends LineLayout {
 
-    protected Hashtable componentTable;
+    /**
+     * The components added and the proportion each was added with, in
+     * the order of the children of the container. A component left at
+     * its own size has a proportion of NaN. The constraints are parsed
+     * once as components are added, so laying out the container needs
+     * no parsing, hashing or locking.
+     */
+    private Component[] components = new Component[0];
+    private double[] proportions = new double[0];
+    private int count;
 
     public ProportionalLayout() {
         this(HORIZONTAL);
@@ -24,7 +32,6 @@ public class ProportionalLayout extends LineLayout {
 
     public ProportionalLayout(Orientation orientation) {
         super(orientation);
-        componentTable = new Hashtable();
     }
 
     public final void addLayoutComponent(Component comp, Object constraints) {
@@ -33,16 +40,148 @@ public class ProportionalLayout extends LineLayout {
     }
 
     public void addLayoutComponent(String name, Component comp) {
-        try {
-	    componentTable.put(comp, name.toString());
+        double proportion = Double.NaN;
+        if (name != null && name.length() != 0) {
+            try {
+                proportion = Double.parseDouble(name);
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException(
+                    "The proportion of a component must be a number: "
+                    + name);
+            }
         }
-        catch (Exception e) {
-	    componentTable.put(comp, "");
+        // The component is already a child, so it is kept at the same
+        // position among the components added
+        int index = getChildIndex(comp);
+        remove(indexOf(comp, index));
+        if (index < 0 || index > count) {
+            index = count;
         }
+        if (count == components.length) {
+            int capacity = Math.max(8, count * 2);
+            Component[] grownComponents = new Component[capacity];
+            double[] grownProportions = new double[capacity];
+            System.arraycopy(components, 0, grownComponents, 0, count);
+            System.arraycopy(proportions, 0, grownProportions, 0, count);
+            components = grownComponents;
+            proportions = grownProportions;
+        }
+        System.arraycopy(components, index, components, index + 1,
+                         count - index);
+        System.arraycopy(proportions, index, proportions, index + 1,
+                         count - index);
+        components[index] = comp;
+        proportions[index] = proportion;
+        ++count;
     }
 
     public void removeLayoutComponent(Component comp) {
-        componentTable.remove(comp);
+        remove(indexOf(comp, getChildIndex(comp)));
+    }
+
+    /**
+     * Remove the component added at an index, if there is one.
+     */
+    private void remove(int index) {
+        if (index < 0) {
+            return;
+        }
+        --count;
+        System.arraycopy(components, index + 1, components, index,
+                         count - index);
+        System.arraycopy(proportions, index + 1, proportions, index,
+                         count - index);
+        components[count] = null;
+    }
+
+    /**
+     * @return the proportion a component was added with, or NaN if it
+     * is left at its own size
+     */
+    protected double getProportion(Component comp) {
+        return getProportion(comp, getChildIndex(comp));
+    }
+
+    /**
+     * Find the proportion of the child at an index of its container,
+     * which is at the same index of the components added unless the
+     * layout is shared. Callers that already know the index of the
+     * child, such as those looping over the children, should use this
+     * rather than searching the container for it.
+     *
+     * @param comp the component
+     * @param childIndex the index of the component in its container
+     * @return the proportion the component was added with, or NaN if
+     * it is left at its own size
+     */
+    protected double getProportion(Component comp, int childIndex) {
+        int index = indexOf(comp, childIndex);
+        return index < 0 ? Double.NaN : proportions[index];
+    }
+
+    /**
+     * Change the proportion of a component that was added with one.
+     *
+     * @param comp the component
+     * @param proportion the new proportion
+     */
+    protected void setProportion(Component comp, double proportion) {
+        setProportion(comp, getChildIndex(comp), proportion);
+    }
+
+    /**
+     * Change the proportion of the child at an index of its container
+     * that was added with one.
+     *
+     * @param comp the component
+     * @param childIndex the index of the component in its container
+     * @param proportion the new proportion
+     */
+    protected void setProportion(Component comp, int childIndex,
+                                 double proportion) {
+        int index = indexOf(comp, childIndex);
+        if (index >= 0) {
+            proportions[index] = proportion;
+        }
+    }
+
+    /**
+     * @return true if a component was added with a proportion
+     */
+    protected boolean isProportional(Component comp) {
+        return !Double.isNaN(getProportion(comp));
+    }
+
+    /**
+     * @param comp the component
+     * @param childIndex the index of the component in its container
+     * @return true if the child at an index of its container was added
+     * with a proportion
+     */
+    protected boolean isProportional(Component comp, int childIndex) {
+        return !Double.isNaN(getProportion(comp, childIndex));
+    }
+
+    private int indexOf(Component comp, int hint) {
+        if (hint >= 0 && hint < count && components[hint] == comp) {
+            return hint;
+        }
+        for (int i = 0; i < count; ++i) {
+            if (components[i] == comp) return i;
+        }
+        return -1;
+    }
+
+    private static int getChildIndex(Component comp) {
+        Container parent = comp.getParent();
+        if (parent != null) {
+            int numberOfComponents = parent.getComponentCount();
+            for (int i = 0; i < numberOfComponents; ++i) {
+                if (comp == parent.getComponent(i)) return i;
+            }
+        }
+        return -1;
     }
 
     public void layoutContainer(Container parent) {
@@ -52,13 +191,13 @@ public class ProportionalLayout extends LineLayout {
 
         totalLength = _orientation.getLengthMinusInsets(parent);
 
-        Enumeration enumKeys = componentTable.keys();
-        while (enumKeys.hasMoreElements()) {
-            Component comp = (Component) enumKeys.nextElement();
+        int nComps = parent.getComponentCount();
+        for (int i = 0; i < nComps; i++) {
+            Component comp = parent.getComponent(i);
             if (comp.isVisible()) {
-                String size = (String) (componentTable.get(comp));
-                if (size.length() != 0) {
-                    totalProportionalLength += Double.parseDouble(size);
+                double proportion = getProportion(comp, i);
+                if (!Double.isNaN(proportion)) {
+                    totalProportionalLength += proportion;
                 }
                 else {
                     totalLength -= _orientation.getLength(comp);
@@ -69,15 +208,14 @@ public class ProportionalLayout extends LineLayout {
         Insets insets = parent.getInsets();
         Point loc = new Point(insets.top, insets.left);
         int length = 0;
-        int nComps = parent.getComponentCount();
         for (int i = 0; i < nComps; i++) {
             Component comp = parent.getComponent(i);
             if (comp.isVisible()) {
-                String proportionalLength = (String) (componentTable.get(comp));
-                if (proportionalLength.length() != 0) {
+                double proportion = getProportion(comp, i);
+                if (!Double.isNaN(proportion)) {
                     length =
 			(int)
-			((totalLength * Double.parseDouble(proportionalLength))
+			((totalLength * proportion)
 			 / totalProportionalLength);
                     if (length < 0) length = 0;
                 }
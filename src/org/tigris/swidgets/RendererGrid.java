@@ -0,0 +1,346 @@
+// $Id$
+
+package org.tigris.swidgets;
+
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Insets;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.KeyEvent;
+
+import javax.swing.JViewport;
+import javax.swing.ListModel;
+import javax.swing.SwingConstants;
+
+/**
+ * A grid of items laid out as a {@link GridLayout2} would lay out a
+ * container with a component for each, but without the components. <p>
+ *
+ * The items of a <code>ListModel</code> fill the grid a row at a time
+ * and are each painted by a single cell renderer, as with a
+ * <code>JList</code>. Every item is given the same preferred size,
+ * either fixed or taken from a prototype value. The rows, columns,
+ * gaps, cell sizing, fill and anchor of the GridLayout2 given are
+ * applied arithmetically, so only the items within the area being
+ * painted are asked of the model and hit testing and selection work
+ * on indices alone. The memory used and the work done to paint or
+ * select do not grow with the number of items, which suits galleries
+ * of many thousands of thumbnails or symbols.
+ */
+public class RendererGrid extends AbstractRendererView {
+
+    private static final long serialVersionUID = 4349021893049330882L;
+
+    private GridLayout2 gridLayout;
+
+    /**
+     * The constructor.
+     *
+     * @param m the model holding the items to show
+     * @param rows the number of rows, or 0 for as many as needed
+     * @param cols the number of columns, or 0 for as many as needed
+     */
+    public RendererGrid(ListModel m, int rows, int cols) {
+        this(m, new GridLayout2(rows, cols, 0, 0,
+                                GridLayout2.MAXPREFERRED));
+    }
+
+    /**
+     * The constructor.
+     *
+     * @param m the model holding the items to show
+     * @param layout the layout whose rows, columns, gaps, cell sizing,
+     * fill and anchor place the items
+     */
+    public RendererGrid(ListModel m, GridLayout2 layout) {
+        super(m);
+        setGridLayout(layout);
+    }
+
+    /**
+     * @return the layout whose rules place the items
+     */
+    public GridLayout2 getGridLayout() {
+        return gridLayout;
+    }
+
+    /**
+     * Set the layout whose rows, columns, gaps, cell sizing, fill and
+     * anchor place the items. The layout is not installed on this
+     * component, so after changing it this component must be
+     * revalidated.
+     *
+     * @param layout the layout whose rules place the items
+     */
+    public void setGridLayout(GridLayout2 layout) {
+        if (layout == null) {
+            throw new IllegalArgumentException("layout must be non null");
+        }
+        gridLayout = layout;
+        itemsChanged();
+    }
+
+    /**
+     * @return the number of rows of items
+     */
+    public int getActualRows() {
+        int size = getModel().getSize();
+        return size == 0 ? 0 : gridLayout.getActualRows(size);
+    }
+
+    /**
+     * @return the number of columns of items
+     */
+    public int getActualColumns() {
+        int size = getModel().getSize();
+        return size == 0 ? 0 : gridLayout.getActualCols(size);
+    }
+
+    /**
+     * The width of every cell, which for the cell sizing
+     * <code>FITPARENT</code> shares out the width of this component
+     * and is otherwise the preferred width of an item.
+     */
+    private int getCellWidth(int ncols) {
+        if (gridLayout.getCellSizing() == GridLayout2.FITPARENT) {
+            Insets insets = getInsets();
+            return (getWidth() - insets.left - insets.right
+                    - (ncols - 1) * gridLayout.getHgap()) / ncols;
+        }
+        return getItemWidth();
+    }
+
+    /**
+     * The height of every cell, found in the same way as the width.
+     */
+    private int getCellHeight(int nrows) {
+        if (gridLayout.getCellSizing() == GridLayout2.FITPARENT) {
+            Insets insets = getInsets();
+            return (getHeight() - insets.top - insets.bottom
+                    - (nrows - 1) * gridLayout.getVgap()) / nrows;
+        }
+        return getItemHeight();
+    }
+
+    /**
+     * @see org.tigris.swidgets.AbstractRendererView#locationToIndex(
+     *          java.awt.Point)
+     */
+    public int locationToIndex(Point location) {
+        int nrows = getActualRows();
+        int ncols = getActualColumns();
+        if (nrows == 0 || ncols == 0) {
+            return -1;
+        }
+        Insets insets = getInsets();
+        int x = location.x - insets.left;
+        int y = location.y - insets.top;
+        if (x < 0 || y < 0) {
+            return -1;
+        }
+        int cellWidth = getCellWidth(ncols);
+        int cellHeight = getCellHeight(nrows);
+        int colStride = cellWidth + gridLayout.getHgap();
+        int rowStride = cellHeight + gridLayout.getVgap();
+        if (cellWidth <= 0 || cellHeight <= 0) {
+            return -1;
+        }
+        int c = x / colStride;
+        int r = y / rowStride;
+        if (c >= ncols || r >= nrows
+            || x - c * colStride >= cellWidth
+            || y - r * rowStride >= cellHeight) {
+            return -1;
+        }
+        int index = r * ncols + c;
+        return index < getModel().getSize() ? index : -1;
+    }
+
+    /**
+     * @see org.tigris.swidgets.AbstractRendererView#getCellBounds(int)
+     */
+    public Rectangle getCellBounds(int index) {
+        if (index < 0 || index >= getModel().getSize()) {
+            return null;
+        }
+        int nrows = getActualRows();
+        int ncols = getActualColumns();
+        int cellWidth = getCellWidth(ncols);
+        int cellHeight = getCellHeight(nrows);
+        Insets insets = getInsets();
+        return new Rectangle(
+            insets.left
+                + (index % ncols) * (cellWidth + gridLayout.getHgap()),
+            insets.top
+                + (index / ncols) * (cellHeight + gridLayout.getVgap()),
+            cellWidth, cellHeight);
+    }
+
+    /**
+     * The items of a range in one row, or else the whole width of the
+     * rows from the first item to the last.
+     *
+     * @see org.tigris.swidgets.AbstractRendererView#getRangeBounds(int,
+     *          int)
+     */
+    Rectangle getRangeBounds(int first, int last) {
+        Rectangle firstBounds = getCellBounds(first);
+        Rectangle lastBounds = getCellBounds(last);
+        if (firstBounds == null || lastBounds == null) {
+            return null;
+        }
+        if (firstBounds.y == lastBounds.y) {
+            return firstBounds.union(lastBounds);
+        }
+        Insets insets = getInsets();
+        return new Rectangle(insets.left, firstBounds.y,
+                             getWidth() - insets.left - insets.right,
+                             lastBounds.y + lastBounds.height
+                                 - firstBounds.y);
+    }
+
+    /**
+     * The preferred size of the grid, as a GridLayout2 would find it
+     * for components of the preferred size of an item.
+     *
+     * @see javax.swing.JComponent#getPreferredSize()
+     */
+    public Dimension getPreferredSize() {
+        if (isPreferredSizeSet()) {
+            return super.getPreferredSize();
+        }
+        int nrows = getActualRows();
+        int ncols = getActualColumns();
+        int filledRows = nrows;
+        int filledCols = ncols;
+        if (gridLayout.getCellSizing() == GridLayout2.ROWCOLPREFERRED
+            && ncols > 0) {
+            // Rows and columns without an item have no extent
+            int size = getModel().getSize();
+            filledRows = Math.min(nrows, (size + ncols - 1) / ncols);
+            filledCols = Math.min(ncols, size);
+        }
+        Insets insets = getInsets();
+        int width = ncols == 0 ? 0
+            : filledCols * getItemWidth()
+                + (ncols - 1) * gridLayout.getHgap();
+        int height = nrows == 0 ? 0
+            : filledRows * getItemHeight()
+                + (nrows - 1) * gridLayout.getVgap();
+        return new Dimension(insets.left + width + insets.right,
+                             insets.top + height + insets.bottom);
+    }
+
+    /**
+     * Paint only the items in the cells within the clip, each stamped
+     * out by the cell renderer and placed in its cell by the fill and
+     * anchor of the layout.
+     *
+     * @see org.tigris.swidgets.AbstractRendererView#paintItems(
+     *          java.awt.Graphics, java.awt.Rectangle)
+     */
+    void paintItems(Graphics g, Rectangle clip) {
+        int size = getModel().getSize();
+        int nrows = getActualRows();
+        int ncols = getActualColumns();
+        int cellWidth = getCellWidth(ncols);
+        int cellHeight = getCellHeight(nrows);
+        int itemWidth = getItemWidth();
+        int itemHeight = getItemHeight();
+        int colStride = cellWidth + gridLayout.getHgap();
+        int rowStride = cellHeight + gridLayout.getVgap();
+        Insets insets = getInsets();
+        // An item not filling its cell can be larger than the cell, so
+        // the cells just beyond the clip are painted as well.
+        int firstCol = 0;
+        int lastCol = ncols - 1;
+        if (colStride > 0) {
+            int from = clip.x - itemWidth - insets.left;
+            int to = clip.x + clip.width + itemWidth - 1 - insets.left;
+            firstCol = from <= 0 ? 0 : from / colStride;
+            lastCol = Math.min(lastCol, to / colStride);
+        }
+        int firstRow = 0;
+        int lastRow = nrows - 1;
+        if (rowStride > 0) {
+            int from = clip.y - itemHeight - insets.top;
+            int to = clip.y + clip.height + itemHeight - 1 - insets.top;
+            firstRow = from <= 0 ? 0 : from / rowStride;
+            lastRow = Math.min(lastRow, to / rowStride);
+        }
+        for (int r = firstRow; r <= lastRow; ++r) {
+            int y = insets.top + r * rowStride;
+            for (int c = firstCol; c <= lastCol; ++c) {
+                int index = r * ncols + c;
+                if (index >= size) {
+                    return;
+                }
+                Component stamp = getItemComponent(index);
+                gridLayout.positionComponentInCell(
+                    stamp, insets.left + c * colStride, y,
+                    cellWidth, cellHeight, itemWidth, itemHeight);
+                paintItemComponent(g, stamp);
+            }
+        }
+    }
+
+    /**
+     * Move a cell left or right, or a row up or down.
+     *
+     * @see org.tigris.swidgets.AbstractRendererView#moveIndex(int, int)
+     */
+    int moveIndex(int lead, int keyCode) {
+        switch (keyCode) {
+        case KeyEvent.VK_LEFT:
+            return lead - 1;
+        case KeyEvent.VK_RIGHT:
+            return lead + 1;
+        case KeyEvent.VK_UP:
+            return lead - getActualColumns();
+        case KeyEvent.VK_DOWN:
+            return lead + getActualColumns();
+        default:
+            return -1;
+        }
+    }
+
+    /**
+     * @see javax.swing.Scrollable#getScrollableUnitIncrement(
+     *          java.awt.Rectangle, int, int)
+     */
+    public int getScrollableUnitIncrement(Rectangle visibleRect,
+                                          int orientation, int direction) {
+        if (orientation == SwingConstants.VERTICAL) {
+            return getCellHeight(Math.max(1, getActualRows()))
+                + gridLayout.getVgap();
+        }
+        return getCellWidth(Math.max(1, getActualColumns()))
+            + gridLayout.getHgap();
+    }
+
+    /**
+     * Cells sized to fit the parent are given the width of the
+     * viewport, as is a grid narrower than it.
+     *
+     * @see javax.swing.Scrollable#getScrollableTracksViewportWidth()
+     */
+    public boolean getScrollableTracksViewportWidth() {
+        return getParent() instanceof JViewport
+            && (gridLayout.getCellSizing() == GridLayout2.FITPARENT
+                || getParent().getWidth() > getPreferredSize().width);
+    }
+
+    /**
+     * Cells sized to fit the parent are given the height of the
+     * viewport, as is a grid shorter than it.
+     *
+     * @see javax.swing.Scrollable#getScrollableTracksViewportHeight()
+     */
+    public boolean getScrollableTracksViewportHeight() {
+        return getParent() instanceof JViewport
+            && (gridLayout.getCellSizing() == GridLayout2.FITPARENT
+                || getParent().getHeight() > getPreferredSize().height);
+    }
+}
@@ -0,0 +1,20 @@
+// $Id$
+
+package org.tigris.swidgets;
+
+import javax.swing.JPanel;
+
+/**
+ * An invisible child marking where a {@link LabelledLayout} starts a
+ * new section.
+ *
+ * @see LabelledLayout#getSeperator()
+ */
+class Seperator extends JPanel {
+
+    private static final long serialVersionUID = -4143634500959911688L;
+
+    Seperator() {
+        super.setVisible(false);
+    }
+}
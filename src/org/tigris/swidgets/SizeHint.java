@@ -0,0 +1,28 @@
+// $Id$
+
+package org.tigris.swidgets;
+
+/**
+ * Implemented by components whose preferred and minimum sizes depend
+ * only on state that is not changed while a layout is in progress,
+ * such as a label whose size follows from its text, font and insets.
+ * <p>
+ *
+ * A {@link GridLayout2} measuring a large grid asks such components for
+ * their size hint instead of their preferred and minimum sizes, and
+ * may ask many of them at once from threads other than the event
+ * dispatch thread while the event dispatch thread waits. The hint must
+ * therefore be computed without changing any state and without
+ * calling back into the layout, and must be the same as the preferred
+ * and minimum sizes the component would report.
+ */
+public interface SizeHint {
+
+    /**
+     * Compute the preferred and minimum sizes of this component.
+     *
+     * @param hint an array receiving the preferred width, preferred
+     * height, minimum width and minimum height, in that order
+     */
+    public void getSizeHint(int[] hint);
+}
@@ -0,0 +1,159 @@
+// $Id$
+
+package org.tigris.swidgets;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Dimension;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Measures the children of a container, using the {@link SizeHint} of
+ * those that have one. <p>
+ *
+ * When a container has many children with size hints the hints are
+ * computed in parallel, split into ranges of children, on a pool of
+ * worker threads shared by all layouts. The calling thread waits for
+ * them, so all that is left for it to do is read the results.
+ */
+final class SizeHints {
+
+    /**
+     * The least number of children with size hints worth computing
+     * in parallel.
+     */
+    private static final int PARALLEL_THRESHOLD = 1024;
+
+    /**
+     * The number of children computed by each parallel task.
+     */
+    private static final int TASK_SIZE = 256;
+
+    /**
+     * The pool shared by all layouts, created when first needed.
+     */
+    private static ForkJoinPool pool;
+
+    private SizeHints() {
+    }
+
+    /**
+     * Measure a single child, using its size hint if it has one.
+     *
+     * @param comp the child
+     * @param size an array receiving the preferred width, preferred
+     * height, minimum width and minimum height, in that order
+     */
+    static void measure(Component comp, int[] size) {
+        if (comp instanceof SizeHint) {
+            ((SizeHint) comp).getSizeHint(size);
+            return;
+        }
+        Dimension d = comp.getPreferredSize();
+        size[0] = d.width;
+        size[1] = d.height;
+        d = comp.getMinimumSize();
+        size[2] = d.width;
+        size[3] = d.height;
+    }
+
+    /**
+     * Check whether a child may measure differently than when it was
+     * last measured. That is so once it has been invalidated, and also
+     * whenever its preferred or minimum size has been set, as setting
+     * either does not invalidate it. Reading back a size that has been
+     * set is cheap, so such a child is simply measured again.
+     *
+     * @param comp the child
+     * @return true if the child must be measured again
+     */
+    static boolean isStale(Component comp) {
+        return !comp.isValid() || comp.isPreferredSizeSet()
+            || comp.isMinimumSizeSet();
+    }
+
+    /**
+     * Compute the size hints of the children of a container in
+     * parallel, if enough of them have size hints to make it
+     * worthwhile.
+     *
+     * @param parent the container
+     * @param hints an array kept from the last sweep to reuse, if it
+     * is long enough, or null
+     * @return four entries per child, as for
+     * {@link SizeHint#getSizeHint(int[])}, with a preferred width of
+     * -1 for children without a size hint, or null if the children
+     * are better measured one by one
+     */
+    static int[] computeAll(Container parent, int[] hints) {
+        int ncomponents = parent.getComponentCount();
+        if (ncomponents < PARALLEL_THRESHOLD) {
+            return null;
+        }
+        Component[] components = parent.getComponents();
+        int hinted = 0;
+        for (int i = 0; i < ncomponents; ++i) {
+            if (components[i] instanceof SizeHint) {
+                ++hinted;
+            }
+        }
+        if (hinted < PARALLEL_THRESHOLD) {
+            return null;
+        }
+        if (hints == null || hints.length < ncomponents * 4) {
+            hints = new int[ncomponents * 4];
+        }
+        getPool().invoke(new HintTask(components, hints, 0, ncomponents));
+        return hints;
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+
+    /**
+     * Computes the size hints of a range of children, splitting the
+     * range in two while it is large.
+     */
+    private static class HintTask extends RecursiveAction {
+        private static final long serialVersionUID = 2841785219612083354L;
+
+        private final Component[] components;
+        private final int[] hints;
+        private final int from;
+        private final int to;
+
+        HintTask(Component[] theComponents, int[] theHints,
+                 int theFrom, int theTo) {
+            components = theComponents;
+            hints = theHints;
+            from = theFrom;
+            to = theTo;
+        }
+
+        /**
+         * @see java.util.concurrent.RecursiveAction#compute()
+         */
+        protected void compute() {
+            if (to - from > TASK_SIZE) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new HintTask(components, hints, from, mid),
+                          new HintTask(components, hints, mid, to));
+                return;
+            }
+            int[] hint = new int[4];
+            for (int i = from; i < to; ++i) {
+                if (components[i] instanceof SizeHint) {
+                    ((SizeHint) components[i]).getSizeHint(hint);
+                    System.arraycopy(hint, 0, hints, i * 4, 4);
+                } else {
+                    hints[i * 4] = -1;
+                }
+            }
+        }
+    }
+}
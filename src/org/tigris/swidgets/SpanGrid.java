@@ -0,0 +1,372 @@
+// $Id$
+
+package org.tigris.swidgets;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The state a {@link FlexiGridLayout} keeps for a container whose
+ * children are placed by {@link GridCell} constraints, any of which
+ * may span several rows and columns. <p>
+ *
+ * Children without a constraint flow, in row order, into the cells
+ * left free by those with one. A child within a single column sizes
+ * that column directly. The children spanning several columns are
+ * sorted by their span once, when the children are indexed, and then
+ * taken from the narrowest in a single pass, each growing the columns
+ * it spans evenly by whatever they still lack. Rows are sized the same
+ * way.
+ */
+class SpanGrid {
+
+    /**
+     * The number of children indexed, or -1 if they must be indexed
+     * again.
+     */
+    private int count = -1;
+
+    /**
+     * The constraints version of the layout when last indexed.
+     */
+    private int version;
+
+    /**
+     * The number of columns children without a constraint flowed
+     * into when last indexed.
+     */
+    private int flowColumns;
+
+    /**
+     * The gaps the extents were last found with.
+     */
+    private int hgap = -1;
+    private int vgap = -1;
+
+    /**
+     * The child indexed at each index.
+     */
+    private final ChildSnapshot children = new ChildSnapshot();
+
+    /**
+     * The first row and column of each child and the number of rows
+     * and columns it spans.
+     */
+    int[] row = new int[0];
+    int[] col = new int[0];
+    int[] rowSpan = new int[0];
+    int[] colSpan = new int[0];
+
+    /**
+     * The measured sizes of each child.
+     */
+    int[] prefWidth = new int[0];
+    int[] prefHeight = new int[0];
+    private int[] minWidth = new int[0];
+    private int[] minHeight = new int[0];
+
+    /**
+     * Receives the sizes of the child being measured.
+     */
+    private final int[] size = new int[4];
+
+    /**
+     * The size hints computed in parallel by the last full sweep,
+     * kept to be reused by the next.
+     */
+    private int[] hints;
+
+    /**
+     * The children spanning several columns or rows, each held as its
+     * span in the high half and its index in the low half, in
+     * ascending order.
+     */
+    private long[] byColSpan = new long[0];
+    private long[] byRowSpan = new long[0];
+    private int colSpanning;
+    private int rowSpanning;
+
+    /**
+     * The number of rows and columns of the grid.
+     */
+    int nrows;
+    int ncols;
+
+    /**
+     * The preferred and minimum extents of each row and column.
+     */
+    int[] rowExtent = new int[0];
+    int[] colExtent = new int[0];
+    int[] rowMinExtent = new int[0];
+    int[] colMinExtent = new int[0];
+
+    /**
+     * The position of each row and column at the last layout.
+     */
+    int[] rowPos = new int[0];
+    int[] colPos = new int[0];
+
+    /**
+     * Make sure the children of a container are indexed and measured
+     * and the extents of the rows and columns found. Children are only
+     * measured again once invalidated, and only indexed again when
+     * they or their constraints change.
+     *
+     * @param parent the container
+     * @param layout the layout holding the constraints
+     * @param columns the number of columns children without a
+     * constraint flow into
+     * @param h the horizontal gap
+     * @param v the vertical gap
+     */
+    void measure(Container parent, GridLayout2 layout, int columns,
+                 int h, int v) {
+        int ncomponents = parent.getComponentCount();
+        boolean reindex = ncomponents != count
+            || version != layout.getConstraintsVersion()
+            || columns != flowColumns;
+        if (!reindex) {
+            for (int i = 0; i < ncomponents; ++i) {
+                if (!children.is(i, parent.getComponent(i))) {
+                    reindex = true;
+                    break;
+                }
+            }
+        }
+        boolean changed = reindex || h != hgap || v != vgap;
+        if (reindex) {
+            index(parent, layout, columns);
+            int[] hinted = SizeHints.computeAll(parent, hints);
+            if (hinted != null) {
+                hints = hinted;
+            }
+            for (int i = 0; i < ncomponents; ++i) {
+                if (hinted != null && hinted[i * 4] >= 0) {
+                    System.arraycopy(hinted, i * 4, size, 0, 4);
+                    setChild(i);
+                } else {
+                    measureChild(parent.getComponent(i), i);
+                }
+            }
+        } else {
+            for (int i = 0; i < ncomponents; ++i) {
+                Component comp = parent.getComponent(i);
+                if (SizeHints.isStale(comp)) {
+                    changed |= measureChild(comp, i);
+                }
+            }
+        }
+        if (changed) {
+            hgap = h;
+            vgap = v;
+            findExtents();
+        }
+    }
+
+    /**
+     * Take the sizes of the children from the span grid kept for the
+     * same container when laid out with another number of columns,
+     * as this one has missed any changes to the children since it was
+     * last used. If any child has been replaced every child is
+     * measured again instead.
+     *
+     * @param from the span grid last laid out, or null if there is none
+     */
+    void adopt(SpanGrid from) {
+        if (count < 0) {
+            return;
+        }
+        if (from == null || from.count != count) {
+            count = -1;
+            return;
+        }
+        if (!children.same(from.children, count)) {
+            count = -1;
+            return;
+        }
+        System.arraycopy(from.prefWidth, 0, prefWidth, 0, count);
+        System.arraycopy(from.prefHeight, 0, prefHeight, 0, count);
+        System.arraycopy(from.minWidth, 0, minWidth, 0, count);
+        System.arraycopy(from.minHeight, 0, minHeight, 0, count);
+        hgap = -1;
+    }
+
+    /**
+     * Find the cells of every child and sort those spanning several
+     * rows or columns by their span.
+     */
+    private void index(Container parent, GridLayout2 layout, int columns) {
+        int ncomponents = parent.getComponentCount();
+        count = ncomponents;
+        version = layout.getConstraintsVersion();
+        flowColumns = columns;
+        children.ensure(ncomponents);
+        row = GridLayoutState.ensure(row, ncomponents);
+        col = GridLayoutState.ensure(col, ncomponents);
+        rowSpan = GridLayoutState.ensure(rowSpan, ncomponents);
+        colSpan = GridLayoutState.ensure(colSpan, ncomponents);
+        prefWidth = GridLayoutState.ensure(prefWidth, ncomponents);
+        prefHeight = GridLayoutState.ensure(prefHeight, ncomponents);
+        minWidth = GridLayoutState.ensure(minWidth, ncomponents);
+        minHeight = GridLayoutState.ensure(minHeight, ncomponents);
+
+        // Mark the cells taken by children with a constraint, then flow
+        // the others into the cells left free.
+        BitSet taken = new BitSet();
+        nrows = 0;
+        ncols = columns;
+        for (int i = 0; i < ncomponents; ++i) {
+            Component comp = parent.getComponent(i);
+            children.set(i, comp);
+            GridCell cell = layout.getConstraints(comp);
+            if (cell == null) {
+                row[i] = -1;
+                continue;
+            }
+            row[i] = cell.getRow();
+            col[i] = cell.getColumn();
+            rowSpan[i] = cell.getRowSpan();
+            colSpan[i] = cell.getColumnSpan();
+            int lastCol = Math.min(col[i] + colSpan[i], columns);
+            for (int r = row[i]; r < row[i] + rowSpan[i]; ++r) {
+                for (int c = col[i]; c < lastCol; ++c) {
+                    taken.set(r * columns + c);
+                }
+            }
+            nrows = Math.max(nrows, row[i] + rowSpan[i]);
+            ncols = Math.max(ncols, col[i] + colSpan[i]);
+        }
+        int next = 0;
+        for (int i = 0; i < ncomponents; ++i) {
+            if (row[i] < 0) {
+                next = taken.nextClearBit(next);
+                row[i] = next / columns;
+                col[i] = next % columns;
+                rowSpan[i] = 1;
+                colSpan[i] = 1;
+                ++next;
+                nrows = Math.max(nrows, row[i] + 1);
+            }
+        }
+
+        byColSpan = ensure(byColSpan, ncomponents);
+        byRowSpan = ensure(byRowSpan, ncomponents);
+        colSpanning = 0;
+        rowSpanning = 0;
+        for (int i = 0; i < ncomponents; ++i) {
+            if (colSpan[i] > 1) {
+                byColSpan[colSpanning++] = ((long) colSpan[i] << 32) | i;
+            }
+            if (rowSpan[i] > 1) {
+                byRowSpan[rowSpanning++] = ((long) rowSpan[i] << 32) | i;
+            }
+        }
+        Arrays.sort(byColSpan, 0, colSpanning);
+        Arrays.sort(byRowSpan, 0, rowSpanning);
+
+        rowExtent = GridLayoutState.ensure(rowExtent, nrows);
+        rowMinExtent = GridLayoutState.ensure(rowMinExtent, nrows);
+        rowPos = GridLayoutState.ensure(rowPos, nrows);
+        colExtent = GridLayoutState.ensure(colExtent, ncols);
+        colMinExtent = GridLayoutState.ensure(colMinExtent, ncols);
+        colPos = GridLayoutState.ensure(colPos, ncols);
+    }
+
+    private static long[] ensure(long[] a, int length) {
+        return a.length >= length ? a : new long[length];
+    }
+
+    /**
+     * Measure a child and keep its sizes.
+     *
+     * @return true if the child measures differently than before
+     */
+    private boolean measureChild(Component comp, int i) {
+        SizeHints.measure(comp, size);
+        boolean changed = size[0] != prefWidth[i]
+            || size[1] != prefHeight[i]
+            || size[2] != minWidth[i] || size[3] != minHeight[i];
+        setChild(i);
+        return changed;
+    }
+
+    /**
+     * Keep the sizes just measured for a child.
+     */
+    private void setChild(int i) {
+        prefWidth[i] = size[0];
+        prefHeight[i] = size[1];
+        minWidth[i] = size[2];
+        minHeight[i] = size[3];
+    }
+
+    /**
+     * Find the extent of every row and column from the sizes of the
+     * children.
+     */
+    private void findExtents() {
+        Arrays.fill(rowExtent, 0, nrows, 0);
+        Arrays.fill(rowMinExtent, 0, nrows, 0);
+        Arrays.fill(colExtent, 0, ncols, 0);
+        Arrays.fill(colMinExtent, 0, ncols, 0);
+        for (int i = 0; i < count; ++i) {
+            int r = row[i];
+            int c = col[i];
+            if (rowSpan[i] == 1) {
+                if (prefHeight[i] > rowExtent[r]) rowExtent[r] = prefHeight[i];
+                if (minHeight[i] > rowMinExtent[r]) rowMinExtent[r] = minHeight[i];
+            }
+            if (colSpan[i] == 1) {
+                if (prefWidth[i] > colExtent[c]) colExtent[c] = prefWidth[i];
+                if (minWidth[i] > colMinExtent[c]) colMinExtent[c] = minWidth[i];
+            }
+        }
+        for (int k = 0; k < colSpanning; ++k) {
+            int i = (int) byColSpan[k];
+            grow(colExtent, col[i], colSpan[i], hgap, prefWidth[i]);
+            grow(colMinExtent, col[i], colSpan[i], hgap, minWidth[i]);
+        }
+        for (int k = 0; k < rowSpanning; ++k) {
+            int i = (int) byRowSpan[k];
+            grow(rowExtent, row[i], rowSpan[i], vgap, prefHeight[i]);
+            grow(rowMinExtent, row[i], rowSpan[i], vgap, minHeight[i]);
+        }
+
+        // Spans can share out a minimum differently from a preferred
+        // size, but no track should prefer less than its minimum.
+        for (int c = 0; c < ncols; ++c) {
+            if (colMinExtent[c] > colExtent[c]) colExtent[c] = colMinExtent[c];
+        }
+        for (int r = 0; r < nrows; ++r) {
+            if (rowMinExtent[r] > rowExtent[r]) rowExtent[r] = rowMinExtent[r];
+        }
+    }
+
+    /**
+     * Grow the extents of the tracks a child spans, evenly, until
+     * together with the gaps between them they are as large as the
+     * child.
+     *
+     * @param extents the extents of the tracks
+     * @param first the first track the child spans
+     * @param span the number of tracks the child spans
+     * @param gap the gap between tracks
+     * @param need the size of the child
+     */
+    private static void grow(int[] extents, int first, int span, int gap,
+                             int need) {
+        int have = (span - 1) * gap;
+        for (int k = first; k < first + span; ++k) {
+            have += extents[k];
+        }
+        int lack = need - have;
+        if (lack <= 0) {
+            return;
+        }
+        for (int k = 0; k < span; ++k) {
+            extents[first + k] += lack / span + (k < lack % span ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,385 @@
+// $Id$
+
+package org.tigris.swidgets;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Dimension;
+import java.util.Arrays;
+
+/**
+ * The state a {@link GridLayout2} in sparse mode keeps for a
+ * container. <p>
+ *
+ * Each child is placed at the row and column of its {@link GridCell}
+ * constraint. Only the rows and columns that hold a child are kept,
+ * mapped from their row and column numbers to dense slots, so the
+ * work and memory needed grow with the number of children rather
+ * than with the number of rows times columns. Rows and columns
+ * without children are given a default extent.
+ */
+class SparseGrid {
+
+    /**
+     * The number of children indexed, or -1 if they must be indexed
+     * again.
+     */
+    private int count = -1;
+
+    /**
+     * The constraints version of the layout when last indexed.
+     */
+    private int version;
+
+    /**
+     * The child indexed at each index.
+     */
+    private final ChildSnapshot children = new ChildSnapshot();
+
+    /**
+     * The row and column slot of each child.
+     */
+    int[] rowSlot = new int[0];
+    int[] colSlot = new int[0];
+
+    /**
+     * The row and column number of each child, used while indexing.
+     */
+    private int[] rowOf = new int[0];
+    private int[] colOf = new int[0];
+
+    /**
+     * The measured sizes of each child.
+     */
+    int[] prefWidth = new int[0];
+    int[] prefHeight = new int[0];
+    private int[] minWidth = new int[0];
+    private int[] minHeight = new int[0];
+
+    /**
+     * Receives the sizes of the child being measured.
+     */
+    private final int[] size = new int[4];
+
+    /**
+     * The size hints computed in parallel by the last full sweep,
+     * kept to be reused by the next.
+     */
+    private int[] hints;
+
+    /**
+     * The ascending row and column numbers that hold children, by slot.
+     */
+    private int[] rowKeys = new int[0];
+    private int[] colKeys = new int[0];
+
+    /**
+     * The number of rows and columns that hold children.
+     */
+    private int nrows;
+    private int ncols;
+
+    /**
+     * The number of rows and columns the grid spans, including those
+     * without children.
+     */
+    private int rowSpan;
+    private int colSpan;
+
+    /**
+     * Maps row and column numbers to slots.
+     */
+    private final IntIntMap rowIndex = new IntIntMap();
+    private final IntIntMap colIndex = new IntIntMap();
+
+    /**
+     * The preferred and minimum extents of each row and column slot.
+     */
+    private int[] rowExtent = new int[0];
+    private int[] colExtent = new int[0];
+    private int[] rowMinExtent = new int[0];
+    private int[] colMinExtent = new int[0];
+
+    private int largestPreferredWidth;
+    private int largestPreferredHeight;
+    private int largestMinimumWidth;
+    private int largestMinimumHeight;
+
+    /**
+     * The position and size of each row and column slot at the last
+     * layout.
+     */
+    int[] rowPos = new int[0];
+    int[] rowSize = new int[0];
+    int[] colPos = new int[0];
+    int[] colSize = new int[0];
+
+    /**
+     * Make sure the children of a container are indexed and measured.
+     * Children are only measured again once invalidated, and only
+     * indexed again when they or their constraints change.
+     *
+     * @param parent the container
+     * @param layout the layout holding the constraints
+     * @param columns the number of columns the children without a
+     * constraint flow into
+     */
+    void measure(Container parent, GridLayout2 layout, int columns) {
+        int ncomponents = parent.getComponentCount();
+        boolean reindex = ncomponents != count
+            || version != layout.getConstraintsVersion();
+        if (!reindex) {
+            for (int i = 0; i < ncomponents; ++i) {
+                if (!children.is(i, parent.getComponent(i))) {
+                    reindex = true;
+                    break;
+                }
+            }
+        }
+        if (reindex) {
+            index(parent, layout, columns);
+            int[] hinted = SizeHints.computeAll(parent, hints);
+            if (hinted != null) {
+                hints = hinted;
+            }
+            for (int i = 0; i < ncomponents; ++i) {
+                if (hinted != null && hinted[i * 4] >= 0) {
+                    System.arraycopy(hinted, i * 4, size, 0, 4);
+                    setChild(i);
+                } else {
+                    measureChild(parent.getComponent(i), i);
+                }
+            }
+        } else {
+            boolean changed = false;
+            for (int i = 0; i < ncomponents; ++i) {
+                Component comp = parent.getComponent(i);
+                if (SizeHints.isStale(comp)) {
+                    changed |= measureChild(comp, i);
+                }
+            }
+            if (!changed) {
+                return;
+            }
+        }
+        findExtents();
+    }
+
+    /**
+     * Find the row and column slot of every child.
+     */
+    private void index(Container parent, GridLayout2 layout,
+                       int columns) {
+        int ncomponents = parent.getComponentCount();
+        count = ncomponents;
+        version = layout.getConstraintsVersion();
+        children.ensure(ncomponents);
+        rowSlot = GridLayoutState.ensure(rowSlot, ncomponents);
+        colSlot = GridLayoutState.ensure(colSlot, ncomponents);
+        rowOf = GridLayoutState.ensure(rowOf, ncomponents);
+        colOf = GridLayoutState.ensure(colOf, ncomponents);
+        prefWidth = GridLayoutState.ensure(prefWidth, ncomponents);
+        prefHeight = GridLayoutState.ensure(prefHeight, ncomponents);
+        minWidth = GridLayoutState.ensure(minWidth, ncomponents);
+        minHeight = GridLayoutState.ensure(minHeight, ncomponents);
+
+        // Children without a constraint take the cell they would have
+        // in a dense grid.
+        int defaultCols = Math.max(1, columns);
+        for (int i = 0; i < ncomponents; ++i) {
+            Component comp = parent.getComponent(i);
+            children.set(i, comp);
+            GridCell cell = layout.getConstraints(comp);
+            if (cell != null) {
+                rowOf[i] = cell.getRow();
+                colOf[i] = cell.getColumn();
+            } else {
+                rowOf[i] = i / defaultCols;
+                colOf[i] = i % defaultCols;
+            }
+        }
+
+        rowKeys = GridLayoutState.ensure(rowKeys, ncomponents);
+        nrows = distinct(rowOf, ncomponents, rowKeys);
+        colKeys = GridLayoutState.ensure(colKeys, ncomponents);
+        ncols = distinct(colOf, ncomponents, colKeys);
+
+        rowIndex.clear();
+        for (int s = 0; s < nrows; ++s) {
+            rowIndex.put(rowKeys[s], s);
+        }
+        colIndex.clear();
+        for (int s = 0; s < ncols; ++s) {
+            colIndex.put(colKeys[s], s);
+        }
+        for (int i = 0; i < ncomponents; ++i) {
+            rowSlot[i] = rowIndex.get(rowOf[i]);
+            colSlot[i] = colIndex.get(colOf[i]);
+        }
+
+        rowSpan = Math.max(nrows == 0 ? 0 : rowKeys[nrows - 1] + 1,
+                           layout.getRows());
+        colSpan = Math.max(ncols == 0 ? 0 : colKeys[ncols - 1] + 1,
+                           layout.getColumns());
+
+        rowExtent = GridLayoutState.ensure(rowExtent, nrows);
+        rowMinExtent = GridLayoutState.ensure(rowMinExtent, nrows);
+        rowPos = GridLayoutState.ensure(rowPos, nrows);
+        rowSize = GridLayoutState.ensure(rowSize, nrows);
+        colExtent = GridLayoutState.ensure(colExtent, ncols);
+        colMinExtent = GridLayoutState.ensure(colMinExtent, ncols);
+        colPos = GridLayoutState.ensure(colPos, ncols);
+        colSize = GridLayoutState.ensure(colSize, ncols);
+    }
+
+    /**
+     * Copy the distinct values of an array, in ascending order, into
+     * another array large enough to hold them all.
+     *
+     * @return the number of distinct values
+     */
+    private static int distinct(int[] values, int length, int[] into) {
+        System.arraycopy(values, 0, into, 0, length);
+        Arrays.sort(into, 0, length);
+        int n = 0;
+        for (int i = 0; i < length; ++i) {
+            if (n == 0 || into[n - 1] != into[i]) {
+                into[n++] = into[i];
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Measure a child and keep its sizes.
+     *
+     * @return true if the child measures differently than before
+     */
+    private boolean measureChild(Component comp, int i) {
+        SizeHints.measure(comp, size);
+        boolean changed = size[0] != prefWidth[i]
+            || size[1] != prefHeight[i]
+            || size[2] != minWidth[i] || size[3] != minHeight[i];
+        setChild(i);
+        return changed;
+    }
+
+    /**
+     * Keep the sizes just measured for a child.
+     */
+    private void setChild(int i) {
+        prefWidth[i] = size[0];
+        prefHeight[i] = size[1];
+        minWidth[i] = size[2];
+        minHeight[i] = size[3];
+    }
+
+    /**
+     * Find the extent of every row and column slot from the sizes of
+     * the children.
+     */
+    private void findExtents() {
+        Arrays.fill(rowExtent, 0, nrows, 0);
+        Arrays.fill(rowMinExtent, 0, nrows, 0);
+        Arrays.fill(colExtent, 0, ncols, 0);
+        Arrays.fill(colMinExtent, 0, ncols, 0);
+        for (int i = 0; i < count; ++i) {
+            int r = rowSlot[i];
+            int c = colSlot[i];
+            if (prefHeight[i] > rowExtent[r]) rowExtent[r] = prefHeight[i];
+            if (minHeight[i] > rowMinExtent[r]) rowMinExtent[r] = minHeight[i];
+            if (prefWidth[i] > colExtent[c]) colExtent[c] = prefWidth[i];
+            if (minWidth[i] > colMinExtent[c]) colMinExtent[c] = minWidth[i];
+        }
+        largestPreferredWidth = max(colExtent, ncols);
+        largestMinimumWidth = max(colMinExtent, ncols);
+        largestPreferredHeight = max(rowExtent, nrows);
+        largestMinimumHeight = max(rowMinExtent, nrows);
+    }
+
+    private static int max(int[] values, int length) {
+        int max = 0;
+        for (int i = 0; i < length; ++i) {
+            if (values[i] > max) max = values[i];
+        }
+        return max;
+    }
+
+    /**
+     * Calculate the preferred or minimum size of the grid, excluding
+     * the insets of the container.
+     *
+     * @param minimum true for the minimum size, false for preferred
+     * @param cellSizing the cell sizing scheme of the layout
+     * @param hgap the horizontal gap
+     * @param vgap the vertical gap
+     * @param defaultWidth the width of a column without children
+     * @param defaultHeight the height of a row without children
+     * @return the size of the grid
+     */
+    Dimension getSize(boolean minimum, int cellSizing, int hgap, int vgap,
+                      int defaultWidth, int defaultHeight) {
+        int w = colSpan * defaultWidth + Math.max(0, colSpan - 1) * hgap;
+        int h = rowSpan * defaultHeight + Math.max(0, rowSpan - 1) * vgap;
+        if (cellSizing == GridLayout2.ROWCOLPREFERRED) {
+            int[] widths = minimum ? colMinExtent : colExtent;
+            int[] heights = minimum ? rowMinExtent : rowExtent;
+            for (int c = 0; c < ncols; ++c) w += widths[c] - defaultWidth;
+            for (int r = 0; r < nrows; ++r) h += heights[r] - defaultHeight;
+        } else {
+            w += ncols * ((minimum ? largestMinimumWidth
+                           : largestPreferredWidth) - defaultWidth);
+            h += nrows * ((minimum ? largestMinimumHeight
+                           : largestPreferredHeight) - defaultHeight);
+        }
+        return new Dimension(w, h);
+    }
+
+    /**
+     * Find the position and size of every row and column slot.
+     *
+     * @param cellSizing the cell sizing scheme of the layout
+     * @param hgap the horizontal gap
+     * @param vgap the vertical gap
+     * @param defaultWidth the width of a column without children
+     * @param defaultHeight the height of a row without children
+     * @param x the x position of the first column
+     * @param y the y position of the first row
+     * @param availableWidth the width available to the grid
+     * @param availableHeight the height available to the grid
+     */
+    void place(int cellSizing, int hgap, int vgap,
+               int defaultWidth, int defaultHeight,
+               int x, int y, int availableWidth, int availableHeight) {
+        int cellWidth = largestPreferredWidth;
+        int cellHeight = largestPreferredHeight;
+        if (cellSizing == GridLayout2.FITPARENT) {
+            if (ncols > 0) {
+                cellWidth = (availableWidth
+                             - (colSpan - ncols) * defaultWidth
+                             - (colSpan - 1) * hgap) / ncols;
+            }
+            if (nrows > 0) {
+                cellHeight = (availableHeight
+                              - (rowSpan - nrows) * defaultHeight
+                              - (rowSpan - 1) * vgap) / nrows;
+            }
+        }
+        boolean rowCol = cellSizing == GridLayout2.ROWCOLPREFERRED;
+
+        int extra = 0;
+        for (int c = 0; c < ncols; ++c) {
+            int width = rowCol ? colExtent[c] : cellWidth;
+            colPos[c] = x + colKeys[c] * (defaultWidth + hgap) + extra;
+            colSize[c] = width;
+            extra += width - defaultWidth;
+        }
+        extra = 0;
+        for (int r = 0; r < nrows; ++r) {
+            int height = rowCol ? rowExtent[r] : cellHeight;
+            rowPos[r] = y + rowKeys[r] * (defaultHeight + vgap) + extra;
+            rowSize[r] = height;
+            extra += height - defaultHeight;
+        }
+    }
+}
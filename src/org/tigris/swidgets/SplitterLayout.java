@@ -4,7 +4,6 @@
 package org.tigris.swidgets;
 
 import java.awt.*;
-import java.util.*;
 import java.awt.event.*;
 
 /**
@@ -90,28 +89,25 @@ public class SplitterLayout extends ProportionalLayout {
         }
     }
 
-    private void calculateProportions() {
+    private void calculateProportions(Container container) {
         // Find the total proportional size of all visible components
         double totalProportionalLength = 0;
 
-        Enumeration enumKeys = componentTable.keys();
-        while (enumKeys.hasMoreElements()) {
-            Component comp = (Component) enumKeys.nextElement();
-            String size = (String) (componentTable.get(comp));
-            if (size.length() != 0) {
+        int numberOfComponents = container.getComponentCount();
+        for (int i = 0; i < numberOfComponents; ++i) {
+            Component comp = container.getComponent(i);
+            if (isProportional(comp, i)) {
                 totalProportionalLength += _orientation.getLength(comp);
             }
         }
 
-        enumKeys = componentTable.keys();
-        while (enumKeys.hasMoreElements()) {
-            Component comp = (Component) enumKeys.nextElement();
-            String size = (String) (componentTable.get(comp));
-            if (size.length() != 0) {
+        for (int i = 0; i < numberOfComponents; ++i) {
+            Component comp = container.getComponent(i);
+            if (isProportional(comp, i)) {
                 double proportionalLength =
 		    _orientation.getLength(comp) * 100
 		    / totalProportionalLength;
-                componentTable.put(comp, Double.toString(proportionalLength));
+                setProportion(comp, i, proportionalLength);
             }
         }
     }
@@ -120,27 +116,22 @@ public class SplitterLayout extends ProportionalLayout {
     // proportional. Recalculates the proportions as a percentage
     // based on their current size.
     private void calculateProportions(Component westComponent,
-				      Component eastComponent)
+				      int westIndex,
+				      Component eastComponent,
+				      int eastIndex)
     {
-        String westProportionalLength =
-	    (String) (componentTable.get(westComponent));
-        String eastProportionalLength =
-	    (String) (componentTable.get(eastComponent));
-
         double westComponentLength = _orientation.getLength(westComponent);
         double eastComponentLength = _orientation.getLength(eastComponent);
         double totalProportionalLength =
-	    Double.parseDouble(westProportionalLength)
-	    + Double.parseDouble(eastProportionalLength);
+	    getProportion(westComponent, westIndex)
+	    + getProportion(eastComponent, eastIndex);
         double newWestProportionalLength =
 	    totalProportionalLength * westComponentLength
 	    / (westComponentLength + eastComponentLength);
         double newEastProportionalLength =
 	    totalProportionalLength - newWestProportionalLength;
-        componentTable.put(westComponent,
-			   Double.toString(newWestProportionalLength));
-        componentTable.put(eastComponent,
-			   Double.toString(newEastProportionalLength));
+        setProportion(westComponent, westIndex, newWestProportionalLength);
+        setProportion(eastComponent, eastIndex, newEastProportionalLength);
         return;
     }
 
@@ -167,26 +158,27 @@ public class SplitterLayout extends ProportionalLayout {
             // Only act on a splitter release if it has both
             // components registered
             if (westComponent != null && eastComponent != null) {
-                String westProportionalLength =
-		    (String) (componentTable.get(westComponent));
-                String eastProportionalLength =
-		    (String) (componentTable.get(eastComponent));
-                if (westProportionalLength.length() != 0
-		    && eastProportionalLength.length() != 0)
+                int westIndex = getComponentPosition(westComponent);
+                int eastIndex = getComponentPosition(eastComponent);
+                boolean westProportional =
+                    isProportional(westComponent, westIndex);
+                boolean eastProportional =
+                    isProportional(eastComponent, eastIndex);
+                if (westProportional && eastProportional)
 		{
                     // If the components resized were both flagged to
                     // keep proportion then we only have to
                     // recalculate their proportions to eachother
-                    calculateProportions(westComponent, eastComponent);
+                    calculateProportions(westComponent, westIndex,
+                                         eastComponent, eastIndex);
                 }
-                else if (westProportionalLength.length() != 0
-			 || eastProportionalLength.length() != 0)
+                else if (westProportional || eastProportional)
 		{
 		    // If only one component is flagged as
 		    // proportioned then all proportioned
 		    // components need to have their proportions
 		    // recalculated.
-                    calculateProportions();
+                    calculateProportions(splitter.getParent());
                 }
             }
         }
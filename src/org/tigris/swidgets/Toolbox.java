@@ -8,10 +8,12 @@
 
 package org.tigris.swidgets;
 
-import java.awt.GridLayout;
-
 /**
- * A toolbar where buttons are shown in a grid instead of a row.
+ * A toolbar where buttons are shown in a grid instead of a row. <p>
+ *
+ * The buttons are laid out by a {@link GridLayout2}, which finds a
+ * grid of same sized buttons to be uniform and then only measures a
+ * button again once it has changed.
  * @author  Bob Tarling
  */
 public class Toolbox extends Toolbar {
@@ -27,6 +29,6 @@ public class Toolbox extends Toolbar {
         super();
         rows = r;
         cols = c;
-        setLayout(new GridLayout(rows, cols));
+        setLayout(new GridLayout2(rows, cols));
     }
 }
@@ -0,0 +1,141 @@
+// $Id$
+
+package org.tigris.swidgets;
+
+/**
+ * The size of a row or column of a {@link FlexiGridLayout}. A track is
+ * either a fixed number of pixels, a percentage of the space available
+ * to all tracks, the preferred size of the cells in the track or a
+ * share of the space left over by the other tracks.
+ *
+ * @see FlexiGridLayout#setColumnTracks(Track[])
+ * @see FlexiGridLayout#setRowTracks(Track[])
+ */
+public final class Track implements java.io.Serializable {
+
+    private static final long serialVersionUID = -3190451775202634786L;
+
+    /**
+     * A track of a fixed number of pixels.
+     */
+    public static final int FIXED = 0;
+
+    /**
+     * A track taking a percentage of the space available to all
+     * tracks.
+     */
+    public static final int PERCENT = 1;
+
+    /**
+     * A track as large as the largest preferred size of its cells.
+     */
+    public static final int PREFERRED = 2;
+
+    /**
+     * A track taking a share of the space left over by all tracks that
+     * are not fractions, in proportion to its weight.
+     */
+    public static final int FRACTION = 3;
+
+    private static final Track PREFERRED_TRACK = new Track(PREFERRED, 0);
+
+    private final int type;
+    private final double value;
+
+    private Track(int t, double v) {
+        this.type = t;
+        this.value = v;
+    }
+
+    /**
+     * @param pixels the size of the track
+     * @return a track of a fixed size
+     */
+    public static Track fixed(int pixels) {
+        if (pixels < 0) {
+            throw new IllegalArgumentException("size must not be negative");
+        }
+        return new Track(FIXED, pixels);
+    }
+
+    /**
+     * @param percent the percentage of the space available to all
+     * tracks, from 0 to 100
+     * @return a track sized as a percentage of the available space
+     */
+    public static Track percent(double percent) {
+        if (!(percent >= 0 && percent <= 100)) {
+            throw new IllegalArgumentException("percentage must be "
+                                               + "from 0 to 100");
+        }
+        return new Track(PERCENT, percent);
+    }
+
+    /**
+     * @return a track sized by the preferred size of its cells
+     */
+    public static Track preferred() {
+        return PREFERRED_TRACK;
+    }
+
+    /**
+     * @param weight the weight of the track against other fractions
+     * @return a track taking a share of the space left over
+     */
+    public static Track fraction(double weight) {
+        if (!(weight > 0)) {
+            throw new IllegalArgumentException("weight must be positive");
+        }
+        return new Track(FRACTION, weight);
+    }
+
+    /**
+     * @return one of FIXED, PERCENT, PREFERRED or FRACTION
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return the pixels, percentage or weight of the track, as given
+     * by its type
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof Track)) {
+            return false;
+        }
+        Track other = (Track) o;
+        return type == other.type && value == other.value;
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(value);
+        return type * 31 + (int) (bits ^ (bits >>> 32));
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        if (type == FIXED) {
+            return "Track[fixed=" + (int) value + "]";
+        }
+        if (type == PERCENT) {
+            return "Track[percent=" + value + "]";
+        }
+        if (type == FRACTION) {
+            return "Track[fraction=" + value + "]";
+        }
+        return "Track[preferred]";
+    }
+}
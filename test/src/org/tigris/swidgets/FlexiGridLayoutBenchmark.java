@@ -0,0 +1,183 @@
+// $Id$
+
+package org.tigris.swidgets;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Dimension;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.GraphicsEnvironment;
+import java.awt.LayoutManager;
+
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+
+/**
+ * Times laying out a large grid of labels with a
+ * {@link FlexiGridLayout} against the equivalent
+ * {@link GridBagLayout}. <p>
+ *
+ * The width of the container changes on every pass, so every cell
+ * moves each time. The first column is a fixed track of 80 pixels,
+ * the second a preferred track and the rest share what is left as
+ * equal fractions. The GridBagLayout is given the same columns: the
+ * labels of the first column are 80 pixels wide, those of the second
+ * keep their own width and those of the rest are given no width of
+ * their own and an equal weight, so that they share what is left.
+ * GridBagLayout has nothing like a percentage track, so none is used.
+ * The widths laid out at leave a whole number of pixels for each
+ * fraction, so the two need not round, and the widest difference
+ * between their columns is printed to show they match. <p>
+ *
+ * Run it as
+ * <pre>
+ * java org.tigris.swidgets.FlexiGridLayoutBenchmark [rows cols passes]
+ * </pre>
+ * On a headless system no child has a peer, so none is ever valid
+ * and FlexiGridLayout measures every child again on every pass, as
+ * GridBagLayout always does.
+ */
+public class FlexiGridLayoutBenchmark {
+
+    private static final int WARMUP = 200;
+
+    private static final int FIXED_WIDTH = 80;
+
+    private FlexiGridLayoutBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int rows = 250;
+        int cols = 40;
+        int passes = 500;
+        if (args.length == 3) {
+            rows = Integer.parseInt(args[0]);
+            cols = Integer.parseInt(args[1]);
+            passes = Integer.parseInt(args[2]);
+        }
+
+        FlexiGridLayout flexi = new FlexiGridLayout(rows, cols);
+        Track[] tracks = new Track[cols];
+        for (int c = 0; c < cols; ++c) {
+            if (c == 0) {
+                tracks[c] = Track.fixed(FIXED_WIDTH);
+            } else if (c == 1) {
+                tracks[c] = Track.preferred();
+            } else {
+                tracks[c] = Track.fraction(1);
+            }
+        }
+        flexi.setColumnTracks(tracks);
+        JPanel flexiPanel = new JPanel(flexi);
+        for (int i = 0; i < rows * cols; ++i) {
+            flexiPanel.add(createLabel(i, i % cols));
+        }
+
+        JPanel bagPanel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        for (int r = 0; r < rows; ++r) {
+            for (int c = 0; c < cols; ++c) {
+                gbc.gridx = c;
+                gbc.gridy = r;
+                gbc.weightx = c < 2 ? 0 : 1;
+                bagPanel.add(createLabel(r * cols + c, c), gbc);
+            }
+        }
+
+        if (!GraphicsEnvironment.isHeadless()) {
+            show(flexiPanel);
+            show(bagPanel);
+        }
+
+        // Widths leaving an even share for each fraction
+        int fractions = Math.max(1, cols - 2);
+        int narrow = FIXED_WIDTH + fractions * 40;
+        for (int r = 0; cols > 1 && r < rows; ++r) {
+            narrow = Math.max(narrow, FIXED_WIDTH + fractions * 40
+                + bagPanel.getComponent(r * cols + 1)
+                    .getPreferredSize().width);
+        }
+        int wide = narrow + fractions * 5;
+
+        System.out.println(rows + " x " + cols + " labels, "
+                           + passes + " passes");
+        report("FlexiGridLayout", time(flexiPanel, passes, narrow, wide));
+        report("GridBagLayout", time(bagPanel, passes, narrow, wide));
+        System.out.println("Columns differ by at most "
+                           + compare(flexiPanel, bagPanel, cols)
+                           + " pixels");
+        System.exit(0);
+    }
+
+    /**
+     * Create a label sized for the GridBagLayout to give its column
+     * the same width as the track of the column.
+     */
+    private static JLabel createLabel(int i, int column) {
+        JLabel label = new JLabel("Label " + i);
+        int height = label.getPreferredSize().height;
+        if (column == 0) {
+            label.setPreferredSize(new Dimension(FIXED_WIDTH, height));
+            label.setMinimumSize(new Dimension(FIXED_WIDTH, height));
+        } else if (column > 1) {
+            label.setPreferredSize(new Dimension(0, height));
+            label.setMinimumSize(new Dimension(0, height));
+        }
+        return label;
+    }
+
+    /**
+     * @return the widest difference between the positions or widths of
+     * the cells in the first row of two panels last laid out
+     */
+    private static int compare(Container a, Container b, int cols) {
+        int most = 0;
+        for (int c = 0; c < cols; ++c) {
+            Component ca = a.getComponent(c);
+            Component cb = b.getComponent(c);
+            most = Math.max(most, Math.abs(ca.getX() - cb.getX()));
+            most = Math.max(most, Math.abs(ca.getWidth() - cb.getWidth()));
+        }
+        return most;
+    }
+
+    /**
+     * Give a panel peers, so its children are only measured again
+     * once they have been invalidated.
+     */
+    private static void show(JPanel panel) {
+        JFrame frame = new JFrame();
+        frame.setContentPane(panel);
+        frame.pack();
+        panel.validate();
+    }
+
+    /**
+     * Lay out a panel repeatedly at alternating widths.
+     *
+     * @return the mean time of a layout in nanoseconds
+     */
+    private static long time(Container panel, int passes,
+                             int narrow, int wide) {
+        LayoutManager layout = panel.getLayout();
+        int height = layout.preferredLayoutSize(panel).height;
+        for (int i = 0; i < WARMUP; ++i) {
+            panel.setSize((i & 1) == 0 ? narrow : wide, height);
+            layout.layoutContainer(panel);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < passes; ++i) {
+            panel.setSize((i & 1) == 0 ? narrow : wide, height);
+            layout.layoutContainer(panel);
+        }
+        return (System.nanoTime() - start) / passes;
+    }
+
+    private static void report(String name, long nanos) {
+        System.out.println(name + ": " + (nanos / 1000) / 1000.0
+                           + " ms per layout");
+    }
+}